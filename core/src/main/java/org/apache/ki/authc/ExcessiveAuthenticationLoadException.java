@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authc;
+
+/**
+ * Thrown when an authentication attempt is rejected without being evaluated because the system is already processing
+ * as many authentication attempts as it has been configured to allow.  Unlike other authentication failures, this
+ * says nothing about the submitted credentials:  the attempt may simply be retried later.
+ *
+ * @see org.apache.ki.authc.credential.ExecutorCredentialsMatcher
+ * @since 1.0
+ */
+public class ExcessiveAuthenticationLoadException extends AuthenticationException {
+
+    /**
+     * Creates a new ExcessiveAuthenticationLoadException.
+     */
+    public ExcessiveAuthenticationLoadException() {
+        super();
+    }
+
+    /**
+     * Constructs a new ExcessiveAuthenticationLoadException.
+     *
+     * @param message the reason for the exception
+     */
+    public ExcessiveAuthenticationLoadException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs a new ExcessiveAuthenticationLoadException.
+     *
+     * @param cause the underlying Throwable that caused this exception to be thrown.
+     */
+    public ExcessiveAuthenticationLoadException(Throwable cause) {
+        super(cause);
+    }
+
+    /**
+     * Constructs a new ExcessiveAuthenticationLoadException.
+     *
+     * @param message the reason for the exception
+     * @param cause   the underlying Throwable that caused this exception to be thrown.
+     */
+    public ExcessiveAuthenticationLoadException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authc.credential;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.ki.authc.AuthenticationInfo;
+import org.apache.ki.authc.AuthenticationToken;
+import org.apache.ki.codec.CodecSupport;
+import org.apache.ki.util.Destroyable;
+import org.apache.ki.util.LifecycleUtils;
+
+/**
+ * A <code>CredentialsMatcher</code> decorator that remembers recent successful matches, so that repeatedly submitting
+ * the same credentials for the same account does not repeat an expensive match such as a
+ * {@link HashedCredentialsMatcher HashedCredentialsMatcher} with many hash iterations.
+ * <p/>
+ * This is intended for stateless clients that authenticate on every request, for example via HTTP Basic
+ * authentication.  After the wrapped {@link #getCredentialsMatcher() credentialsMatcher} has confirmed a match, a
+ * fingerprint of the submitted and the stored credentials is retained for the account's principal for the
+ * configured {@link #setTimeToLive(long) timeToLive}.  A later attempt whose fingerprint is identical is accepted
+ * without consulting the wrapped matcher.
+ * <p/>
+ * Fingerprints are computed with a keyed MAC (HMAC-SHA256) whose key is randomly generated for each instance and never
+ * leaves memory, so neither the plaintext credentials nor an unkeyed hash of them is ever retained.  Because the
+ * stored credentials are part of the fingerprint, changing an account's stored credentials invalidates its entry
+ * automatically.  Entries can also be removed explicitly via {@link #clear(Object) clear}, which
+ * {@link org.apache.ki.realm.AuthenticatingRealm AuthenticatingRealm} does whenever it clears an account's cached
+ * authentication data, for example on logout.
+ * <p/>
+ * Failed matches are never remembered.  Credentials of a type other than <code>byte[]</code>, <code>char[]</code> or
+ * <code>String</code> are always passed to the wrapped matcher.
+ *
+ * @since 1.0
+ */
+public class CachingCredentialsMatcher extends CodecSupport implements CredentialsMatcher, Destroyable {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingCredentialsMatcher.class);
+
+    /**
+     * The default time a successful match is remembered, in milliseconds (1 minute).
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 60 * 1000;
+
+    /**
+     * The default maximum number of remembered matches.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private static final int MAC_KEY_LENGTH = 32;
+
+    private CredentialsMatcher credentialsMatcher;
+
+    private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    private final SecretKeySpec macKey;
+
+    /**
+     * Mac instances aren't thread-safe - each thread gets its own, initialized with the <code>macKey</code>.
+     */
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(macKey);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Unable to initialize a '" + MAC_ALGORITHM + "' Mac.", e);
+            }
+        }
+    };
+
+    /**
+     * The remembered matches, keyed by token principal.
+     */
+    private final ConcurrentMap<Object, Entry> entries = new ConcurrentHashMap<Object, Entry>();
+
+    public CachingCredentialsMatcher() {
+        byte[] key = new byte[MAC_KEY_LENGTH];
+        new SecureRandom().nextBytes(key);
+        this.macKey = new SecretKeySpec(key, MAC_ALGORITHM);
+        Arrays.fill(key, (byte) 0);
+    }
+
+    public CachingCredentialsMatcher(CredentialsMatcher credentialsMatcher) {
+        this();
+        setCredentialsMatcher(credentialsMatcher);
+    }
+
+    /**
+     * Returns the matcher performing the actual credentials match.
+     *
+     * @return the matcher performing the actual credentials match.
+     */
+    public CredentialsMatcher getCredentialsMatcher() {
+        return credentialsMatcher;
+    }
+
+    /**
+     * Sets the matcher performing the actual credentials match.  Remembered matches are discarded.
+     *
+     * @param credentialsMatcher the matcher performing the actual credentials match.
+     */
+    public void setCredentialsMatcher(CredentialsMatcher credentialsMatcher) {
+        this.credentialsMatcher = credentialsMatcher;
+        clear();
+    }
+
+    /**
+     * Returns the time a successful match is remembered, in milliseconds.  The default is one minute.
+     *
+     * @return the time a successful match is remembered, in milliseconds.
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Sets the time a successful match is remembered, in milliseconds.  A value of zero or less disables remembering
+     * matches altogether.
+     *
+     * @param timeToLive the time a successful match is remembered, in milliseconds.
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Returns the maximum number of remembered matches.  Once reached, further matches are only remembered after
+     * expired ones have been discarded.
+     *
+     * @return the maximum number of remembered matches.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public boolean doCredentialsMatch(AuthenticationToken token, AuthenticationInfo info) {
+        CredentialsMatcher matcher = getCredentialsMatcher();
+        if (matcher == null) {
+            throw new IllegalStateException("The credentialsMatcher property must be set.");
+        }
+
+        Object principal = token != null ? token.getPrincipal() : null;
+        byte[] fingerprint = null;
+        if (principal != null && info != null && getTimeToLive() > 0) {
+            fingerprint = fingerprint(token.getCredentials(), info.getCredentials());
+        }
+        if (fingerprint == null) {
+            return matcher.doCredentialsMatch(token, info);
+        }
+
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(principal);
+        if (entry != null && entry.expiration > now && MessageDigest.isEqual(entry.fingerprint, fingerprint)) {
+            if (log.isTraceEnabled()) {
+                log.trace("Credentials for principal [" + principal + "] match a recent successful match.");
+            }
+            return true;
+        }
+
+        boolean match = matcher.doCredentialsMatch(token, info);
+        if (match) {
+            remember(principal, new Entry(fingerprint, now + getTimeToLive()), now);
+        }
+        return match;
+    }
+
+    private void remember(Object principal, Entry entry, long now) {
+        if (entries.size() >= getMaxEntries() && !entries.containsKey(principal)) {
+            for (Iterator<Map.Entry<Object, Entry>> i = entries.entrySet().iterator(); i.hasNext();) {
+                if (i.next().getValue().expiration <= now) {
+                    i.remove();
+                }
+            }
+            if (entries.size() >= getMaxEntries()) {
+                return;
+            }
+        }
+        entries.put(principal, entry);
+    }
+
+    /**
+     * Returns the keyed MAC of both credentials, or <code>null</code> if either can't be converted to bytes without
+     * side effects.
+     */
+    private byte[] fingerprint(Object submitted, Object stored) {
+        if (!isByteSource(submitted) || !isByteSource(stored)) {
+            return null;
+        }
+        Mac mac = macs.get();
+        update(mac, submitted);
+        update(mac, stored);
+        return mac.doFinal();
+    }
+
+    private static boolean isByteSource(Object o) {
+        return o instanceof byte[] || o instanceof char[] || o instanceof String;
+    }
+
+    private void update(Mac mac, Object credentials) {
+        byte[] bytes = toBytes(credentials);
+        //prefix each value with its length, so that the boundary between both values is unambiguous:
+        mac.update((byte) (bytes.length >>> 24));
+        mac.update((byte) (bytes.length >>> 16));
+        mac.update((byte) (bytes.length >>> 8));
+        mac.update((byte) bytes.length);
+        mac.update(bytes);
+        if (bytes != credentials) {
+            //a copy made just for this purpose - don't leave it lying around:
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    /**
+     * Forgets the remembered match for the specified principal, if any, so that the next attempt is passed to the
+     * wrapped matcher again.
+     *
+     * @param principal the token principal of the account.
+     */
+    public void clear(Object principal) {
+        if (principal != null) {
+            entries.remove(principal);
+        }
+    }
+
+    /**
+     * Forgets all remembered matches.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Forgets all remembered matches and destroys the wrapped {@link #getCredentialsMatcher() credentialsMatcher} if
+     * it is {@link Destroyable Destroyable}.
+     */
+    public void destroy() {
+        clear();
+        LifecycleUtils.destroy(getCredentialsMatcher());
+    }
+
+    private static class Entry {
+        private final byte[] fingerprint;
+        private final long expiration;
+
+        private Entry(byte[] fingerprint, long expiration) {
+            this.fingerprint = fingerprint;
+            this.expiration = expiration;
+        }
+    }
+}
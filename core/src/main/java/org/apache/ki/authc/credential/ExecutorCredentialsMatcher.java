@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authc.credential;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.ki.authc.AuthenticationException;
+import org.apache.ki.authc.AuthenticationInfo;
+import org.apache.ki.authc.AuthenticationToken;
+import org.apache.ki.authc.ExcessiveAuthenticationLoadException;
+import org.apache.ki.util.Destroyable;
+
+/**
+ * A <code>CredentialsMatcher</code> decorator that performs the actual credentials match on a dedicated, bounded pool
+ * of threads, while the calling thread waits for the result.
+ * <p/>
+ * CPU-intensive matchers, such as a {@link HashedCredentialsMatcher HashedCredentialsMatcher} with many hash
+ * iterations, can otherwise occupy every request thread of an application during a burst of log-in attempts (for
+ * example a credential stuffing attack), stalling all unrelated requests.  With this matcher at most
+ * {@link #getThreads() threads} matches run concurrently - by default one per available processor - and at most
+ * {@link #getQueueSize() queueSize} further attempts wait for a thread.  Any attempt beyond that fails immediately with
+ * an {@link ExcessiveAuthenticationLoadException ExcessiveAuthenticationLoadException} instead of consuming CPU time.
+ * <p/>
+ * This matcher can itself be wrapped by a {@link CachingCredentialsMatcher CachingCredentialsMatcher}, so that
+ * remembered matches don't need a pool thread at all.
+ *
+ * @since 1.0
+ */
+public class ExecutorCredentialsMatcher implements CredentialsMatcher, Destroyable {
+
+    private static final Logger log = LoggerFactory.getLogger(ExecutorCredentialsMatcher.class);
+
+    /**
+     * The default maximum number of attempts waiting for a thread.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+
+    private CredentialsMatcher credentialsMatcher;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+
+    /**
+     * The executor explicitly configured via {@link #setExecutor(ExecutorService) setExecutor}, if any.
+     */
+    private ExecutorService executor;
+
+    /**
+     * The executor created by this instance if none was configured.  Guarded by <code>this</code>.
+     */
+    private ExecutorService defaultExecutor;
+
+    public ExecutorCredentialsMatcher() {
+    }
+
+    public ExecutorCredentialsMatcher(CredentialsMatcher credentialsMatcher) {
+        setCredentialsMatcher(credentialsMatcher);
+    }
+
+    /**
+     * Returns the matcher performing the actual credentials match on the pool's threads.
+     *
+     * @return the matcher performing the actual credentials match.
+     */
+    public CredentialsMatcher getCredentialsMatcher() {
+        return credentialsMatcher;
+    }
+
+    public void setCredentialsMatcher(CredentialsMatcher credentialsMatcher) {
+        this.credentialsMatcher = credentialsMatcher;
+    }
+
+    /**
+     * Returns the maximum number of matches performed concurrently.  Defaults to the number of available processors.
+     *
+     * @return the maximum number of matches performed concurrently.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be greater than zero.");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the maximum number of attempts waiting for a thread before further attempts are rejected.
+     *
+     * @return the maximum number of attempts waiting for a thread.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("queueSize must be greater than zero.");
+        }
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Returns the executor performing the matches.  If none has been {@link #setExecutor(ExecutorService) set}, a
+     * pool of {@link #getThreads() threads} daemon threads and a queue of {@link #getQueueSize() queueSize} tasks is
+     * created on first use and shut down when this instance is {@link #destroy() destroyed}.
+     *
+     * @return the executor performing the matches.
+     */
+    public synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            if (defaultExecutor == null) {
+                defaultExecutor = createExecutor();
+            }
+            return defaultExecutor;
+        }
+        return executor;
+    }
+
+    /**
+     * Sets the executor performing the matches.  An executor set via this method is not shut down by this instance.
+     * It should be bounded and reject tasks via a <code>RejectedExecutionException</code> when saturated.
+     *
+     * @param executor the executor performing the matches.
+     */
+    public synchronized void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Creates the default executor:  a fixed pool of {@link #getThreads() threads} daemon threads with a queue of
+     * {@link #getQueueSize() queueSize} tasks that rejects tasks when the queue is full.
+     *
+     * @return the default executor.
+     */
+    protected ExecutorService createExecutor() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "credentials-matcher-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        int threads = getThreads();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(getQueueSize()), threadFactory);
+    }
+
+    /**
+     * Shuts down the executor if it was created by this instance.  A new one is created should this instance be used
+     * again afterwards.
+     */
+    public void destroy() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = defaultExecutor;
+            defaultExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Performs the match on the executor and returns its result.
+     *
+     * @param token the token submitted for authentication.
+     * @param info  the account being verified for access.
+     * @return the result of the wrapped matcher.
+     * @throws ExcessiveAuthenticationLoadException
+     *          if the executor is saturated and rejected the match.
+     */
+    public boolean doCredentialsMatch(final AuthenticationToken token, final AuthenticationInfo info)
+            throws ExcessiveAuthenticationLoadException {
+        final CredentialsMatcher matcher = getCredentialsMatcher();
+        if (matcher == null) {
+            throw new IllegalStateException("The credentialsMatcher property must be set.");
+        }
+
+        Future<Boolean> match;
+        try {
+            match = getExecutor().submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    return matcher.doCredentialsMatch(token, info);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Credentials matching capacity exhausted - rejecting authentication attempt for [" +
+                        token + "]");
+            }
+            throw new ExcessiveAuthenticationLoadException("Too many concurrent authentication attempts.  " +
+                    "Please try again later.", e);
+        }
+
+        return awaitMatch(match);
+    }
+
+    private boolean awaitMatch(Future<Boolean> match) {
+        try {
+            return match.get();
+        } catch (InterruptedException e) {
+            match.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new AuthenticationException("Interrupted while waiting for the credentials to be verified.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AuthenticationException("Unable to verify the credentials.", cause);
+        }
+    }
+}
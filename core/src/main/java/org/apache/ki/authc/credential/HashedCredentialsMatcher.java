@@ -23,6 +23,7 @@ import org.apache.ki.authc.AuthenticationToken;
 import org.apache.ki.codec.Base64;
 import org.apache.ki.codec.Hex;
 import org.apache.ki.crypto.hash.AbstractHash;
+import org.apache.ki.crypto.hash.DigestUtils;
 import org.apache.ki.crypto.hash.Hash;
 
 /**
@@ -83,6 +84,15 @@ import org.apache.ki.crypto.hash.Hash;
  */
 public abstract class HashedCredentialsMatcher extends SimpleCredentialsMatcher {
 
+    /**
+     * Per-thread buffer receiving the hash of the submitted credentials, large enough for a SHA-512 digest.
+     */
+    private static final ThreadLocal<byte[]> hashBuffers = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() {
+            return new byte[64];
+        }
+    };
+
     private boolean storedCredentialsHexEncoded = true; //false means base64 encoded
     private boolean hashSalted = false;
     private int hashIterations = 1;
@@ -231,8 +241,12 @@ public abstract class HashedCredentialsMatcher extends SimpleCredentialsMatcher
      * @return a {@link Hash Hash} instance representing the given AuthenticationInfo's stored credentials.
      */
     protected Object getCredentials(AuthenticationInfo info) {
-        Object credentials = info.getCredentials();
+        AbstractHash hash = newHashInstance();
+        hash.setBytes(getStoredBytes(info.getCredentials()));
+        return hash;
+    }
 
+    private byte[] getStoredBytes(Object credentials) {
         byte[] storedBytes = toBytes(credentials);
 
         if (credentials instanceof String || credentials instanceof char[]) {
@@ -244,9 +258,73 @@ public abstract class HashedCredentialsMatcher extends SimpleCredentialsMatcher
                 storedBytes = Base64.decode(storedBytes);
             }
         }
-        AbstractHash hash = newHashInstance();
-        hash.setBytes(storedBytes);
-        return hash;
+        return storedBytes;
+    }
+
+    /**
+     * Returns the name of the digest algorithm used by {@link #hashProvidedCredentials hashProvidedCredentials}, or
+     * <code>null</code> to always use that method.
+     * <p/>
+     * Returning a name opts in to a faster match:  {@link #doCredentialsMatch doCredentialsMatch} then hashes the
+     * submitted credentials with {@link DigestUtils#hash(String, byte[], byte[], int, byte[], int) DigestUtils.hash}
+     * into a reusable buffer and compares the result to the decoded stored credentials in constant time, instead of
+     * creating {@link Hash Hash} instances per attempt.  The following methods are then <em>not</em> called, so a
+     * subclass overriding any of them must return <code>null</code> here:
+     * <ul>
+     * <li>{@link #hashProvidedCredentials(Object, Object, int) hashProvidedCredentials}</li>
+     * <li>{@link #newHashInstance() newHashInstance}</li>
+     * <li>{@link #getCredentials(AuthenticationToken) getCredentials(AuthenticationToken)}</li>
+     * <li>{@link #getCredentials(AuthenticationInfo) getCredentials(AuthenticationInfo)}</li>
+     * <li>{@link #equals(Object, Object) equals}</li>
+     * </ul>
+     * {@link #getSalt(AuthenticationToken) getSalt} and <code>toBytes</code> are still used.  The matchers for the
+     * standard algorithms, such as {@link Sha256CredentialsMatcher Sha256CredentialsMatcher}, return their
+     * algorithm's name.
+     * <p/>
+     * This default implementation returns <code>null</code>.
+     *
+     * @return the name of the digest algorithm used to hash submitted credentials, or <code>null</code> if unknown.
+     * @since 1.0
+     */
+    protected String getHashAlgorithmName() {
+        return null;
+    }
+
+    /**
+     * Hashes the submitted credentials directly into a reusable buffer if the
+     * {@link #getHashAlgorithmName() hash algorithm} is known, otherwise defers to the parent implementation.
+     *
+     * @param token the <tt>AuthenticationToken</tt> submitted during the authentication attempt.
+     * @param info  the <tt>AuthenticationInfo</tt> stored in the system matching the token principal.
+     * @return <tt>true</tt> if the provided token credentials match the stored account credentials,
+     *         <tt>false</tt> otherwise
+     */
+    public boolean doCredentialsMatch(AuthenticationToken token, AuthenticationInfo info) {
+        String algorithmName = getHashAlgorithmName();
+        if (algorithmName == null) {
+            return super.doCredentialsMatch(token, info);
+        }
+        byte[] storedBytes = getStoredBytes(info.getCredentials());
+        Object salt = isHashSalted() ? getSalt(token) : null;
+        byte[] source = toBytes(token.getCredentials());
+        byte[] saltBytes = salt != null ? toBytes(salt) : null;
+
+        byte[] buffer = hashBuffers.get();
+        int length = DigestUtils.getDigestLength(algorithmName);
+        if (buffer.length < length) {
+            buffer = new byte[length];
+            hashBuffers.set(buffer);
+        }
+        DigestUtils.hash(algorithmName, source, saltBytes, getHashIterations(), buffer, 0);
+
+        if (storedBytes.length != length) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < length; i++) {
+            diff |= buffer[i] ^ storedBytes[i];
+        }
+        return diff == 0;
     }
 
     /**
@@ -54,4 +54,14 @@ public class Md2CredentialsMatcher extends HashedCredentialsMatcher {
     protected Hash hashProvidedCredentials(Object credentials, Object salt, int hashIterations) {
         return new Md2Hash(credentials, salt, hashIterations);
     }
+
+    /**
+     * Returns {@link Md2Hash#ALGORITHM_NAME Md2Hash.ALGORITHM_NAME}.
+     *
+     * @return {@link Md2Hash#ALGORITHM_NAME Md2Hash.ALGORITHM_NAME}
+     * @since 1.0
+     */
+    protected String getHashAlgorithmName() {
+        return Md2Hash.ALGORITHM_NAME;
+    }
 }
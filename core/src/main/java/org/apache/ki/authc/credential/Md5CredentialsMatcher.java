@@ -54,4 +54,14 @@ public class Md5CredentialsMatcher extends HashedCredentialsMatcher {
     protected Hash hashProvidedCredentials(Object credentials, Object salt, int hashIterations) {
         return new Md5Hash(credentials, salt, hashIterations);
     }
+
+    /**
+     * Returns {@link Md5Hash#ALGORITHM_NAME Md5Hash.ALGORITHM_NAME}.
+     *
+     * @return {@link Md5Hash#ALGORITHM_NAME Md5Hash.ALGORITHM_NAME}
+     * @since 1.0
+     */
+    protected String getHashAlgorithmName() {
+        return Md5Hash.ALGORITHM_NAME;
+    }
 }
@@ -54,4 +54,14 @@ public class Sha1CredentialsMatcher extends HashedCredentialsMatcher {
     protected Hash hashProvidedCredentials(Object credentials, Object salt, int hashIterations) {
         return new Sha1Hash(credentials, salt, hashIterations);
     }
+
+    /**
+     * Returns {@link Sha1Hash#ALGORITHM_NAME Sha1Hash.ALGORITHM_NAME}.
+     *
+     * @return {@link Sha1Hash#ALGORITHM_NAME Sha1Hash.ALGORITHM_NAME}
+     * @since 1.0
+     */
+    protected String getHashAlgorithmName() {
+        return Sha1Hash.ALGORITHM_NAME;
+    }
 }
@@ -48,4 +48,14 @@ public class Sha256CredentialsMatcher extends HashedCredentialsMatcher {
     protected Hash hashProvidedCredentials(Object credentials, Object salt, int hashIterations) {
         return new Sha256Hash(credentials, salt, hashIterations);
     }
+
+    /**
+     * Returns {@link Sha256Hash#ALGORITHM_NAME Sha256Hash.ALGORITHM_NAME}.
+     *
+     * @return {@link Sha256Hash#ALGORITHM_NAME Sha256Hash.ALGORITHM_NAME}
+     * @since 1.0
+     */
+    protected String getHashAlgorithmName() {
+        return Sha256Hash.ALGORITHM_NAME;
+    }
 }
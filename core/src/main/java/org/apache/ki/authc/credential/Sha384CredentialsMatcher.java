@@ -48,4 +48,14 @@ public class Sha384CredentialsMatcher extends HashedCredentialsMatcher {
     protected Hash hashProvidedCredentials(Object credentials, Object salt, int hashIterations) {
         return new Sha384Hash(credentials, salt, hashIterations);
     }
+
+    /**
+     * Returns {@link Sha384Hash#ALGORITHM_NAME Sha384Hash.ALGORITHM_NAME}.
+     *
+     * @return {@link Sha384Hash#ALGORITHM_NAME Sha384Hash.ALGORITHM_NAME}
+     * @since 1.0
+     */
+    protected String getHashAlgorithmName() {
+        return Sha384Hash.ALGORITHM_NAME;
+    }
 }
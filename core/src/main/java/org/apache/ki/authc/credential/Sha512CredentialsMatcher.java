@@ -48,4 +48,14 @@ public class Sha512CredentialsMatcher extends HashedCredentialsMatcher {
     protected Hash hashProvidedCredentials(Object credentials, Object salt, int hashIterations) {
         return new Sha512Hash(credentials, salt, hashIterations);
     }
+
+    /**
+     * Returns {@link Sha512Hash#ALGORITHM_NAME Sha512Hash.ALGORITHM_NAME}.
+     *
+     * @return {@link Sha512Hash#ALGORITHM_NAME Sha512Hash.ALGORITHM_NAME}
+     * @since 1.0
+     */
+    protected String getHashAlgorithmName() {
+        return Sha512Hash.ALGORITHM_NAME;
+    }
 }
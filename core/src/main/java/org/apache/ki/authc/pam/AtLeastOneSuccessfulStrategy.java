@@ -35,11 +35,44 @@ import org.apache.ki.authc.AuthenticationToken;
  * consulted realm and want to ignore all subsequent realms, use the
  * {@link FirstSuccessfulStrategy FirstSuccessfulAuthenticationStrategy} instead.
  *
+ * <p>If the account data of one realm is sufficient, {@link #setStopAfterFirstSuccess(boolean) stopAfterFirstSuccess}
+ * may be enabled to skip (or cancel, when the realms are consulted concurrently) the remaining realms as soon as one
+ * realm authenticated successfully.
+ *
  * @author Les Hazlewood
  * @see FirstSuccessfulStrategy FirstSuccessfulAuthenticationStrategy
  * @since 0.2
  */
-public class AtLeastOneSuccessfulStrategy extends AbstractAuthenticationStrategy {
+public class AtLeastOneSuccessfulStrategy extends AbstractAuthenticationStrategy implements ShortCircuitingStrategy {
+
+    private boolean stopAfterFirstSuccess = false;
+
+    /**
+     * Returns <code>true</code> if the remaining realms are no longer consulted once a realm has authenticated
+     * successfully.  The default is <code>false</code>, so that the account data of all successful realms is
+     * aggregated.
+     *
+     * @return <code>true</code> if the remaining realms are no longer consulted after the first success.
+     * @since 1.0
+     */
+    public boolean isStopAfterFirstSuccess() {
+        return stopAfterFirstSuccess;
+    }
+
+    public void setStopAfterFirstSuccess(boolean stopAfterFirstSuccess) {
+        this.stopAfterFirstSuccess = stopAfterFirstSuccess;
+    }
+
+    /**
+     * Returns <code>true</code> if {@link #isStopAfterFirstSuccess() stopAfterFirstSuccess} is enabled and a realm
+     * has successfully provided account data.
+     *
+     * @since 1.0
+     */
+    public boolean isAttemptComplete(AuthenticationToken token, AuthenticationInfo aggregate) {
+        return stopAfterFirstSuccess && aggregate != null && aggregate.getPrincipals() != null &&
+                !aggregate.getPrincipals().isEmpty();
+    }
 
     /**
      * Ensures that the <code>aggregate</code> method argument is not <code>null</code> and
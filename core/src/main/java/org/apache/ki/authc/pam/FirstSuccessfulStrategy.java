@@ -31,12 +31,17 @@ import org.apache.ki.realm.Realm;
  * different behavior than
  * {@link AtLeastOneSuccessfulStrategy AtLeastOneSuccessfulAuthenticationStrategy},
  * so please review both to see which one meets your needs better.
+ * <p/>
+ * Because the subsequent realms are ignored anyway, this strategy {@link ShortCircuitingStrategy short-circuits}
+ * the attempt as soon as one realm succeeded.  When the {@link ModularRealmAuthenticator ModularRealmAuthenticator}
+ * consults its realms {@link ModularRealmAuthenticator#setConcurrentAuthenticationEnabled(boolean) concurrently},
+ * &quot;first&quot; means the first realm to respond successfully rather than the first in configuration order.
  *
  * @author Les Hazlewood
  * @see AtLeastOneSuccessfulStrategy AtLeastOneSuccessfulAuthenticationStrategy
  * @since 0.9
  */
-public class FirstSuccessfulStrategy extends AbstractAuthenticationStrategy {
+public class FirstSuccessfulStrategy extends AbstractAuthenticationStrategy implements ShortCircuitingStrategy {
 
     /**
      * Returns <code>null</code> immediately, relying on this class's {@link #merge merge} implementation to return
@@ -59,4 +64,14 @@ public class FirstSuccessfulStrategy extends AbstractAuthenticationStrategy {
         }
         return info != null ? info : aggregate;
     }
+
+    /**
+     * Returns <code>true</code> once a realm has successfully provided account data, since the data of all subsequent
+     * realms would be ignored.
+     *
+     * @since 1.0
+     */
+    public boolean isAttemptComplete(AuthenticationToken token, AuthenticationInfo aggregate) {
+        return aggregate != null && aggregate.getPrincipals() != null && !aggregate.getPrincipals().isEmpty();
+    }
 }
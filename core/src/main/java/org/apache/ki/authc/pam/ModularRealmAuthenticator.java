@@ -20,7 +20,23 @@ package org.apache.ki.authc.pam;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,8 +47,10 @@ import org.apache.ki.authc.AuthenticationInfo;
 import org.apache.ki.authc.AuthenticationToken;
 import org.apache.ki.authc.LogoutAware;
 import org.apache.ki.authc.UnknownAccountException;
+import org.apache.ki.realm.AuthenticatingRealm;
 import org.apache.ki.realm.Realm;
 import org.apache.ki.subject.PrincipalCollection;
+import org.apache.ki.util.Destroyable;
 
 /**
  * A <tt>ModularRealmAuthenticator</tt> delgates account lookups to a pluggable (modular) collection of
@@ -62,6 +80,20 @@ import org.apache.ki.subject.PrincipalCollection;
  * <p>For greater security in a multi-realm configuration, unless overridden, the default implementation is the
  * {@link AllSuccessfulStrategy AllSuccessfulAuthenticationStrategy}
  *
+ * <p>By default the realms are consulted one after the other, so the latency of a log-in is the sum of the latencies
+ * of all supporting realms.  If {@link #setConcurrentAuthenticationEnabled(boolean) concurrentAuthenticationEnabled}
+ * is set, all supporting realms are consulted in parallel on the
+ * {@link #setAuthenticationExecutor(java.util.concurrent.Executor) authenticationExecutor} instead, and their results
+ * are passed to the strategy (always on the calling thread) in the order in which they arrive.  A
+ * {@link ShortCircuitingStrategy ShortCircuitingStrategy} such as the {@link FirstSuccessfulStrategy} can end the
+ * attempt early, in which case the realms still being consulted are cancelled.
+ *
+ * <p>In a multi-realm configuration, the realms that can possibly support a submitted token are looked up once per
+ * concrete token class:  {@link AuthenticatingRealm AuthenticatingRealm}s that don't override
+ * {@link AuthenticatingRealm#supports(org.apache.ki.authc.AuthenticationToken) supports} are only consulted for tokens
+ * of their {@link AuthenticatingRealm#getAuthenticationTokenClass() authenticationTokenClass}, so log-ins don't touch
+ * realms that can never handle them.  Other realms are always asked whether they support the token.
+ *
  * @author Jeremy Haile
  * @author Les Hazlewood
  * @see #setRealms
@@ -69,13 +101,23 @@ import org.apache.ki.subject.PrincipalCollection;
  * @see AtLeastOneSuccessfulStrategy
  * @since 0.1
  */
-public class ModularRealmAuthenticator extends AbstractAuthenticator {
+public class ModularRealmAuthenticator extends AbstractAuthenticator implements Destroyable {
 
     /*--------------------------------------------
     |             C O N S T A N T S             |
     ============================================*/
     private static final Logger log = LoggerFactory.getLogger(ModularRealmAuthenticator.class);
 
+    /**
+     * The default maximum number of threads consulting realms during concurrent authentication.
+     */
+    public static final int DEFAULT_AUTHENTICATION_THREADS = 10;
+
+    /**
+     * The default maximum number of realm calls waiting for a thread during concurrent authentication.
+     */
+    public static final int DEFAULT_AUTHENTICATION_QUEUE_SIZE = 100;
+
     /*--------------------------------------------
     |    I N S T A N C E   V A R I A B L E S    |
     ============================================*/
@@ -84,11 +126,28 @@ public class ModularRealmAuthenticator extends AbstractAuthenticator {
      */
     private Collection<Realm> realms;
 
+    /**
+     * The realms eligible for each concrete token class, in configuration order.  Cleared whenever the realms are set.
+     */
+    private final ConcurrentMap<Class<?>, List<Realm>> realmRoutes = new ConcurrentHashMap<Class<?>, List<Realm>>();
+
     /**
      * The authentication strategy to use during authentication attempts.
      */
     private AuthenticationStrategy authenticationStrategy;
 
+    private boolean concurrentAuthenticationEnabled = false;
+
+    private Executor authenticationExecutor = null;
+
+    /**
+     * The executor created by this authenticator if none was configured, shut down in {@link #destroy()}.
+     */
+    private ExecutorService defaultAuthenticationExecutor = null;
+
+    private int authenticationThreads = DEFAULT_AUTHENTICATION_THREADS;
+    private int authenticationQueueSize = DEFAULT_AUTHENTICATION_QUEUE_SIZE;
+
     /*--------------------------------------------
     |         C O N S T R U C T O R S           |
     ============================================*/
@@ -149,6 +208,19 @@ public class ModularRealmAuthenticator extends AbstractAuthenticator {
      */
     public void setRealms(Collection<Realm> realms) {
         this.realms = realms;
+        clearRealmRoutes();
+    }
+
+    /**
+     * Discards the realms looked up per token class, so that they are determined anew on the next log-in.  Only needs
+     * to be called if the collection of {@link #setRealms(java.util.Collection) realms} is modified, or a realm's
+     * {@link AuthenticatingRealm#setAuthenticationTokenClass(Class) authenticationTokenClass} changed, after
+     * authentication attempts have been made.
+     *
+     * @since 1.0
+     */
+    public void clearRealmRoutes() {
+        realmRoutes.clear();
     }
 
     /**
@@ -186,6 +258,77 @@ public class ModularRealmAuthenticator extends AbstractAuthenticator {
         this.authenticationStrategy = authenticationStrategy;
     }
 
+    /**
+     * Returns <code>true</code> if multiple realms are consulted in parallel during an authentication attempt,
+     * <code>false</code> if they are consulted one after the other.  The default is <code>false</code>.
+     * <p/>
+     * Realms consulted in parallel run on the {@link #getAuthenticationExecutor() authenticationExecutor}'s threads,
+     * so they must not rely on state bound to the thread performing the log-in.
+     *
+     * @return <code>true</code> if multiple realms are consulted in parallel during an authentication attempt.
+     * @since 1.0
+     */
+    public boolean isConcurrentAuthenticationEnabled() {
+        return concurrentAuthenticationEnabled;
+    }
+
+    public void setConcurrentAuthenticationEnabled(boolean concurrentAuthenticationEnabled) {
+        this.concurrentAuthenticationEnabled = concurrentAuthenticationEnabled;
+    }
+
+    /**
+     * Returns the executor consulting realms during concurrent authentication.  If none has been
+     * {@link #setAuthenticationExecutor(java.util.concurrent.Executor) set}, a bounded pool of at most
+     * {@link #getAuthenticationThreads() authenticationThreads} daemon threads and a queue of
+     * {@link #getAuthenticationQueueSize() authenticationQueueSize} tasks is created on first use and shut down when
+     * this authenticator is {@link #destroy() destroyed}.
+     *
+     * @return the executor consulting realms during concurrent authentication.
+     * @since 1.0
+     */
+    public synchronized Executor getAuthenticationExecutor() {
+        if (authenticationExecutor == null) {
+            if (defaultAuthenticationExecutor == null) {
+                defaultAuthenticationExecutor = createAuthenticationExecutor();
+            }
+            return defaultAuthenticationExecutor;
+        }
+        return authenticationExecutor;
+    }
+
+    /**
+     * Sets the executor consulting realms during concurrent authentication.  An executor set via this method is not
+     * shut down by this authenticator.  Realm calls it rejects are performed on the calling thread.
+     *
+     * @param authenticationExecutor the executor consulting realms during concurrent authentication.
+     * @since 1.0
+     */
+    public synchronized void setAuthenticationExecutor(Executor authenticationExecutor) {
+        this.authenticationExecutor = authenticationExecutor;
+    }
+
+    public int getAuthenticationThreads() {
+        return authenticationThreads;
+    }
+
+    public void setAuthenticationThreads(int authenticationThreads) {
+        if (authenticationThreads < 1) {
+            throw new IllegalArgumentException("authenticationThreads must be greater than zero.");
+        }
+        this.authenticationThreads = authenticationThreads;
+    }
+
+    public int getAuthenticationQueueSize() {
+        return authenticationQueueSize;
+    }
+
+    public void setAuthenticationQueueSize(int authenticationQueueSize) {
+        if (authenticationQueueSize < 1) {
+            throw new IllegalArgumentException("authenticationQueueSize must be greater than zero.");
+        }
+        this.authenticationQueueSize = authenticationQueueSize;
+    }
+
     /*--------------------------------------------
     |               M E T H O D S               |
     ============================================*/
@@ -267,16 +410,163 @@ public class ModularRealmAuthenticator extends AbstractAuthenticator {
 
                 aggregate = strategy.afterAttempt(realm, token, info, aggregate, t);
 
+                if (isAttemptComplete(strategy, token, aggregate)) {
+                    log.debug("Authentication strategy completed the attempt after realm [{}]", realm);
+                    break;
+                }
+
+            } else {
+                log.debug("Realm [{}] does not support token {}.  Skipping realm.", realm, token);
+            }
+        }
+
+        aggregate = strategy.afterAllAttempts(token, aggregate);
+
+        return aggregate;
+    }
+
+    /**
+     * Performs the multi-realm authentication attempt just like {@link #doMultiRealmAuthentication}, but consults
+     * all supporting realms in parallel on the {@link #getAuthenticationExecutor() authenticationExecutor}.  Each
+     * realm's result is passed to the {@link AuthenticationStrategy} as soon as it arrives.  Realm calls still in
+     * progress are cancelled if the strategy throws an exception or, being a
+     * {@link ShortCircuitingStrategy ShortCircuitingStrategy}, reports the attempt as complete.
+     *
+     * @param realms the multiple realms configured on this Authenticator instance.
+     * @param token  the submitted AuthenticationToken representing the subject's (user's) log-in principals and credentials.
+     * @return an aggregated AuthenticationInfo instance representing account data across all the successfully
+     *         consulted realms.
+     * @since 1.0
+     */
+    protected AuthenticationInfo doConcurrentMultiRealmAuthentication(Collection<Realm> realms,
+                                                                      AuthenticationToken token) {
+
+        AuthenticationStrategy strategy = getAuthenticationStrategy();
+
+        AuthenticationInfo aggregate = strategy.beforeAllAttempts(realms, token);
+
+        List<Realm> supporting = new ArrayList<Realm>(realms.size());
+        for (Realm realm : realms) {
+            if (realm.supports(token)) {
+                supporting.add(realm);
             } else {
                 log.debug("Realm [{}] does not support token {}.  Skipping realm.", realm, token);
             }
         }
 
+        if (log.isDebugEnabled()) {
+            log.debug("Consulting {} realms concurrently for PAM authentication", supporting.size());
+        }
+
+        BlockingQueue<RealmAttempt> completed = new LinkedBlockingQueue<RealmAttempt>();
+        List<RealmAttempt> attempts = new ArrayList<RealmAttempt>(supporting.size());
+        try {
+            Executor executor = supporting.size() > 1 ? getAuthenticationExecutor() : null;
+            for (Realm realm : supporting) {
+                RealmAttempt attempt = new RealmAttempt(realm, token, completed);
+                attempts.add(attempt);
+                if (executor == null) {
+                    attempt.run();
+                } else {
+                    try {
+                        executor.execute(attempt);
+                    } catch (RejectedExecutionException e) {
+                        log.debug("Authentication executor saturated - consulting realm [{}] directly", realm);
+                        attempt.run();
+                    }
+                }
+            }
+
+            for (int i = 0; i < attempts.size(); i++) {
+                RealmAttempt attempt = completed.take();
+
+                AuthenticationInfo info = null;
+                Throwable t = null;
+                try {
+                    info = attempt.get();
+                } catch (ExecutionException e) {
+                    t = e.getCause();
+                    if (log.isTraceEnabled()) {
+                        String msg = "Realm [" + attempt.realm + "] threw an exception during a multi-realm authentication attempt:";
+                        log.trace(msg, t);
+                    }
+                }
+
+                aggregate = strategy.afterAttempt(attempt.realm, token, info, aggregate, t);
+
+                if (isAttemptComplete(strategy, token, aggregate)) {
+                    log.debug("Authentication strategy completed the attempt after realm [{}]", attempt.realm);
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AuthenticationException("Interrupted while consulting realms for authentication token [" +
+                    token + "].", e);
+        } finally {
+            //no-op for the attempts that have already completed:
+            for (RealmAttempt attempt : attempts) {
+                attempt.cancel(true);
+            }
+        }
+
         aggregate = strategy.afterAllAttempts(token, aggregate);
 
         return aggregate;
     }
 
+    private boolean isAttemptComplete(AuthenticationStrategy strategy, AuthenticationToken token,
+                                      AuthenticationInfo aggregate) {
+        return strategy instanceof ShortCircuitingStrategy &&
+                ((ShortCircuitingStrategy) strategy).isAttemptComplete(token, aggregate);
+    }
+
+    /**
+     * Creates the default {@link #getAuthenticationExecutor() authenticationExecutor}.
+     *
+     * @return the default executor consulting realms during concurrent authentication.
+     * @since 1.0
+     */
+    protected ExecutorService createAuthenticationExecutor() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "realm-authentication-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        int threads = getAuthenticationThreads();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(getAuthenticationQueueSize()), threadFactory);
+    }
+
+    /**
+     * A single realm's part of a concurrent authentication attempt, which adds itself to the attempt's queue of
+     * completed realm calls when done.
+     */
+    private static class RealmAttempt extends FutureTask<AuthenticationInfo> {
+
+        private final Realm realm;
+        private final BlockingQueue<RealmAttempt> completed;
+
+        RealmAttempt(final Realm realm, final AuthenticationToken token, BlockingQueue<RealmAttempt> completed) {
+            super(new Callable<AuthenticationInfo>() {
+                public AuthenticationInfo call() {
+                    log.debug("Attempting to authenticate token [{}] using realm [{}]", token, realm);
+                    return realm.getAuthenticationInfo(token);
+                }
+            });
+            this.realm = realm;
+            this.completed = completed;
+        }
+
+        protected void done() {
+            completed.add(this);
+        }
+    }
+
 
     /**
      * <p>Attempts to authenticate the given token by iterating over the internal collection of
@@ -305,11 +595,64 @@ public class ModularRealmAuthenticator extends AbstractAuthenticator {
         Collection<Realm> realms = getRealms();
         if (realms.size() == 1) {
             return doSingleRealmAuthentication(realms.iterator().next(), authenticationToken);
+        }
+        realms = getEligibleRealms(realms, authenticationToken);
+        if (isConcurrentAuthenticationEnabled()) {
+            return doConcurrentMultiRealmAuthentication(realms, authenticationToken);
         } else {
             return doMultiRealmAuthentication(realms, authenticationToken);
         }
     }
 
+    /**
+     * Returns the realms, in configuration order, that may support tokens of the specified token's class.  The
+     * result is computed once per concrete token class.
+     *
+     * @param realms the configured realms.
+     * @param token  the submitted token.
+     * @return the realms that may support the token.
+     */
+    private Collection<Realm> getEligibleRealms(Collection<Realm> realms, AuthenticationToken token) {
+        if (token == null) {
+            return realms;
+        }
+        Class<?> tokenClass = token.getClass();
+        List<Realm> eligible = realmRoutes.get(tokenClass);
+        if (eligible == null) {
+            eligible = new ArrayList<Realm>(realms.size());
+            for (Realm realm : realms) {
+                Class<?> realmTokenClass = getRoutingTokenClass(realm);
+                if (realmTokenClass == null || realmTokenClass.isAssignableFrom(tokenClass)) {
+                    eligible.add(realm);
+                } else {
+                    log.debug("Realm [{}] does not support tokens of type {}.  Skipping realm.", realm, tokenClass);
+                }
+            }
+            eligible = Collections.unmodifiableList(eligible);
+            realmRoutes.put(tokenClass, eligible);
+        }
+        return eligible;
+    }
+
+    /**
+     * Returns the token class the specified realm's <code>supports</code> method is based on exclusively, or
+     * <code>null</code> if the realm needs to be asked for every token.
+     */
+    private Class<?> getRoutingTokenClass(Realm realm) {
+        if (!(realm instanceof AuthenticatingRealm)) {
+            return null;
+        }
+        try {
+            Class<?> declaringClass = realm.getClass().getMethod("supports", AuthenticationToken.class).getDeclaringClass();
+            if (declaringClass != AuthenticatingRealm.class) {
+                return null;
+            }
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        return ((AuthenticatingRealm) realm).getAuthenticationTokenClass();
+    }
+
     /**
      * First calls <code>super.onLogout(principals)</code> to ensure a logout notification is issued, and for each
      * wrapped <tt>Realm</tt> that implements the {@link LogoutAware LogoutAware} interface, calls
@@ -332,4 +675,21 @@ public class ModularRealmAuthenticator extends AbstractAuthenticator {
             }
         }
     }
+
+    /**
+     * Shuts down the {@link #getAuthenticationExecutor() authenticationExecutor} if it was created by this
+     * authenticator.
+     *
+     * @since 1.0
+     */
+    public void destroy() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = defaultAuthenticationExecutor;
+            defaultAuthenticationExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authc.pam;
+
+import org.apache.ki.authc.AuthenticationInfo;
+import org.apache.ki.authc.AuthenticationToken;
+
+/**
+ * An {@link AuthenticationStrategy AuthenticationStrategy} that may know the outcome of a multi-realm authentication
+ * attempt before all realms have been consulted.  The {@link ModularRealmAuthenticator ModularRealmAuthenticator}
+ * asks it after each {@link AuthenticationStrategy#afterAttempt afterAttempt} call and, once the attempt is complete,
+ * skips (or, when consulting realms concurrently, cancels) the remaining realms and proceeds directly to
+ * {@link AuthenticationStrategy#afterAllAttempts afterAllAttempts}.
+ *
+ * @see FirstSuccessfulStrategy
+ * @see AtLeastOneSuccessfulStrategy#setStopAfterFirstSuccess(boolean)
+ * @since 1.0
+ */
+public interface ShortCircuitingStrategy extends AuthenticationStrategy {
+
+    /**
+     * Returns <code>true</code> if the remaining realms cannot change the outcome of the authentication attempt and
+     * need not be consulted.
+     *
+     * @param token     the <tt>AuthenticationToken</tt> submitted for the subject attempting system log-in.
+     * @param aggregate the aggregate info returned by the most recent <code>afterAttempt</code> call.
+     * @return <code>true</code> if no further realms need to be consulted.
+     */
+    boolean isAttemptComplete(AuthenticationToken token, AuthenticationInfo aggregate);
+}
@@ -0,0 +1,424 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authz;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ki.authz.permission.InstancePermissionMatcher;
+import org.apache.ki.authz.permission.PermissionIndex;
+
+/**
+ * An immutable, pre-resolved view of another {@link AuthorizationInfo AuthorizationInfo} instance.
+ * <p/>
+ * A <code>Realm</code> typically converts an account's string permissions into {@link Permission Permission}
+ * objects before it can perform a permission check.  A <code>CompiledAuthorizationInfo</code> holds the result of
+ * that conversion (plus any object permissions) so it only has to be done once when the source info is loaded,
+ * instead of once for every authorization check.  The original info remains available via {@link #getSource()}.
+ * <p/>
+ * If all of the permissions use standard {@link org.apache.ki.authz.permission.WildcardPermission WildcardPermission}
+ * semantics, they are additionally placed in a {@link PermissionIndex PermissionIndex} so that
+ * {@link #isPermitted(Permission) isPermitted} does not have to consult every permission one by one.
+ * <p/>
+ * Roles are held as a {@link BitSet BitSet} of ids assigned by a {@link RoleRegistry RoleRegistry}, so that
+ * {@link #hasAllRoles(java.util.Collection) hasAllRoles} only takes a few word operations and large role sets take
+ * up little memory.
+ *
+ * @see org.apache.ki.realm.AuthorizingRealm
+ * @since 1.0
+ */
+public class CompiledAuthorizationInfo implements AuthorizationInfo {
+
+    /**
+     * The maximum number of domain/action pairs for which an InstancePermissionMatcher is retained.
+     */
+    private static final int MAX_INSTANCE_MATCHERS = 64;
+
+    /**
+     * The AuthorizationInfo this instance was compiled from.
+     */
+    private final AuthorizationInfo source;
+
+    /**
+     * The registry assigning the ids in <code>roleIds</code>.
+     */
+    private final RoleRegistry roleRegistry;
+
+    /**
+     * Snapshot of the source's roles, as ids assigned by the <code>roleRegistry</code>.  Never modified after
+     * construction.
+     */
+    private final BitSet roleIds;
+
+    /**
+     * Read-only view of the <code>roleIds</code> as role names.
+     */
+    private final Set<String> roles;
+
+    /**
+     * Immutable, de-duplicated aggregate of the source's resolved string permissions and object permissions.
+     */
+    private final Collection<Permission> permissions;
+
+    /**
+     * Index over the permissions, or <code>null</code> if they cannot be indexed.
+     */
+    private final PermissionIndex permissionIndex;
+
+    /**
+     * Matchers already created by {@link #getInstancePermissionMatcher(String, String)}, keyed by
+     * <code>domain:action</code>.
+     */
+    private final ConcurrentMap<String, InstancePermissionMatcher> instanceMatchers;
+
+    /**
+     * The time this instance was created, in milliseconds since the epoch.
+     */
+    private final long creationTime;
+
+    /**
+     * Creates a new instance for the specified <code>source</code> info, retaining the already resolved
+     * <code>permissions</code>.  The roles are represented with ids from a registry private to this instance; use
+     * {@link #CompiledAuthorizationInfo(AuthorizationInfo, java.util.Collection, RoleRegistry)} to share a registry
+     * between the infos of a realm.
+     *
+     * @param source      the AuthorizationInfo from which the permissions were resolved.
+     * @param permissions the source's string permissions converted to Permission instances together with its
+     *                    object permissions.  May be <code>null</code> or empty.
+     */
+    public CompiledAuthorizationInfo(AuthorizationInfo source, Collection<Permission> permissions) {
+        this(source, permissions, new RoleRegistry());
+    }
+
+    /**
+     * Creates a new instance for the specified <code>source</code> info, retaining the already resolved
+     * <code>permissions</code> and representing its roles with ids from the specified <code>roleRegistry</code>.
+     *
+     * @param source       the AuthorizationInfo from which the permissions were resolved.
+     * @param permissions  the source's string permissions converted to Permission instances together with its
+     *                     object permissions.  May be <code>null</code> or empty.
+     * @param roleRegistry the registry assigning ids to the source's roles.
+     */
+    public CompiledAuthorizationInfo(AuthorizationInfo source, Collection<Permission> permissions,
+                                     RoleRegistry roleRegistry) {
+        this(source, permissions, roleRegistry, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a new instance for the specified <code>source</code> info that shares the roles, permissions and
+     * permission index of an already compiled info instead of compiling its own.
+     * <p/>
+     * This allows realms holding many accounts with identical authorization data, for example accounts that only
+     * differ in their assigned roles, to compile each distinct combination once and share it between all accounts
+     * with that combination.  The caller is responsible for ensuring that the <code>shared</code> info's roles and
+     * permissions are in fact the effective roles and permissions of the <code>source</code> info.
+     *
+     * @param source the AuthorizationInfo this instance represents.
+     * @param shared the compiled info whose roles and permissions apply to the <code>source</code> info.
+     */
+    public CompiledAuthorizationInfo(AuthorizationInfo source, CompiledAuthorizationInfo shared) {
+        if (source == null) {
+            throw new IllegalArgumentException("source AuthorizationInfo argument cannot be null.");
+        }
+        if (shared == null) {
+            throw new IllegalArgumentException("shared CompiledAuthorizationInfo argument cannot be null.");
+        }
+        this.source = source;
+        this.creationTime = System.currentTimeMillis();
+        this.roleRegistry = shared.roleRegistry;
+        this.roleIds = shared.roleIds;
+        this.roles = shared.roles;
+        this.permissions = shared.permissions;
+        this.permissionIndex = shared.permissionIndex;
+        this.instanceMatchers = shared.instanceMatchers;
+    }
+
+    private CompiledAuthorizationInfo(AuthorizationInfo source, Collection<Permission> permissions,
+                                      RoleRegistry roleRegistry, long creationTime) {
+        if (source == null) {
+            throw new IllegalArgumentException("source AuthorizationInfo argument cannot be null.");
+        }
+        if (roleRegistry == null) {
+            throw new IllegalArgumentException("roleRegistry argument cannot be null.");
+        }
+        this.source = source;
+        this.creationTime = creationTime;
+        this.roleRegistry = roleRegistry;
+        this.roleIds = roleRegistry.register(source.getRoles());
+        this.roles = new RoleSet();
+        this.instanceMatchers = new ConcurrentHashMap<String, InstancePermissionMatcher>();
+        if (permissions == null || permissions.isEmpty()) {
+            this.permissions = Collections.emptyList();
+        } else {
+            //de-duplicate, but keep a List for fast, allocation-free iteration during checks:
+            List<Permission> list = new ArrayList<Permission>(new LinkedHashSet<Permission>(permissions));
+            this.permissions = Collections.unmodifiableList(list);
+        }
+        if (!this.permissions.isEmpty() && PermissionIndex.isIndexable(this.permissions)) {
+            this.permissionIndex = new PermissionIndex(this.permissions);
+        } else {
+            this.permissionIndex = null;
+        }
+    }
+
+    /**
+     * Returns the AuthorizationInfo this instance was compiled from.
+     *
+     * @return the AuthorizationInfo this instance was compiled from.
+     */
+    public AuthorizationInfo getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the time this instance was created, that is when the source info was loaded and compiled, in
+     * milliseconds since the epoch.
+     *
+     * @return the time this instance was created, in milliseconds since the epoch.
+     */
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * Returns the immutable aggregate of all resolved permissions, never <code>null</code>.
+     *
+     * @return the immutable aggregate of all resolved permissions, never <code>null</code>.
+     */
+    public Collection<Permission> getPermissions() {
+        return permissions;
+    }
+
+    /**
+     * Returns the registry that assigned the {@link #getRoleIds() role ids}.
+     *
+     * @return the registry that assigned the role ids.
+     */
+    public RoleRegistry getRoleRegistry() {
+        return roleRegistry;
+    }
+
+    /**
+     * Returns a copy of the ids of this info's roles, as assigned by the {@link #getRoleRegistry() roleRegistry}.
+     *
+     * @return a copy of the ids of this info's roles.
+     */
+    public BitSet getRoleIds() {
+        return (BitSet) roleIds.clone();
+    }
+
+    /**
+     * Returns a read-only view of the roles, in the order of their ids.
+     *
+     * @return a read-only view of the roles.
+     */
+    public Collection<String> getRoles() {
+        return roles;
+    }
+
+    /**
+     * Returns <code>true</code> if this info contains the specified role, <code>false</code> otherwise.
+     *
+     * @param role the role to check.
+     * @return <code>true</code> if this info contains the specified role, <code>false</code> otherwise.
+     */
+    public boolean hasRole(String role) {
+        int id = roleRegistry.getId(role);
+        return id >= 0 && roleIds.get(id);
+    }
+
+    /**
+     * Returns <code>true</code> if this info contains all of the specified roles, <code>false</code> otherwise.
+     *
+     * @param roles the roles to check.
+     * @return <code>true</code> if this info contains all of the specified roles, <code>false</code> otherwise.
+     */
+    public boolean hasAllRoles(Collection<String> roles) {
+        if (roles == null || roles.isEmpty()) {
+            return true;
+        }
+        if (roles.size() == 1) {
+            return hasRole(roles.iterator().next());
+        }
+        return hasAllRoles(roleRegistry.getIds(roles));
+    }
+
+    /**
+     * Returns <code>true</code> if this info contains all roles with the specified ids, <code>false</code>
+     * otherwise.  The ids must have been obtained from this info's {@link #getRoleRegistry() roleRegistry}, which
+     * allows callers to evaluate a fixed role requirement without converting role names each time.
+     *
+     * @param requiredRoleIds the ids of the required roles, or <code>null</code> if any of the required roles is
+     *                        unknown to the registry.
+     * @return <code>true</code> if this info contains all roles with the specified ids, <code>false</code> otherwise.
+     */
+    public boolean hasAllRoles(BitSet requiredRoleIds) {
+        if (requiredRoleIds == null) {
+            return false;
+        }
+        BitSet missing = (BitSet) requiredRoleIds.clone();
+        missing.andNot(roleIds);
+        return missing.isEmpty();
+    }
+
+    /**
+     * Checks each of the specified roles.
+     *
+     * @param roles the roles to check.
+     * @return an array of results in the same order as the given roles.
+     */
+    public boolean[] hasRoles(List<String> roles) {
+        boolean[] result = new boolean[roles != null ? roles.size() : 0];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = hasRole(roles.get(i));
+        }
+        return result;
+    }
+
+    public Collection<String> getStringPermissions() {
+        return source.getStringPermissions();
+    }
+
+    public Collection<Permission> getObjectPermissions() {
+        return source.getObjectPermissions();
+    }
+
+    /**
+     * Returns <code>true</code> if any of the compiled permissions implies the specified permission,
+     * <code>false</code> otherwise.
+     *
+     * @param permission the permission to check.
+     * @return <code>true</code> if any of the compiled permissions implies the specified permission,
+     *         <code>false</code> otherwise.
+     */
+    public boolean isPermitted(Permission permission) {
+        if (permissionIndex != null) {
+            return permissionIndex.implies(permission);
+        }
+        for (Permission perm : permissions) {
+            if (perm.implies(permission)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns an {@link InstancePermissionMatcher InstancePermissionMatcher} for the specified domain and action
+     * over this info's permissions.  Since the permissions never change, the matchers for the most commonly checked
+     * domain/action pairs are created only once and retained for the lifetime of this info.
+     *
+     * @param domain the permission domain, for example <code>document</code>.
+     * @param action the action, for example <code>read</code>.
+     * @return a matcher for the specified domain and action over this info's permissions.
+     * @throws IllegalArgumentException if <code>domain</code> or <code>action</code> is <code>null</code> or empty.
+     */
+    public InstancePermissionMatcher getInstancePermissionMatcher(String domain, String action)
+            throws IllegalArgumentException {
+        String key = domain + ":" + action;
+        InstancePermissionMatcher matcher = instanceMatchers.get(key);
+        if (matcher == null) {
+            matcher = new InstancePermissionMatcher(permissions, domain, action);
+            if (instanceMatchers.size() < MAX_INSTANCE_MATCHERS) {
+                instanceMatchers.putIfAbsent(key, matcher);
+            }
+        }
+        return matcher;
+    }
+
+    public String toString() {
+        return getClass().getName() + " [" + source + "]";
+    }
+
+    /**
+     * Role ids are only meaningful within the current JVM, so serialize only the source info and permissions and
+     * compile them again (against a registry private to the copy) when deserialized.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm(this);
+    }
+
+    private static class SerializedForm implements Serializable {
+
+        private final AuthorizationInfo source;
+        private final Collection<Permission> permissions;
+        private final long creationTime;
+
+        private SerializedForm(CompiledAuthorizationInfo info) {
+            this.source = info.source;
+            this.permissions = new ArrayList<Permission>(info.permissions);
+            this.creationTime = info.creationTime;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return new CompiledAuthorizationInfo(source, permissions, new RoleRegistry(), creationTime);
+        }
+    }
+
+    /**
+     * Read-only <code>Set</code> view of the role ids as role names.
+     */
+    private class RoleSet extends AbstractSet<String> {
+
+        private final int size = roleIds.cardinality();
+
+        public int size() {
+            return size;
+        }
+
+        public boolean contains(Object o) {
+            return o instanceof String && hasRole((String) o);
+        }
+
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int next = roleIds.nextSetBit(0);
+
+                public boolean hasNext() {
+                    return next >= 0;
+                }
+
+                public String next() {
+                    if (next < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    String role = roleRegistry.getRole(next);
+                    next = roleIds.nextSetBit(next + 1);
+                    return role;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException("Roles of a CompiledAuthorizationInfo cannot be modified.");
+                }
+            };
+        }
+    }
+}
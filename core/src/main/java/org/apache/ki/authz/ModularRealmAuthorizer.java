@@ -18,12 +18,29 @@
  */
 package org.apache.ki.authz;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.ki.authz.permission.InstancePermissionMatcher;
 import org.apache.ki.authz.permission.PermissionResolver;
 import org.apache.ki.authz.permission.PermissionResolverAware;
+import org.apache.ki.cache.Cache;
+import org.apache.ki.cache.CacheManager;
+import org.apache.ki.cache.CacheManagerAware;
+import org.apache.ki.realm.AuthorizationCacheListener;
+import org.apache.ki.realm.AuthorizingRealm;
 import org.apache.ki.realm.Realm;
+import org.apache.ki.subject.PrincipalCacheKey;
 import org.apache.ki.subject.PrincipalCollection;
 
 
@@ -31,10 +48,37 @@ import org.apache.ki.subject.PrincipalCollection;
  * A <tt>ModularRealmAuthorizer</tt> is an <tt>Authorizer</tt> implementation that consults one or more configured
  * {@link Realm Realm}s during an authorization operation.
  *
+ * <h3>Merged authorization</h3>
+ * When several realms are configured, every check consults each realm in turn, and a denied check has to consult
+ * all of them.  If {@link #setMergedAuthorizationEnabled(boolean) mergedAuthorizationEnabled} is <code>true</code>
+ * and all configured realms are {@link AuthorizingRealm AuthorizingRealm}s, this authorizer instead builds a single
+ * {@link CompiledAuthorizationInfo CompiledAuthorizationInfo} per Subject that combines the roles and resolved
+ * permissions of all realms, and evaluates every check against it.  The merged info is cached via the configured
+ * {@link #setCacheManager CacheManager} and discarded as soon as any of the realms
+ * {@link AuthorizationCacheListener clears} its cached data for that Subject.  Since building the merged info costs
+ * more than a single check, it is only used when a <code>CacheManager</code> is configured - without one, each realm
+ * is consulted individually.
+ * <p/>
+ * This mode assumes that the realms' role and permission checks are based purely on their
+ * <code>AuthorizationInfo</code> (i.e. they do not override the check methods) and that all realms resolve
+ * permission strings the same way - for example by setting a single
+ * {@link #setPermissionResolver(org.apache.ki.authz.permission.PermissionResolver) permissionResolver} on this
+ * authorizer.  Subjects for which a realm returns a deprecated {@link AuthorizingAccount AuthorizingAccount} are
+ * always checked realm by realm.
+ *
  * @author Les Hazlewood
  * @since 0.2
  */
-public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAware {
+public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAware, CacheManagerAware,
+        AuthorizationCacheListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ModularRealmAuthorizer.class);
+
+    /**
+     * The default name of the cache holding the merged authorization info of each Subject.
+     */
+    public static final String DEFAULT_MERGED_AUTHORIZATION_CACHE_NAME =
+            ModularRealmAuthorizer.class.getName() + "-mergedAuthorization";
 
     /**
      * The realms to consult during any authorization check.
@@ -47,6 +91,35 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
      */
     protected PermissionResolver permissionResolver;
 
+    /**
+     * Whether or not checks are evaluated against a single merged view of all realms' authorization data.
+     */
+    private boolean mergedAuthorizationEnabled = false;
+
+    /**
+     * The CacheManager used to acquire the merged authorization cache, may be <code>null</code>.
+     */
+    private CacheManager cacheManager;
+
+    private String mergedAuthorizationCacheName = DEFAULT_MERGED_AUTHORIZATION_CACHE_NAME;
+
+    /**
+     * Lazily acquired from the cacheManager.
+     */
+    private volatile Cache mergedAuthorizationCache;
+
+    /**
+     * The merged authorization data builds in progress, keyed by cache key.  A build's entry is removed when that
+     * Subject's merged data is discarded, so that merged data built concurrently from possibly outdated realm data
+     * is not left in the cache.
+     */
+    private final ConcurrentMap<Object, Object> mergedAuthorizationBuilds = new ConcurrentHashMap<Object, Object>();
+
+    /**
+     * Assigns the role ids of the merged authorization info.
+     */
+    private final RoleRegistry mergedRoleRegistry = new RoleRegistry();
+
     /**
      * Default no-argument constructor, does nothing.
      */
@@ -78,8 +151,88 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
      * @param realms the realms wrapped by this <code>Authorizer</code> which are consulted during an authorization check.
      */
     public void setRealms(Collection<Realm> realms) {
+        Collection<Realm> previous = this.realms;
+        if (previous != null) {
+            for (Realm realm : previous) {
+                if (realm instanceof AuthorizingRealm) {
+                    ((AuthorizingRealm) realm).removeAuthorizationCacheListener(this);
+                }
+            }
+        }
         this.realms = realms;
         applyPermissionResolverToRealms();
+        applyAuthorizationCacheListenerToRealms();
+        clearMergedAuthorizationCache();
+    }
+
+    /**
+     * Returns <code>true</code> if role and permission checks are evaluated against a single, merged view of all
+     * realms' authorization data, <code>false</code> (the default) if each realm is consulted in turn.
+     *
+     * @return <code>true</code> if checks are evaluated against a merged view of all realms' authorization data.
+     * @since 1.0
+     */
+    public boolean isMergedAuthorizationEnabled() {
+        return mergedAuthorizationEnabled;
+    }
+
+    /**
+     * Sets whether or not role and permission checks are evaluated against a single, merged view of all realms'
+     * authorization data.  See the class JavaDoc for the requirements of this mode.
+     *
+     * @param mergedAuthorizationEnabled whether or not checks are evaluated against a merged view of all realms'
+     *                                   authorization data.
+     * @since 1.0
+     */
+    public void setMergedAuthorizationEnabled(boolean mergedAuthorizationEnabled) {
+        this.mergedAuthorizationEnabled = mergedAuthorizationEnabled;
+        applyAuthorizationCacheListenerToRealms();
+        clearMergedAuthorizationCache();
+    }
+
+    /**
+     * Returns the <code>CacheManager</code> used to cache merged authorization data, or <code>null</code> if
+     * merged authorization data is not cached.
+     *
+     * @return the <code>CacheManager</code> used to cache merged authorization data.
+     * @since 1.0
+     */
+    public CacheManager getCacheManager() {
+        return cacheManager;
+    }
+
+    /**
+     * Sets the <code>CacheManager</code> used to cache merged authorization data.  Only used when
+     * {@link #setMergedAuthorizationEnabled(boolean) mergedAuthorizationEnabled} is <code>true</code>.
+     *
+     * @param cacheManager the <code>CacheManager</code> used to cache merged authorization data.
+     * @since 1.0
+     */
+    public void setCacheManager(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+        this.mergedAuthorizationCache = null;
+    }
+
+    /**
+     * Returns the name of the cache holding merged authorization data.  Defaults to
+     * {@link #DEFAULT_MERGED_AUTHORIZATION_CACHE_NAME DEFAULT_MERGED_AUTHORIZATION_CACHE_NAME}.
+     *
+     * @return the name of the cache holding merged authorization data.
+     * @since 1.0
+     */
+    public String getMergedAuthorizationCacheName() {
+        return mergedAuthorizationCacheName;
+    }
+
+    /**
+     * Sets the name of the cache holding merged authorization data.
+     *
+     * @param mergedAuthorizationCacheName the name of the cache holding merged authorization data.
+     * @since 1.0
+     */
+    public void setMergedAuthorizationCacheName(String mergedAuthorizationCacheName) {
+        this.mergedAuthorizationCacheName = mergedAuthorizationCacheName;
+        this.mergedAuthorizationCache = null;
     }
 
     /**
@@ -135,6 +288,169 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
     }
 
 
+    /**
+     * Registers this instance as an {@link AuthorizationCacheListener AuthorizationCacheListener} with all
+     * configured {@link AuthorizingRealm AuthorizingRealm}s if merged authorization is enabled, so merged
+     * authorization data can be discarded when a realm clears its own.
+     *
+     * @since 1.0
+     */
+    protected void applyAuthorizationCacheListenerToRealms() {
+        Collection<Realm> realms = getRealms();
+        if (isMergedAuthorizationEnabled() && realms != null) {
+            for (Realm realm : realms) {
+                if (realm instanceof AuthorizingRealm) {
+                    ((AuthorizingRealm) realm).addAuthorizationCacheListener(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards the merged authorization data of the specified Subject after one of the realms cleared its own
+     * cached data for that Subject.
+     *
+     * @param realm      the realm that cleared its cached authorization data.
+     * @param principals the principals of the account whose cached authorization data was cleared.
+     * @since 1.0
+     */
+    public void onAuthorizationInfoCleared(AuthorizingRealm realm, PrincipalCollection principals) {
+        Cache cache = getMergedAuthorizationCache();
+        if (cache != null && principals != null) {
+            PrincipalCacheKey key = PrincipalCacheKey.forPrincipals(principals);
+            mergedAuthorizationBuilds.remove(key);
+            cache.remove(key);
+        }
+    }
+
+    private void clearMergedAuthorizationCache() {
+        Cache cache = this.mergedAuthorizationCache;
+        if (cache != null) {
+            mergedAuthorizationBuilds.clear();
+            cache.clear();
+        }
+    }
+
+    private Cache getMergedAuthorizationCache() {
+        Cache cache = this.mergedAuthorizationCache;
+        if (cache == null) {
+            CacheManager cacheManager = getCacheManager();
+            String cacheName = getMergedAuthorizationCacheName();
+            if (cacheManager != null && cacheName != null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Building merged authorization cache named [" + cacheName + "]");
+                }
+                cache = cacheManager.getCache(cacheName);
+                this.mergedAuthorizationCache = cache;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns a single {@link CompiledAuthorizationInfo CompiledAuthorizationInfo} combining the roles and resolved
+     * permissions of all configured realms for the specified principals, or <code>null</code> if merged
+     * authorization is disabled, no {@link #setCacheManager CacheManager} is configured, or it cannot be used for the
+     * Subject (in which case each realm must be consulted individually).
+     * <p/>
+     * A cached merged info is used no longer than the
+     * {@link AuthorizingRealm#setAuthorizationCacheSoftTimeToLive(long) soft time to live} of any of the realm infos
+     * it was built from, so that those realms get the chance to refresh their data.  Merged data built while a realm
+     * cleared its cached data is not cached, since it might already be outdated.
+     *
+     * @param principals the principals of the Subject being checked.
+     * @return the merged authorization info for the Subject, or <code>null</code> if each realm must be consulted
+     *         individually.
+     * @since 1.0
+     */
+    protected CompiledAuthorizationInfo getMergedAuthorizationInfo(PrincipalCollection principals) {
+        if (!isMergedAuthorizationEnabled() || principals == null) {
+            return null;
+        }
+
+        Cache cache = getMergedAuthorizationCache();
+        if (cache == null) {
+            //without a cache the merged info would be rebuilt for every check, which costs more than consulting
+            //each realm:
+            return null;
+        }
+        PrincipalCacheKey key = PrincipalCacheKey.forPrincipals(principals);
+        MergedAuthorizationInfo cached = (MergedAuthorizationInfo) cache.get(key);
+        if (cached != null && System.currentTimeMillis() < cached.expirationTime) {
+            return cached.info;
+        }
+
+        Object build = new Object();
+        mergedAuthorizationBuilds.put(key, build);
+        try {
+            return buildMergedAuthorizationInfo(principals, key, cache, build);
+        } finally {
+            mergedAuthorizationBuilds.remove(key, build);
+        }
+    }
+
+    private CompiledAuthorizationInfo buildMergedAuthorizationInfo(PrincipalCollection principals,
+                                                                   PrincipalCacheKey key, Cache cache, Object build) {
+        long expirationTime = Long.MAX_VALUE;
+        SimpleAuthorizationInfo aggregate = new SimpleAuthorizationInfo();
+        Set<String> roles = new LinkedHashSet<String>();
+        Set<Permission> permissions = new LinkedHashSet<Permission>();
+        for (Realm realm : getRealms()) {
+            if (!(realm instanceof AuthorizingRealm)) {
+                return null;
+            }
+            AuthorizingRealm authorizingRealm = (AuthorizingRealm) realm;
+            AuthorizationInfo info = authorizingRealm.getCompiledAuthorizationInfo(principals);
+            if (info == null) {
+                continue;
+            }
+            if (!(info instanceof CompiledAuthorizationInfo)) {
+                //deprecated AuthorizingAccount - it performs its own checks, so it can't be merged:
+                return null;
+            }
+            CompiledAuthorizationInfo compiled = (CompiledAuthorizationInfo) info;
+            long softTimeToLive = authorizingRealm.getAuthorizationCacheSoftTimeToLive();
+            if (softTimeToLive > 0) {
+                expirationTime = Math.min(expirationTime, compiled.getCreationTime() + softTimeToLive);
+            }
+            roles.addAll(compiled.getRoles());
+            permissions.addAll(compiled.getPermissions());
+        }
+        aggregate.setRoles(roles);
+        aggregate.setObjectPermissions(permissions);
+        CompiledAuthorizationInfo merged = new CompiledAuthorizationInfo(aggregate, permissions, mergedRoleRegistry);
+
+        if (System.currentTimeMillis() < expirationTime) {
+            cache.put(key, new MergedAuthorizationInfo(merged, expirationTime));
+            //a realm cleared this Subject's data while this was built - it may be outdated, so don't keep it:
+            if (mergedAuthorizationBuilds.get(key) != build) {
+                cache.remove(key);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Converts a permission string to a Permission instance for checks against merged authorization data, using
+     * this authorizer's {@link #getPermissionResolver() permissionResolver} if set, or the first realm's resolver
+     * otherwise.
+     *
+     * @param permission the permission string to resolve.
+     * @return the resolved Permission instance.
+     * @since 1.0
+     */
+    protected Permission resolveMergedPermission(String permission) {
+        return getMergedPermissionResolver().resolvePermission(permission);
+    }
+
+    private PermissionResolver getMergedPermissionResolver() {
+        PermissionResolver resolver = getPermissionResolver();
+        if (resolver == null) {
+            resolver = ((AuthorizingRealm) getRealms().iterator().next()).getPermissionResolver();
+        }
+        return resolver;
+    }
+
     /**
      * Used by the {@link Authorizer Authorizer} implementation methods to ensure that the {@link #setRealms realms}
      * has been set.  The default implementation ensures the property is not null and not empty.
@@ -157,6 +473,10 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
      */
     public boolean isPermitted(PrincipalCollection principals, String permission) {
         assertRealmsConfigured();
+        CompiledAuthorizationInfo merged = getMergedAuthorizationInfo(principals);
+        if (merged != null) {
+            return merged.isPermitted(resolveMergedPermission(permission));
+        }
         for (Realm realm : getRealms()) {
             if (realm.isPermitted(principals, permission)) {
                 return true;
@@ -172,6 +492,10 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
      */
     public boolean isPermitted(PrincipalCollection principals, Permission permission) {
         assertRealmsConfigured();
+        CompiledAuthorizationInfo merged = getMergedAuthorizationInfo(principals);
+        if (merged != null) {
+            return merged.isPermitted(permission);
+        }
         for (Realm realm : getRealms()) {
             if (realm.isPermitted(principals, permission)) {
                 return true;
@@ -184,15 +508,14 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
      * Returns <code>true</code> if any of the configured realms'
      * {@link Realm#isPermitted(org.apache.ki.subject.PrincipalCollection , String[])} call returns <code>true</code>,
      * <code>false</code> otherwise.
+     * <p/>
+     * Each realm is consulted only once for the whole batch (and only for the permissions not yet granted by a
+     * previous realm), so it only needs to look up the Subject's authorization data once.
      */
     public boolean[] isPermitted(PrincipalCollection principals, String... permissions) {
         assertRealmsConfigured();
         if (permissions != null && permissions.length > 0) {
-            boolean[] isPermitted = new boolean[permissions.length];
-            for (int i = 0; i < permissions.length; i++) {
-                isPermitted[i] = isPermitted(principals, permissions[i]);
-            }
-            return isPermitted;
+            return isPermittedByAnyRealm(principals, permissions);
         }
         return new boolean[0];
     }
@@ -205,17 +528,63 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
     public boolean[] isPermitted(PrincipalCollection principals, List<Permission> permissions) {
         assertRealmsConfigured();
         if (permissions != null && !permissions.isEmpty()) {
-            boolean[] isPermitted = new boolean[permissions.size()];
-            int i = 0;
-            for (Permission p : permissions) {
-                isPermitted[i++] = isPermitted(principals, p);
-            }
-            return isPermitted;
+            return isPermittedByAnyRealm(principals, permissions);
         }
 
         return new boolean[0];
     }
 
+    /**
+     * Returns a <code>BitSet</code> with the bit of each instance identifier set for which any of the configured
+     * realms' {@link Realm#getPermittedMask(PrincipalCollection, String, String, List) getPermittedMask} call set it.
+     * Each realm is called at most once, and only with the identifiers not already permitted by a previous realm.
+     *
+     * @since 1.0
+     */
+    public BitSet getPermittedMask(PrincipalCollection principals, String domain, String action, List<?> instanceIds) {
+        assertRealmsConfigured();
+        int size = instanceIds != null ? instanceIds.size() : 0;
+        BitSet mask = new BitSet(size);
+        if (size == 0) {
+            return mask;
+        }
+        CompiledAuthorizationInfo merged = getMergedAuthorizationInfo(principals);
+        if (merged != null && InstancePermissionMatcher.isEquivalentTo(getMergedPermissionResolver())) {
+            return new InstancePermissionMatcher(merged.getPermissions(), domain, action).getPermittedMask(instanceIds);
+        }
+        int[] pending = null;
+        List<?> remaining = instanceIds;
+        for (Realm realm : getRealms()) {
+            pending = merge(mask, size, pending, realm.getPermittedMask(principals, domain, action, remaining));
+            if (pending.length == 0) {
+                break;
+            }
+            remaining = subList(instanceIds, pending);
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the instance identifiers whose bits are set by
+     * {@link #getPermittedMask(PrincipalCollection, String, String, List) getPermittedMask}, in iteration order.
+     *
+     * @since 1.0
+     */
+    public <T> List<T> filterPermitted(PrincipalCollection principals, String domain, String action,
+                                       Collection<T> instanceIds) {
+        if (instanceIds == null || instanceIds.isEmpty()) {
+            assertRealmsConfigured();
+            return new ArrayList<T>(0);
+        }
+        List<T> ids = asList(instanceIds);
+        BitSet mask = getPermittedMask(principals, domain, action, ids);
+        List<T> permitted = new ArrayList<T>(mask.cardinality());
+        for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) {
+            permitted.add(ids.get(i));
+        }
+        return permitted;
+    }
+
     /**
      * Returns <code>true</code> if any of the configured realms'
      * {@link Realm#isPermitted(org.apache.ki.subject.PrincipalCollection , String)} call returns <code>true</code>
@@ -224,11 +593,7 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
     public boolean isPermittedAll(PrincipalCollection principals, String... permissions) {
         assertRealmsConfigured();
         if (permissions != null && permissions.length > 0) {
-            for (String perm : permissions) {
-                if (!isPermitted(principals, perm)) {
-                    return false;
-                }
-            }
+            return indexOfFalse(isPermittedByAnyRealm(principals, permissions)) < 0;
         }
         return true;
     }
@@ -241,11 +606,7 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
     public boolean isPermittedAll(PrincipalCollection principals, Collection<Permission> permissions) {
         assertRealmsConfigured();
         if (permissions != null && !permissions.isEmpty()) {
-            for (Permission permission : permissions) {
-                if (!isPermitted(principals, permission)) {
-                    return false;
-                }
-            }
+            return indexOfFalse(isPermittedByAnyRealm(principals, asList(permissions))) < 0;
         }
         return true;
     }
@@ -279,8 +640,9 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
     public void checkPermissions(PrincipalCollection principals, String... permissions) throws AuthorizationException {
         assertRealmsConfigured();
         if (permissions != null && permissions.length > 0) {
-            for (String perm : permissions) {
-                checkPermission(principals, perm);
+            int i = indexOfFalse(isPermittedByAnyRealm(principals, permissions));
+            if (i >= 0) {
+                throw new UnauthorizedException("Subject does not have permission [" + permissions[i] + "]");
             }
         }
     }
@@ -292,9 +654,11 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
      */
     public void checkPermissions(PrincipalCollection principals, Collection<Permission> permissions) throws AuthorizationException {
         assertRealmsConfigured();
-        if (permissions != null) {
-            for (Permission permission : permissions) {
-                checkPermission(principals, permission);
+        if (permissions != null && !permissions.isEmpty()) {
+            List<Permission> permissionList = asList(permissions);
+            int i = indexOfFalse(isPermittedByAnyRealm(principals, permissionList));
+            if (i >= 0) {
+                throw new UnauthorizedException("Subject does not have permission [" + permissionList.get(i) + "]");
             }
         }
     }
@@ -306,6 +670,10 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
      */
     public boolean hasRole(PrincipalCollection principals, String roleIdentifier) {
         assertRealmsConfigured();
+        CompiledAuthorizationInfo merged = getMergedAuthorizationInfo(principals);
+        if (merged != null) {
+            return merged.hasRole(roleIdentifier);
+        }
         for (Realm realm : getRealms()) {
             if (realm.hasRole(principals, roleIdentifier)) {
                 return true;
@@ -315,18 +683,14 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
     }
 
     /**
-     * Calls {@link #hasRole(org.apache.ki.subject.PrincipalCollection , String)} for each role name in the specified
-     * collection and places the return value from each call at the respective location in the returned array.
+     * Returns, for each role name in the specified collection, whether any of the configured realms'
+     * {@link Realm#hasRoles(org.apache.ki.subject.PrincipalCollection , List)} call returned <code>true</code> at
+     * the respective location.  Each realm is consulted only once for the whole collection.
      */
     public boolean[] hasRoles(PrincipalCollection principals, List<String> roleIdentifiers) {
         assertRealmsConfigured();
         if (roleIdentifiers != null && !roleIdentifiers.isEmpty()) {
-            boolean[] hasRoles = new boolean[roleIdentifiers.size()];
-            int i = 0;
-            for (String roleId : roleIdentifiers) {
-                hasRoles[i++] = hasRole(principals, roleId);
-            }
-            return hasRoles;
+            return hasRolesInAnyRealm(principals, roleIdentifiers);
         }
 
         return new boolean[0];
@@ -339,10 +703,17 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
      */
     public boolean hasAllRoles(PrincipalCollection principals, Collection<String> roleIdentifiers) {
         assertRealmsConfigured();
-        for (String roleIdentifier : roleIdentifiers) {
-            if (!hasRole(principals, roleIdentifier)) {
-                return false;
+        if (roleIdentifiers != null && !roleIdentifiers.isEmpty()) {
+            CompiledAuthorizationInfo merged = getMergedAuthorizationInfo(principals);
+            if (merged != null) {
+                return merged.hasAllRoles(roleIdentifiers);
             }
+            Collection<Realm> realms = getRealms();
+            if (realms.size() == 1) {
+                //no need to aggregate results across realms:
+                return realms.iterator().next().hasAllRoles(principals, roleIdentifiers);
+            }
+            return indexOfFalse(hasRolesInAnyRealm(principals, asList(roleIdentifiers))) < 0;
         }
         return true;
     }
@@ -359,15 +730,199 @@ public class ModularRealmAuthorizer implements Authorizer, PermissionResolverAwa
     }
 
     /**
-     * Calls {@link #checkRole(org.apache.ki.subject.PrincipalCollection , String) checkRole} for each role specified.
+     * If !{@link #hasAllRoles(org.apache.ki.subject.PrincipalCollection , Collection) hasAllRoles(roles)}, throws
+     * an <code>UnauthorizedException</code> for the first role not granted by any realm, otherwise returns quietly.
+     * Each realm is consulted only once for the whole collection.
      */
     public void checkRoles(PrincipalCollection principals, Collection<String> roles) throws AuthorizationException {
         assertRealmsConfigured();
-        if (roles != null) {
-            for (String role : roles) {
-                checkRole(principals, role);
+        if (roles != null && !roles.isEmpty()) {
+            List<String> roleList = asList(roles);
+            int i = indexOfFalse(hasRolesInAnyRealm(principals, roleList));
+            if (i >= 0) {
+                throw new UnauthorizedException("Subject does not have role [" + roleList.get(i) + "]");
+            }
+        }
+    }
+
+    /**
+     * Evaluates a batch of string permissions against all configured realms, calling each realm's batch
+     * {@link Realm#isPermitted(org.apache.ki.subject.PrincipalCollection, String[]) isPermitted} method at most once.
+     * Permissions already granted by one realm are not passed on to the following realms, and realms are no longer
+     * consulted once all permissions have been granted.
+     *
+     * @param principals  the principals of the Subject being checked.
+     * @param permissions the permissions to check.
+     * @return the aggregate results, in the same order as the given permissions.
+     */
+    private boolean[] isPermittedByAnyRealm(PrincipalCollection principals, String[] permissions) {
+        CompiledAuthorizationInfo merged = getMergedAuthorizationInfo(principals);
+        if (merged != null) {
+            boolean[] result = new boolean[permissions.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = merged.isPermitted(resolveMergedPermission(permissions[i]));
+            }
+            return result;
+        }
+        BitSet result = new BitSet(permissions.length);
+        int[] pending = null;
+        String[] remaining = permissions;
+        for (Realm realm : getRealms()) {
+            pending = merge(result, permissions.length, pending, toBitSet(realm.isPermitted(principals, remaining)));
+            if (pending.length == 0) {
+                break;
+            }
+            remaining = new String[pending.length];
+            for (int i = 0; i < pending.length; i++) {
+                remaining[i] = permissions[pending[i]];
+            }
+        }
+        return toArray(result, permissions.length);
+    }
+
+    /**
+     * Evaluates a batch of Permissions against all configured realms, calling each realm's batch
+     * {@link Realm#isPermitted(org.apache.ki.subject.PrincipalCollection, List) isPermitted} method at most once, in
+     * the same way as {@link #isPermittedByAnyRealm(PrincipalCollection, String[])}.
+     *
+     * @param principals  the principals of the Subject being checked.
+     * @param permissions the permissions to check.
+     * @return the aggregate results, in the same order as the given permissions.
+     */
+    private boolean[] isPermittedByAnyRealm(PrincipalCollection principals, List<Permission> permissions) {
+        CompiledAuthorizationInfo merged = getMergedAuthorizationInfo(principals);
+        if (merged != null) {
+            boolean[] result = new boolean[permissions.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = merged.isPermitted(permissions.get(i));
+            }
+            return result;
+        }
+        BitSet result = new BitSet(permissions.size());
+        int[] pending = null;
+        List<Permission> remaining = permissions;
+        for (Realm realm : getRealms()) {
+            pending = merge(result, permissions.size(), pending, toBitSet(realm.isPermitted(principals, remaining)));
+            if (pending.length == 0) {
+                break;
+            }
+            remaining = subList(permissions, pending);
+        }
+        return toArray(result, permissions.size());
+    }
+
+    /**
+     * Evaluates a batch of roles against all configured realms, calling each realm's
+     * {@link Realm#hasRoles(org.apache.ki.subject.PrincipalCollection, java.util.List) hasRoles} method at most once.
+     *
+     * @param principals      the principals of the Subject being checked.
+     * @param roleIdentifiers the roles to check.
+     * @return the aggregate results, in the same order as the given roles.
+     */
+    private boolean[] hasRolesInAnyRealm(PrincipalCollection principals, List<String> roleIdentifiers) {
+        CompiledAuthorizationInfo merged = getMergedAuthorizationInfo(principals);
+        if (merged != null) {
+            return merged.hasRoles(roleIdentifiers);
+        }
+        BitSet result = new BitSet(roleIdentifiers.size());
+        int[] pending = null;
+        List<String> remaining = roleIdentifiers;
+        for (Realm realm : getRealms()) {
+            pending = merge(result, roleIdentifiers.size(), pending, toBitSet(realm.hasRoles(principals, remaining)));
+            if (pending.length == 0) {
+                break;
+            }
+            remaining = subList(roleIdentifiers, pending);
+        }
+        return toArray(result, roleIdentifiers.size());
+    }
+
+    /**
+     * Merges a single realm's batch results into the aggregate <code>result</code>.
+     *
+     * @param result      the aggregate results for the entire batch.
+     * @param size        the size of the entire batch.
+     * @param pending     the batch indexes the realm was consulted for, or <code>null</code> if it was consulted for
+     *                    all of them.
+     * @param realmResult the realm's results, a bit for each pending index.
+     * @return the batch indexes that are still not set.
+     */
+    private static int[] merge(BitSet result, int size, int[] pending, BitSet realmResult) {
+        int count = pending != null ? pending.length : size;
+        int[] stillPending = new int[count];
+        int stillPendingCount = 0;
+        for (int i = 0; i < count; i++) {
+            int index = pending != null ? pending[i] : i;
+            if (realmResult != null && realmResult.get(i)) {
+                result.set(index);
+            } else {
+                stillPending[stillPendingCount++] = index;
+            }
+        }
+        if (stillPendingCount == count) {
+            return stillPending;
+        }
+        int[] trimmed = new int[stillPendingCount];
+        System.arraycopy(stillPending, 0, trimmed, 0, stillPendingCount);
+        return trimmed;
+    }
+
+    private static BitSet toBitSet(boolean[] values) {
+        if (values == null) {
+            return null;
+        }
+        BitSet bits = new BitSet(values.length);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i]) {
+                bits.set(i);
             }
         }
+        return bits;
+    }
+
+    private static boolean[] toArray(BitSet bits, int size) {
+        boolean[] values = new boolean[size];
+        for (int i = bits.nextSetBit(0); i >= 0 && i < size; i = bits.nextSetBit(i + 1)) {
+            values[i] = true;
+        }
+        return values;
+    }
+
+    private static <T> List<T> subList(List<T> list, int[] indexes) {
+        List<T> subList = new ArrayList<T>(indexes.length);
+        for (int index : indexes) {
+            subList.add(list.get(index));
+        }
+        return subList;
     }
 
+    private static <T> List<T> asList(Collection<T> c) {
+        if (c instanceof List) {
+            return (List<T>) c;
+        }
+        return new ArrayList<T>(c);
+    }
+
+    private static int indexOfFalse(boolean[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (!values[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A cached merged authorization info together with the time it must no longer be used.
+     */
+    private static class MergedAuthorizationInfo implements Serializable {
+
+        private final CompiledAuthorizationInfo info;
+        private final long expirationTime;
+
+        private MergedAuthorizationInfo(CompiledAuthorizationInfo info, long expirationTime) {
+            this.info = info;
+            this.expirationTime = expirationTime;
+        }
+    }
 }
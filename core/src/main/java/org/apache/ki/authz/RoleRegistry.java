@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authz;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Assigns dense, stable integer ids to role names, so that a set of roles can be represented as a
+ * {@link BitSet BitSet} and multi-role checks can be performed with a few bitwise operations.
+ * <p/>
+ * Ids are assigned on {@link #register(String) registration} and never change or get reused for the lifetime of the
+ * registry.  Role names are only registered when they are granted to an account, never when they are merely checked,
+ * so the registry's size is bounded by the number of distinct roles in the underlying data stores.
+ * <p/>
+ * Instances are thread-safe.  A registry is scoped to the component compiling the infos that use it, typically a
+ * single {@link org.apache.ki.realm.AuthorizingRealm#getRoleRegistry() realm}, so that it only holds that
+ * component's roles and is released together with it.
+ *
+ * @since 1.0
+ */
+public class RoleRegistry {
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Role names indexed by id.  Guarded by <code>this</code>.
+     */
+    private final List<String> names = new ArrayList<String>();
+
+    /**
+     * Returns the id of the specified role, assigning the next free id if the role is not yet known.
+     *
+     * @param role the role name.
+     * @return the id of the specified role.
+     * @throws IllegalArgumentException if <code>role</code> is <code>null</code>.
+     */
+    public int register(String role) throws IllegalArgumentException {
+        if (role == null) {
+            throw new IllegalArgumentException("role argument cannot be null.");
+        }
+        Integer id = ids.get(role);
+        if (id == null) {
+            synchronized (this) {
+                id = ids.get(role);
+                if (id == null) {
+                    id = names.size();
+                    names.add(role);
+                    ids.put(role, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Returns a new <code>BitSet</code> with the bits of all specified roles set, registering any unknown roles.
+     *
+     * @param roles the role names, may be <code>null</code>.
+     * @return a new <code>BitSet</code> representing the specified roles.
+     */
+    public BitSet register(Collection<String> roles) {
+        BitSet bits = new BitSet();
+        if (roles != null) {
+            for (String role : roles) {
+                if (role != null) {
+                    bits.set(register(role));
+                }
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Returns the id of the specified role, or <code>-1</code> if the role has never been registered.
+     *
+     * @param role the role name.
+     * @return the id of the specified role, or <code>-1</code> if the role is unknown.
+     */
+    public int getId(String role) {
+        if (role == null) {
+            return -1;
+        }
+        Integer id = ids.get(role);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Returns a new <code>BitSet</code> with the bits of all specified roles set, or <code>null</code> if any of
+     * them has never been registered - no account can have such a role.  Unknown roles are not registered.
+     *
+     * @param roles the role names.
+     * @return a new <code>BitSet</code> representing the specified roles, or <code>null</code> if any is unknown.
+     */
+    public BitSet getIds(Collection<String> roles) {
+        BitSet bits = new BitSet();
+        if (roles != null) {
+            for (String role : roles) {
+                int id = getId(role);
+                if (id < 0) {
+                    return null;
+                }
+                bits.set(id);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Returns the name of the role with the specified id.
+     *
+     * @param id the role id.
+     * @return the name of the role with the specified id.
+     * @throws IllegalArgumentException if no role has been registered with the specified id.
+     */
+    public synchronized String getRole(int id) throws IllegalArgumentException {
+        if (id < 0 || id >= names.size()) {
+            throw new IllegalArgumentException("No role registered with id [" + id + "]");
+        }
+        return names.get(id);
+    }
+
+    /**
+     * Returns the number of registered roles.
+     *
+     * @return the number of registered roles.
+     */
+    public synchronized int size() {
+        return names.size();
+    }
+}
@@ -23,6 +23,8 @@ import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
+import org.apache.ki.authz.permission.PermissionIndex;
+
 /**
  * A simple representation of a security role that has a name and a collection of permissions.  This object can be
  * used internally by Realms to maintain authorization state.
@@ -32,9 +34,25 @@ import java.util.Set;
  */
 public class SimpleRole implements Serializable {
 
+    /**
+     * The serial version of the original implementation, whose serialized fields are a subset of the current ones.
+     */
+    private static final long serialVersionUID = -8885478911108574078L;
+
     protected String name = null;
     protected Set<Permission> permissions;
 
+    /**
+     * The names of the roles whose permissions this role inherits, or <code>null</code> if it doesn't inherit any.
+     */
+    protected Set<String> inheritedRoles;
+
+    /**
+     * Lazily built index over the role's permissions, together with the state of the set it was built from, or
+     * <code>null</code> if it has not been built yet.
+     */
+    private transient volatile IndexedPermissions indexedPermissions;
+
     public SimpleRole() {
     }
 
@@ -83,8 +101,54 @@ public class SimpleRole implements Serializable {
         }
     }
 
+    /**
+     * Returns the names of the roles this role inherits from, or <code>null</code> if it doesn't inherit from any.
+     * <p/>
+     * A role inherits all roles and permissions of the roles it names here, directly and transitively.  This class
+     * only records the names; the inheritance is resolved by the Realm holding the roles, for example
+     * {@link org.apache.ki.realm.SimpleAccountRealm SimpleAccountRealm}.  In particular,
+     * {@link #isPermitted(Permission) isPermitted} only considers this role's own permissions.
+     *
+     * @return the names of the roles this role inherits from, or <code>null</code> if it doesn't inherit from any.
+     * @since 1.0
+     */
+    public Set<String> getInheritedRoles() {
+        return inheritedRoles;
+    }
+
+    /**
+     * Sets the names of the roles this role inherits from.
+     *
+     * @param inheritedRoles the names of the roles this role inherits from, may be <code>null</code>.
+     * @see #getInheritedRoles()
+     * @since 1.0
+     */
+    public void setInheritedRoles(Set<String> inheritedRoles) {
+        this.inheritedRoles = inheritedRoles;
+    }
+
+    /**
+     * Adds the name of a role this role inherits from.
+     *
+     * @param roleName the name of the role to inherit from.
+     * @see #getInheritedRoles()
+     * @since 1.0
+     */
+    public void addInheritedRole(String roleName) {
+        Set<String> inheritedRoles = getInheritedRoles();
+        if (inheritedRoles == null) {
+            inheritedRoles = new LinkedHashSet<String>();
+            setInheritedRoles(inheritedRoles);
+        }
+        inheritedRoles.add(roleName);
+    }
+
     public boolean isPermitted(Permission p) {
         Collection<Permission> perms = getPermissions();
+        PermissionIndex index = getPermissionIndex(perms);
+        if (index != null) {
+            return index.implies(p);
+        }
         if (perms != null && !perms.isEmpty()) {
             for (Permission perm : perms) {
                 if (perm.implies(p)) {
@@ -95,6 +159,32 @@ public class SimpleRole implements Serializable {
         return false;
     }
 
+    /**
+     * Returns an index over the specified permissions if they can be indexed, building it if necessary.
+     * <p/>
+     * The permissions set may be replaced or changed in place without this role being notified, via
+     * {@link #setPermissions(java.util.Set) setPermissions}, the set returned by {@link #getPermissions()} or the
+     * <code>permissions</code> field.  The index is therefore only reused while the set is the same instance with the
+     * same size and hash code as when it was built, and rebuilt otherwise.
+     *
+     * @param perms the role's current permissions.
+     * @return an index over the specified permissions, or <code>null</code> if they cannot be indexed.
+     */
+    private PermissionIndex getPermissionIndex(Collection<Permission> perms) {
+        if (perms == null || perms.isEmpty()) {
+            return null;
+        }
+        int size = perms.size();
+        int hashCode = perms.hashCode();
+        IndexedPermissions indexed = this.indexedPermissions;
+        if (indexed == null || indexed.source != perms || indexed.size != size || indexed.hashCode != hashCode) {
+            PermissionIndex index = PermissionIndex.isIndexable(perms) ? new PermissionIndex(perms) : null;
+            indexed = new IndexedPermissions(index, perms, size, hashCode);
+            this.indexedPermissions = indexed;
+        }
+        return indexed.index;
+    }
+
     public int hashCode() {
         return (getName() != null ? getName().hashCode() : 0);
     }
@@ -114,4 +204,22 @@ public class SimpleRole implements Serializable {
     public String toString() {
         return getName();
     }
+
+    /**
+     * Holds a built index, or <code>null</code> if the permissions cannot be indexed, and the state of the set it
+     * was built from.
+     */
+    private static class IndexedPermissions {
+        private final PermissionIndex index;
+        private final Collection<Permission> source;
+        private final int size;
+        private final int hashCode;
+
+        private IndexedPermissions(PermissionIndex index, Collection<Permission> source, int size, int hashCode) {
+            this.index = index;
+            this.source = source;
+            this.size = size;
+            this.hashCode = hashCode;
+        }
+    }
 }
@@ -1,5 +1,9 @@
 package org.apache.ki.authz.permission;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ki.authz.Permission;
 import org.apache.ki.util.StringUtils;
 
 /**
@@ -7,12 +11,45 @@ import org.apache.ki.util.StringUtils;
  * as a base class for JPA/Hibernate persisted permissions that wish to store the parts of the permission string
  * in separate columns (e.g. 'domain', 'actions' and 'targets' columns), which can be used in querying
  * strategies.
+ * <p/>
+ * When one domain permission is checked against another of the same type, <code>implies</code> uses a typed fast
+ * path:  each distinct action of a domain is registered once as a bit position, so comparing the actions of two
+ * permissions is a single bitmask operation, and targets are compared as interned tokens.  The results are identical
+ * to the {@link WildcardPermission WildcardPermission} rules, which are used as is for all other permissions.
  *
  * @author Les Hazlewood
  * @since 1.0
  */
 public abstract class DomainPermission extends WildcardPermission {
 
+    /**
+     * The serial version of the original implementation, which had the same serialized fields.
+     */
+    private static final long serialVersionUID = 591272947597437860L;
+
+    /**
+     * The maximum number of distinct actions per domain that can be represented as bits of a <code>long</code>.
+     */
+    private static final int MAX_ACTIONS_PER_DOMAIN = 64;
+
+    /**
+     * The bit position of each registered action, per domain.  Only actions of granted permissions are registered,
+     * never those of permissions merely being checked.
+     */
+    private static final ConcurrentMap<String, ConcurrentMap<String, Integer>> ACTION_BITS =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Integer>>();
+
+    /**
+     * Marks permissions that can't use the typed fast path.
+     */
+    private static final Typed UNTYPED = new Typed(null, 0, false, 0L, false, false);
+
+    /**
+     * Lazily computed typed representation of the parts.  Bit positions are only valid within the current JVM,
+     * so it is not serialized.
+     */
+    private transient volatile Typed typed;
+
     private String domain;
     private String actions;
     private String targets;
@@ -47,6 +84,145 @@ public abstract class DomainPermission extends WildcardPermission {
             sb.append(PART_DIVIDER_TOKEN).append(targets);
         }
         setParts(sb.toString());
+        this.domain = domain;
+        this.actions = actions;
+        this.targets = targets;
+    }
+
+    protected void setParts(String wildcardString, boolean caseSensitive) {
+        super.setParts(wildcardString, caseSensitive);
+        this.typed = null;
+    }
+
+    public boolean implies(Permission p) {
+        if (p instanceof DomainPermission && p.getClass() == getClass()) {
+            Typed mine = getTyped();
+            Typed other = ((DomainPermission) p).getCheckedTyped();
+            if (mine != UNTYPED && other != UNTYPED && mine.domain == other.domain) {
+                return implies(mine, other, (DomainPermission) p);
+            }
+        }
+        return super.implies(p);
+    }
+
+    /**
+     * Same rules as {@link WildcardPermission#implies(org.apache.ki.authz.Permission)}, with the domain part already
+     * known to be identical.
+     */
+    private boolean implies(Typed mine, Typed other, DomainPermission p) {
+        int i = 1;
+        for (; i < other.partCount; i++) {
+            if (i >= mine.partCount) {
+                return true;
+            }
+            if (i == 1) {
+                if (!mine.allActions &&
+                        (other.allActions || other.unknownActions || (other.actionMask & ~mine.actionMask) != 0)) {
+                    return false;
+                }
+            } else if (!mine.allTargets && (other.allTargets || !containsAll(2, p.getSubparts(2)))) {
+                return false;
+            }
+        }
+        for (; i < mine.partCount; i++) {
+            if (!(i == 1 ? mine.allActions : mine.allTargets)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the typed representation of this permission as a granted permission, registering its actions if
+     * necessary.
+     */
+    private Typed getTyped() {
+        Typed t = this.typed;
+        if (t == null) {
+            t = createTyped(true);
+            this.typed = t;
+        }
+        return t;
+    }
+
+    /**
+     * Returns the typed representation of this permission as a permission being checked.  Its actions are only
+     * looked up, so the representation is only retained if all of them are already registered.
+     */
+    private Typed getCheckedTyped() {
+        Typed t = this.typed;
+        if (t == null) {
+            t = createTyped(false);
+            if (!t.unknownActions) {
+                this.typed = t;
+            }
+        }
+        return t;
+    }
+
+    private Typed createTyped(boolean register) {
+        int partCount = getPartCount();
+        if (partCount > 3 || getSubparts(0).length != 1 || isWildcardPart(0)) {
+            return UNTYPED;
+        }
+        String domain = getSubparts(0)[0];
+        boolean allActions = partCount > 1 && isWildcardPart(1);
+        long actionMask = 0;
+        boolean unknownActions = false;
+        if (partCount > 1 && !allActions) {
+            for (String action : getSubparts(1)) {
+                int bit = register ? registerActionBit(domain, action) : getActionBit(domain, action);
+                if (bit >= 0) {
+                    actionMask |= 1L << bit;
+                } else if (register) {
+                    return UNTYPED;
+                } else {
+                    //no typed granted permission holds this action:
+                    unknownActions = true;
+                }
+            }
+        }
+        boolean allTargets = partCount > 2 && isWildcardPart(2);
+        return new Typed(domain, partCount, allActions, actionMask, allTargets, unknownActions);
+    }
+
+    /**
+     * Returns the bit position of the specified action within the specified domain, or <code>-1</code> if the
+     * action has not been registered.
+     */
+    private static int getActionBit(String domain, String action) {
+        ConcurrentMap<String, Integer> bits = ACTION_BITS.get(domain);
+        Integer bit = bits != null ? bits.get(action) : null;
+        return bit != null ? bit : -1;
+    }
+
+    /**
+     * Returns the bit position of the specified action within the specified domain, registering the action if
+     * necessary, or <code>-1</code> if the domain already has the maximum number of actions.
+     */
+    private static int registerActionBit(String domain, String action) {
+        ConcurrentMap<String, Integer> bits = ACTION_BITS.get(domain);
+        if (bits == null) {
+            bits = new ConcurrentHashMap<String, Integer>();
+            ConcurrentMap<String, Integer> existing = ACTION_BITS.putIfAbsent(domain, bits);
+            if (existing != null) {
+                bits = existing;
+            }
+        }
+        Integer bit = bits.get(action);
+        if (bit == null) {
+            synchronized (bits) {
+                bit = bits.get(action);
+                if (bit == null) {
+                    if (bits.size() >= MAX_ACTIONS_PER_DOMAIN) {
+                        return -1;
+                    }
+                    bit = bits.size();
+                    bits.put(action, bit);
+                }
+            }
+        }
+        return bit;
     }
 
     protected String getDomain(Class<? extends DomainPermission> clazz) {
@@ -82,4 +258,34 @@ public abstract class DomainPermission extends WildcardPermission {
     protected void setTargets(String targets) {
         this.targets = targets;
     }
+
+    /**
+     * The typed representation of a domain permission's parts.
+     */
+    private static final class Typed {
+
+        /**
+         * The interned domain token, or <code>null</code> for {@link DomainPermission#UNTYPED}.
+         */
+        private final String domain;
+        private final int partCount;
+        private final boolean allActions;
+        private final long actionMask;
+        private final boolean allTargets;
+
+        /**
+         * <code>true</code> if a checked permission has actions that no typed granted permission holds.
+         */
+        private final boolean unknownActions;
+
+        private Typed(String domain, int partCount, boolean allActions, long actionMask, boolean allTargets,
+                      boolean unknownActions) {
+            this.domain = domain;
+            this.partCount = partCount;
+            this.allActions = allActions;
+            this.actionMask = actionMask;
+            this.allTargets = allTargets;
+            this.unknownActions = unknownActions;
+        }
+    }
 }
@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authz.permission;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.ki.authz.Permission;
+
+/**
+ * Determines which instances of a given <code>domain:action</code> are permitted by a collection of granted
+ * permissions, that is for which instance identifiers the permission <code>domain:action:instanceId</code> is
+ * implied by at least one grant.
+ * <p/>
+ * The grants are inspected only once on construction and reduced to either &quot;all instances&quot; or the set of
+ * explicitly granted instance tokens, so checking an identifier afterwards is a single hash lookup and does not
+ * create a {@link WildcardPermission WildcardPermission} per identifier.  The results are identical to checking
+ * <code>new WildcardPermission(domain + ":" + action + ":" + instanceId)</code> against every grant.  Identifiers
+ * whose string representation contains part or subpart dividers, as well as grants that don't use the standard
+ * <code>WildcardPermission</code> implication rules, are still checked that way.
+ *
+ * @since 1.0
+ */
+public class InstancePermissionMatcher {
+
+    /**
+     * The <code>domain:action</code> string, used to construct permissions for the slow path.
+     */
+    private final String prefix;
+
+    private final WildcardPermission prefixPermission;
+
+    /**
+     * All grants, consulted for identifiers that can't be looked up as a single token.
+     */
+    private final Collection<? extends Permission> grants;
+
+    /**
+     * Grants that don't use standard WildcardPermission semantics and must be consulted for every identifier.
+     */
+    private final List<Permission> customGrants;
+
+    private final boolean allPermitted;
+
+    /**
+     * The (lower case) instance tokens explicitly granted for <code>domain:action</code>.
+     */
+    private final Set<String> permittedInstances;
+
+    /**
+     * Lazily created result of {@link #getPermittedInstances()}.
+     */
+    private volatile PermittedInstances permittedInstancesView;
+
+    /**
+     * Creates a new matcher for the specified domain and action.
+     *
+     * @param grants the granted permissions, may be <code>null</code>.
+     * @param domain the permission domain, for example <code>document</code>.
+     * @param action the action, for example <code>read</code>.
+     * @throws IllegalArgumentException if <code>domain</code> or <code>action</code> is <code>null</code> or empty.
+     */
+    public InstancePermissionMatcher(Collection<? extends Permission> grants, String domain, String action)
+            throws IllegalArgumentException {
+        if (domain == null || domain.length() == 0) {
+            throw new IllegalArgumentException("domain argument cannot be null or empty.");
+        }
+        if (action == null || action.length() == 0) {
+            throw new IllegalArgumentException("action argument cannot be null or empty.");
+        }
+        this.prefix = domain + WildcardPermission.PART_DIVIDER_TOKEN + action;
+        this.prefixPermission = new WildcardPermission(prefix);
+        if (prefixPermission.getPartCount() != 2) {
+            throw new IllegalArgumentException("domain and action arguments cannot contain part dividers.");
+        }
+        this.grants = grants != null ? grants : Collections.<Permission>emptySet();
+
+        boolean all = false;
+        Set<String> instances = new HashSet<String>();
+        List<Permission> custom = new ArrayList<Permission>();
+        for (Permission grant : this.grants) {
+            if (!PermissionIndex.isIndexable(grant)) {
+                custom.add(grant);
+            } else if (grant instanceof AllPermission) {
+                all = true;
+            } else {
+                all |= collectInstances((WildcardPermission) grant, instances);
+            }
+            if (all) {
+                break;
+            }
+        }
+        this.allPermitted = all;
+        this.permittedInstances = instances;
+        this.customGrants = custom;
+    }
+
+    /**
+     * Returns <code>true</code> if the specified resolver creates standard, case-insensitive
+     * <code>WildcardPermission</code>s, in which case the results of a matcher are identical to those of resolving
+     * each <code>domain:action:instanceId</code> string with that resolver.
+     *
+     * @param resolver the resolver used to resolve permission strings.
+     * @return <code>true</code> if a matcher can be used in place of the specified resolver.
+     */
+    public static boolean isEquivalentTo(PermissionResolver resolver) {
+        return resolver != null && resolver.getClass() == WildcardPermissionResolver.class;
+    }
+
+    /**
+     * Adds the instance tokens granted by the specified permission for <code>domain:action</code> to the specified
+     * set, following the rules of {@link WildcardPermission#implies(org.apache.ki.authz.Permission)}.
+     *
+     * @return <code>true</code> if the grant permits all instances.
+     */
+    private boolean collectInstances(WildcardPermission grant, Set<String> instances) {
+        int partCount = grant.getPartCount();
+        for (int i = 0; i < 2; i++) {
+            if (i >= partCount) {
+                return true;
+            }
+            if (!grant.isWildcardPart(i) && !grant.containsAll(i, prefixPermission.getSubparts(i))) {
+                return false;
+            }
+        }
+        if (partCount == 2) {
+            return true;
+        }
+        //any further grant parts must be wildcards, as the checked permission only has three parts:
+        for (int i = 3; i < partCount; i++) {
+            if (!grant.isWildcardPart(i)) {
+                return false;
+            }
+        }
+        if (grant.isWildcardPart(2)) {
+            return true;
+        }
+        Collections.addAll(instances, grant.getSubparts(2));
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if the grants permit every instance of <code>domain:action</code>.
+     *
+     * @return <code>true</code> if the grants permit every instance of <code>domain:action</code>.
+     */
+    public boolean isAllPermitted() {
+        return allPermitted;
+    }
+
+    /**
+     * Returns the instances of <code>domain:action</code> the grants permit:  {@link PermittedInstances#ALL all},
+     * an explicit set of instance tokens, or {@link PermittedInstances#NONE none}.  Returns <code>null</code> if this
+     * cannot be determined because some of the grants use custom implication rules, in which case each instance has
+     * to be checked via {@link #isPermitted(Object) isPermitted}.
+     *
+     * @return the permitted instances, or <code>null</code> if they cannot be enumerated.
+     */
+    public PermittedInstances getPermittedInstances() {
+        if (allPermitted) {
+            return PermittedInstances.ALL;
+        }
+        if (!customGrants.isEmpty()) {
+            return null;
+        }
+        PermittedInstances permitted = permittedInstancesView;
+        if (permitted == null) {
+            permitted = PermittedInstances.of(permittedInstances);
+            permittedInstancesView = permitted;
+        }
+        return permitted;
+    }
+
+    /**
+     * Returns <code>true</code> if <code>domain:action:instanceId</code> is permitted, <code>false</code> otherwise.
+     *
+     * @param instanceId the instance identifier, converted via <code>String.valueOf</code>.
+     * @return <code>true</code> if <code>domain:action:instanceId</code> is permitted, <code>false</code> otherwise.
+     */
+    public boolean isPermitted(Object instanceId) {
+        if (allPermitted) {
+            return true;
+        }
+        String token = String.valueOf(instanceId);
+        if (token.length() == 0 || token.trim().length() != token.length() ||
+                token.indexOf(WildcardPermission.PART_DIVIDER_TOKEN) >= 0 ||
+                token.indexOf(WildcardPermission.SUBPART_DIVIDER_TOKEN) >= 0) {
+            //not a single token - let WildcardPermission parse it:
+            return implies(grants, instanceId);
+        }
+        if (permittedInstances.contains(token.toLowerCase())) {
+            return true;
+        }
+        return !customGrants.isEmpty() && implies(customGrants, instanceId);
+    }
+
+    private boolean implies(Collection<? extends Permission> permissions, Object instanceId) {
+        Permission p;
+        try {
+            p = new WildcardPermission(prefix + WildcardPermission.PART_DIVIDER_TOKEN + instanceId);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        for (Permission grant : permissions) {
+            if (grant.implies(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks each of the specified instance identifiers.
+     *
+     * @param instanceIds the instance identifiers to check.
+     * @return a <code>BitSet</code> whose bit at an index is set if the identifier at that index is permitted.
+     */
+    public BitSet getPermittedMask(List<?> instanceIds) {
+        int size = instanceIds != null ? instanceIds.size() : 0;
+        BitSet mask = new BitSet(size);
+        if (allPermitted) {
+            mask.set(0, size);
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (isPermitted(instanceIds.get(i))) {
+                    mask.set(i);
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the permitted instance identifiers, in iteration order.
+     *
+     * @param instanceIds the instance identifiers to check.
+     * @return a new, modifiable list of the permitted instance identifiers, in iteration order.
+     */
+    public <T> List<T> filterPermitted(Collection<T> instanceIds) {
+        if (instanceIds == null || instanceIds.isEmpty()) {
+            return new ArrayList<T>(0);
+        }
+        if (allPermitted) {
+            return new ArrayList<T>(instanceIds);
+        }
+        List<T> permitted = new ArrayList<T>();
+        for (T instanceId : instanceIds) {
+            if (isPermitted(instanceId)) {
+                permitted.add(instanceId);
+            }
+        }
+        return permitted;
+    }
+}
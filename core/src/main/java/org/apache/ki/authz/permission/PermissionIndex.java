@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authz.permission;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.ki.authz.Permission;
+
+/**
+ * An immutable index over a collection of granted {@link WildcardPermission WildcardPermission}s that answers
+ * &quot;is any granted permission implying this one?&quot; without calling
+ * {@link WildcardPermission#implies(org.apache.ki.authz.Permission) implies} on every grant.
+ * <p/>
+ * The grants are stored as a trie keyed by their part tokens:  every node represents a distinct grant part
+ * (a set of subparts) at a given level, and is reachable from its parent via each of the subpart tokens it contains.
+ * Parts containing the {@link WildcardPermission#WILDCARD_TOKEN wildcard token} are collapsed into a single wildcard
+ * branch per node.  A check therefore only follows the branches matching the checked permission's tokens plus any
+ * wildcard branches, independent of the total number of grants.
+ * <p/>
+ * An {@link AllPermission AllPermission} grant or a top-level <code>&quot;*&quot;</code> grant short-circuits the
+ * lookup entirely.
+ * <p/>
+ * Only grants using the standard <code>WildcardPermission</code> implication rules can be indexed, that is
+ * <code>WildcardPermission</code>s (or subclasses like {@link DomainPermission DomainPermission}) that do not
+ * override <code>implies</code> themselves, and <code>AllPermission</code>s.  Call
+ * {@link #isIndexable(java.util.Collection) isIndexable} before constructing an instance.
+ *
+ * @since 1.0
+ */
+public class PermissionIndex implements Serializable {
+
+    /**
+     * Permission classes already inspected by {@link #isIndexable(org.apache.ki.authz.Permission)}.
+     */
+    private static final Map<Class<?>, Boolean> INDEXABLE_TYPES = new ConcurrentHashMap<Class<?>, Boolean>();
+
+    /**
+     * <code>true</code> if an AllPermission has been granted.
+     */
+    private final boolean allPermitted;
+
+    /**
+     * The trie root.  Its children represent the first part of each granted permission.
+     */
+    private final Node root = new Node(null);
+
+    /**
+     * Creates a new index over the specified granted permissions.
+     *
+     * @param permissions the granted permissions to index.
+     * @throws IllegalArgumentException if any of the permissions cannot be indexed.
+     * @see #isIndexable(java.util.Collection)
+     */
+    public PermissionIndex(Collection<? extends Permission> permissions) throws IllegalArgumentException {
+        boolean all = false;
+        if (permissions != null) {
+            for (Permission p : permissions) {
+                if (!isIndexable(p)) {
+                    String msg = "Permission [" + p + "] of type [" + (p != null ? p.getClass().getName() : null) +
+                            "] does not use standard WildcardPermission implication rules and cannot be indexed.";
+                    throw new IllegalArgumentException(msg);
+                }
+                if (p instanceof AllPermission) {
+                    all = true;
+                } else {
+                    add((WildcardPermission) p);
+                }
+            }
+        }
+        this.allPermitted = all;
+        root.compact();
+    }
+
+    /**
+     * Returns <code>true</code> if every one of the specified permissions can be placed in a
+     * <code>PermissionIndex</code>, <code>false</code> otherwise.
+     *
+     * @param permissions the permissions to inspect.
+     * @return <code>true</code> if every one of the specified permissions can be placed in a
+     *         <code>PermissionIndex</code>, <code>false</code> otherwise.
+     */
+    public static boolean isIndexable(Collection<? extends Permission> permissions) {
+        if (permissions != null) {
+            for (Permission p : permissions) {
+                if (!isIndexable(p)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if the specified permission is an <code>AllPermission</code> or a
+     * <code>WildcardPermission</code> that does not override the standard implication rules.
+     *
+     * @param p the permission to inspect.
+     * @return <code>true</code> if the permission can be placed in a <code>PermissionIndex</code>.
+     */
+    public static boolean isIndexable(Permission p) {
+        if (p == null) {
+            return false;
+        }
+        Class<?> clazz = p.getClass();
+        if (clazz == WildcardPermission.class || clazz == AllPermission.class) {
+            return true;
+        }
+        if (!(p instanceof WildcardPermission)) {
+            return false;
+        }
+        Boolean indexable = INDEXABLE_TYPES.get(clazz);
+        if (indexable == null) {
+            try {
+                Class<?> declaringClass = clazz.getMethod("implies", Permission.class).getDeclaringClass();
+                //DomainPermission's typed implies follows the standard rules exactly:
+                indexable = declaringClass == WildcardPermission.class || declaringClass == DomainPermission.class;
+            } catch (NoSuchMethodException e) {
+                indexable = Boolean.FALSE;
+            }
+            INDEXABLE_TYPES.put(clazz, indexable);
+        }
+        return indexable;
+    }
+
+    private void add(WildcardPermission permission) {
+        Node node = root;
+        for (Set<String> part : permission.getParts()) {
+            node = node.child(part);
+        }
+        node.terminal = true;
+    }
+
+    /**
+     * Returns <code>true</code> if any of the indexed permissions implies the specified permission,
+     * <code>false</code> otherwise.  The result is identical to iterating over the indexed permissions and calling
+     * <code>implies</code> on each one.
+     *
+     * @param permission the permission to check.
+     * @return <code>true</code> if any of the indexed permissions implies the specified permission,
+     *         <code>false</code> otherwise.
+     */
+    public boolean implies(Permission permission) {
+        if (allPermitted) {
+            return true;
+        }
+        if (!(permission instanceof WildcardPermission)) {
+            return false;
+        }
+        return root.implies((WildcardPermission) permission, 0);
+    }
+
+    /**
+     * A single trie node, representing one grant part at a given level.
+     */
+    private static class Node implements Serializable {
+
+        /**
+         * The grant part this node was reached with, or <code>null</code> for the root and wildcard nodes.
+         */
+        private final Set<String> part;
+
+        /**
+         * <code>true</code> if at least one grant ends at this node.
+         */
+        private boolean terminal = false;
+
+        /**
+         * The child for all grant parts containing the wildcard token, or <code>null</code> if there are none.
+         */
+        private Node wildcard;
+
+        /**
+         * Child nodes keyed by each subpart token of their grant part.
+         */
+        private Map<String, List<Node>> children;
+
+        /**
+         * Build-time only lookup of child nodes by their exact grant part, discarded by {@link #compact()}.
+         */
+        private transient Map<Set<String>, Node> childrenByPart;
+
+        private Node(Set<String> part) {
+            this.part = part;
+        }
+
+        private Node child(Set<String> part) {
+            if (part.contains(WildcardPermission.WILDCARD_TOKEN)) {
+                if (wildcard == null) {
+                    wildcard = new Node(null);
+                }
+                return wildcard;
+            }
+            if (childrenByPart == null) {
+                childrenByPart = new HashMap<Set<String>, Node>();
+                children = new HashMap<String, List<Node>>();
+            }
+            Node child = childrenByPart.get(part);
+            if (child == null) {
+                child = new Node(part);
+                childrenByPart.put(part, child);
+                for (String token : part) {
+                    List<Node> nodes = children.get(token);
+                    if (nodes == null) {
+                        nodes = new ArrayList<Node>(1);
+                        children.put(token, nodes);
+                    }
+                    nodes.add(child);
+                }
+            }
+            return child;
+        }
+
+        private boolean containsAll(String[] subparts) {
+            //the first subpart was already matched by the children lookup:
+            for (int i = 1; i < subparts.length; i++) {
+                if (!part.contains(subparts[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void compact() {
+            childrenByPart = null;
+            if (wildcard != null) {
+                wildcard.compact();
+            }
+            if (children != null) {
+                for (List<Node> nodes : children.values()) {
+                    for (Node node : nodes) {
+                        node.compact();
+                    }
+                }
+            }
+        }
+
+        private boolean implies(WildcardPermission permission, int index) {
+            //a grant with fewer (or exactly as many) parts that matched so far implies the permission:
+            if (terminal) {
+                return true;
+            }
+            if (index == permission.getPartCount()) {
+                //remaining grant parts must all be wildcards:
+                return wildcard != null && wildcard.implies(permission, index);
+            }
+            if (wildcard != null && wildcard.implies(permission, index + 1)) {
+                return true;
+            }
+            if (children == null) {
+                return false;
+            }
+            String[] otherPart = permission.getSubparts(index);
+            List<Node> candidates = children.get(otherPart[0]);
+            if (candidates != null) {
+                for (int i = 0; i < candidates.size(); i++) {
+                    Node candidate = candidates.get(i);
+                    if (candidate.containsAll(otherPart) && candidate.implies(permission, index + 1)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authz.permission;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The instances of a <code>domain:action</code> pair a Subject is permitted to act on:  either all of them, an
+ * explicit set of instance tokens, or none at all.
+ * <p/>
+ * This allows data access code to restrict a query up front instead of loading every row and filtering afterwards,
+ * for example:
+ * <pre>
+ * PermittedInstances permitted = realm.getPermittedInstances(principals, "document", "read");
+ * if (permitted == null || permitted.isAll()) {
+ *     //no restriction can be applied in the query (filter afterwards if null)
+ * } else if (permitted.isNone()) {
+ *     //nothing to load
+ * } else {
+ *     //... WHERE id IN (permitted.getInstances())
+ * }</pre>
+ * <p/>
+ * Instance tokens are reported the way {@link WildcardPermission WildcardPermission} stores them, that is in lower
+ * case unless the permissions were created case sensitive.
+ *
+ * @see InstancePermissionMatcher#getPermittedInstances()
+ * @since 1.0
+ */
+public final class PermittedInstances implements Serializable {
+
+    /**
+     * All instances are permitted.
+     */
+    public static final PermittedInstances ALL = new PermittedInstances(true, Collections.<String>emptySet());
+
+    /**
+     * No instance is permitted.
+     */
+    public static final PermittedInstances NONE = new PermittedInstances(false, Collections.<String>emptySet());
+
+    private final boolean all;
+    private final Set<String> instances;
+
+    private PermittedInstances(boolean all, Set<String> instances) {
+        this.all = all;
+        this.instances = instances;
+    }
+
+    /**
+     * Returns an instance permitting exactly the specified instance tokens, or {@link #NONE} if there are none.
+     *
+     * @param instances the permitted instance tokens.
+     * @return an instance permitting exactly the specified instance tokens.
+     */
+    public static PermittedInstances of(Set<String> instances) {
+        if (instances == null || instances.isEmpty()) {
+            return NONE;
+        }
+        return new PermittedInstances(false, Collections.unmodifiableSet(new LinkedHashSet<String>(instances)));
+    }
+
+    /**
+     * Returns <code>true</code> if all instances are permitted.
+     *
+     * @return <code>true</code> if all instances are permitted.
+     */
+    public boolean isAll() {
+        return all;
+    }
+
+    /**
+     * Returns <code>true</code> if no instance is permitted.
+     *
+     * @return <code>true</code> if no instance is permitted.
+     */
+    public boolean isNone() {
+        return !all && instances.isEmpty();
+    }
+
+    /**
+     * Returns the explicitly permitted instance tokens.  The set is empty if {@link #isAll() all} or
+     * {@link #isNone() no} instances are permitted.
+     *
+     * @return the explicitly permitted instance tokens, never <code>null</code>.
+     */
+    public Set<String> getInstances() {
+        return instances;
+    }
+
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof PermittedInstances)) {
+            return false;
+        }
+        PermittedInstances other = (PermittedInstances) o;
+        return all == other.all && instances.equals(other.instances);
+    }
+
+    public int hashCode() {
+        return all ? 1 : instances.hashCode();
+    }
+
+    public String toString() {
+        if (all) {
+            return "ALL";
+        }
+        return isNone() ? "NONE" : instances.toString();
+    }
+}
@@ -19,10 +19,15 @@
 package org.apache.ki.authz.permission;
 
 import org.apache.ki.authz.Permission;
-import org.apache.ki.util.CollectionUtils;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -117,10 +122,60 @@ public class WildcardPermission implements Permission, Serializable {
     protected static final String SUBPART_DIVIDER_TOKEN = ",";
     protected static final boolean DEFAULT_CASE_SENSITIVE = false;
 
+    /**
+     * The serial version of the original <code>List&lt;Set&lt;String&gt;&gt;</code> based implementation, retained
+     * together with its serialized form so that previously serialized permissions can still be read.
+     */
+    private static final long serialVersionUID = -1004545532256410280L;
+
+    /**
+     * The serialized form:  the parts as a <code>List&lt;Set&lt;String&gt;&gt;</code>, as returned by
+     * {@link #getParts()}.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("parts", List.class)
+    };
+
+    /**
+     * Parts with more subparts than this also retain a sorted copy of their subparts for binary searching.
+     */
+    private static final int MAX_LINEAR_SCAN_SUBPARTS = 8;
+
+    /**
+     * The number of parts whose wildcard status is recorded in the {@link #wildcardMask}.
+     */
+    private static final int WILDCARD_MASK_BITS = 64;
+
     /*--------------------------------------------
     |    I N S T A N C E   V A R I A B L E S    |
     ============================================*/
-    private List<Set<String>> parts;
+    /**
+     * The subparts of each part, de-duplicated, in declaration order and interned so they can be compared by
+     * identity in the common case.
+     */
+    private String[][] parts;
+
+    /**
+     * A sorted copy of each part containing more than {@link #MAX_LINEAR_SCAN_SUBPARTS} subparts; <code>null</code>
+     * (or a <code>null</code> element) for all other parts.
+     */
+    private String[][] sortedParts;
+
+    /**
+     * Bit <code>i</code> is set if part <code>i</code> contains the {@link #WILDCARD_TOKEN wildcard token}.
+     */
+    private long wildcardMask;
+
+    /**
+     * Precomputed hash code - equal to the hash code of the equivalent <code>List&lt;Set&lt;String&gt;&gt;</code>
+     * returned by {@link #getParts()}.
+     */
+    private int hashCode;
+
+    /**
+     * Lazily created read-only view returned by {@link #getParts()}.
+     */
+    private transient volatile List<Set<String>> partsView;
 
     /*--------------------------------------------
     |         C O N S T R U C T O R S           |
@@ -156,38 +211,178 @@ public class WildcardPermission implements Permission, Serializable {
 
         wildcardString = wildcardString.trim();
 
-        List<String> parts = CollectionUtils.asList(wildcardString.split(PART_DIVIDER_TOKEN));
+        String[] partStrings = wildcardString.split(PART_DIVIDER_TOKEN);
 
-        this.parts = new ArrayList<Set<String>>();
-        for (String part : parts) {
-            Set<String> subparts = CollectionUtils.asSet(part.split(SUBPART_DIVIDER_TOKEN));
-            if (!caseSensitive) {
-                subparts = lowercase(subparts);
-            }
-            if (subparts.isEmpty()) {
+        String[][] parts = new String[partStrings.length][];
+        for (int i = 0; i < partStrings.length; i++) {
+            String[] subparts = toSubparts(partStrings[i], caseSensitive);
+            if (subparts.length == 0) {
                 throw new IllegalArgumentException("Wildcard string cannot contain parts with only dividers. Make sure permission strings are properly formatted.");
             }
-            this.parts.add(subparts);
+            parts[i] = subparts;
         }
 
-        if (this.parts.isEmpty()) {
+        if (parts.length == 0) {
             throw new IllegalArgumentException("Wildcard string cannot contain only dividers. Make sure permission strings are properly formatted.");
         }
+
+        initParts(parts);
     }
 
-    private Set<String> lowercase(Set<String> subparts) {
-        Set<String> lowerCasedSubparts = new LinkedHashSet<String>(subparts.size());
-        for (String subpart : subparts) {
-            lowerCasedSubparts.add(subpart.toLowerCase());
+    /**
+     * Sets the parts from their de-duplicated, interned subparts and computes the derived lookup state.
+     *
+     * @param parts the subparts of each part.
+     */
+    private void initParts(String[][] parts) {
+        String[][] sortedParts = null;
+        long wildcardMask = 0;
+        int hashCode = 1;
+
+        for (int i = 0; i < parts.length; i++) {
+            String[] subparts = parts[i];
+            int partHashCode = 0;
+            for (String subpart : subparts) {
+                if (subpart == WILDCARD_TOKEN && i < WILDCARD_MASK_BITS) {
+                    wildcardMask |= 1L << i;
+                }
+                partHashCode += subpart.hashCode();
+            }
+            hashCode = 31 * hashCode + partHashCode;
+
+            if (subparts.length > MAX_LINEAR_SCAN_SUBPARTS) {
+                if (sortedParts == null) {
+                    sortedParts = new String[parts.length][];
+                }
+                String[] sorted = subparts.clone();
+                Arrays.sort(sorted);
+                sortedParts[i] = sorted;
+            }
+        }
+
+        this.parts = parts;
+        this.sortedParts = sortedParts;
+        this.wildcardMask = wildcardMask;
+        this.hashCode = hashCode;
+        this.partsView = null;
+    }
+
+    /**
+     * Splits the specified part string into its de-duplicated, interned subparts, preserving their order.
+     *
+     * @param part          the part string to split.
+     * @param caseSensitive whether or not to retain the subparts' case.
+     * @return the part's subparts.
+     */
+    private static String[] toSubparts(String part, boolean caseSensitive) {
+        String[] tokens = part.split(SUBPART_DIVIDER_TOKEN);
+        int count = 0;
+        for (String token : tokens) {
+            String subpart = (caseSensitive ? token : token.toLowerCase()).intern();
+            if (indexOf(tokens, count, subpart) < 0) {
+                tokens[count++] = subpart;
+            }
+        }
+        if (count == tokens.length) {
+            return tokens;
+        }
+        String[] subparts = new String[count];
+        System.arraycopy(tokens, 0, subparts, 0, count);
+        return subparts;
+    }
+
+    private static int indexOf(String[] subparts, int length, String subpart) {
+        for (int i = 0; i < length; i++) {
+            //interned subparts are usually identical - only compare contents when they are not:
+            String candidate = subparts[i];
+            if (candidate == subpart || candidate.equals(subpart)) {
+                return i;
+            }
         }
-        return lowerCasedSubparts;
+        return -1;
     }
 
     /*--------------------------------------------
     |  A C C E S S O R S / M O D I F I E R S    |
     ============================================*/
+    /**
+     * Returns this permission's parts, each part being the set of its subparts.  The returned list is a read-only
+     * view of the permission's compact internal representation, created once per permission.  Permissions are
+     * immutable once constructed; subclasses change their parts via {@link #setParts(String, boolean) setParts}.
+     *
+     * @return this permission's parts, each part being the set of its subparts.
+     */
     protected List<Set<String>> getParts() {
-        return this.parts;
+        List<Set<String>> view = this.partsView;
+        if (view == null) {
+            String[][] parts = this.parts;
+            if (parts == null) {
+                return null;
+            }
+            List<Set<String>> list = new ArrayList<Set<String>>(parts.length);
+            for (String[] part : parts) {
+                list.add(Collections.unmodifiableSet(new LinkedHashSet<String>(Arrays.asList(part))));
+            }
+            view = Collections.unmodifiableList(list);
+            this.partsView = view;
+        }
+        return view;
+    }
+
+    /**
+     * Returns the number of parts of this permission.
+     *
+     * @return the number of parts of this permission.
+     */
+    int getPartCount() {
+        return parts.length;
+    }
+
+    /**
+     * Returns the subparts of the part at the specified index.  The array is shared and must not be modified.
+     *
+     * @param index the index of the part to return.
+     * @return the subparts of the part at the specified index.
+     */
+    String[] getSubparts(int index) {
+        return parts[index];
+    }
+
+    /**
+     * Returns <code>true</code> if the part at the specified index contains the
+     * {@link #WILDCARD_TOKEN wildcard token}, <code>false</code> otherwise.
+     *
+     * @param index the index of the part to inspect.
+     * @return <code>true</code> if the part at the specified index contains the wildcard token.
+     */
+    boolean isWildcardPart(int index) {
+        if (index < WILDCARD_MASK_BITS) {
+            return (wildcardMask & (1L << index)) != 0;
+        }
+        return indexOf(parts[index], parts[index].length, WILDCARD_TOKEN) >= 0;
+    }
+
+    /**
+     * Returns <code>true</code> if the part at the specified index contains all of the specified subparts,
+     * <code>false</code> otherwise.
+     *
+     * @param index    the index of the part to inspect.
+     * @param subparts the subparts which must all be contained in the part.
+     * @return <code>true</code> if the part at the specified index contains all of the specified subparts.
+     */
+    boolean containsAll(int index, String[] subparts) {
+        String[] part = parts[index];
+        String[] sorted = sortedParts != null ? sortedParts[index] : null;
+        for (String subpart : subparts) {
+            if (sorted != null) {
+                if (Arrays.binarySearch(sorted, subpart) < 0) {
+                    return false;
+                }
+            } else if (indexOf(part, part.length, subpart) < 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /*--------------------------------------------
@@ -202,27 +397,24 @@ public class WildcardPermission implements Permission, Serializable {
 
         WildcardPermission wp = (WildcardPermission) p;
 
-        List<Set<String>> otherParts = wp.getParts();
+        int partCount = parts.length;
+        int otherPartCount = wp.parts.length;
 
         int i = 0;
-        for (Set<String> otherPart : otherParts) {
+        for (; i < otherPartCount; i++) {
             // If this permission has less parts than the other permission, everything after the number of parts contained
             // in this permission is automatically implied, so return true
-            if (getParts().size() - 1 < i) {
+            if (i >= partCount) {
                 return true;
-            } else {
-                Set<String> part = getParts().get(i);
-                if (!part.contains(WILDCARD_TOKEN) && !part.containsAll(otherPart)) {
-                    return false;
-                }
-                i++;
+            }
+            if (!isWildcardPart(i) && !containsAll(i, wp.parts[i])) {
+                return false;
             }
         }
 
         // If this permission has more parts than the other parts, only imply it if all of the other parts are wildcards
-        for (; i < getParts().size(); i++) {
-            Set<String> part = getParts().get(i);
-            if (!part.contains(WILDCARD_TOKEN)) {
+        for (; i < partCount; i++) {
+            if (!isWildcardPart(i)) {
                 return false;
             }
         }
@@ -232,25 +424,69 @@ public class WildcardPermission implements Permission, Serializable {
 
     public String toString() {
         StringBuilder buffer = new StringBuilder();
-        for (Set<String> part : parts) {
+        for (String[] part : parts) {
             if (buffer.length() > 0) {
                 buffer.append(":");
             }
-            buffer.append(part);
+            buffer.append(Arrays.toString(part));
         }
         return buffer.toString();
     }
 
     public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
         if (o instanceof WildcardPermission) {
             WildcardPermission wp = (WildcardPermission) o;
-            return parts.equals(wp.parts);
+            if (hashCode != wp.hashCode || parts.length != wp.parts.length) {
+                return false;
+            }
+            for (int i = 0; i < parts.length; i++) {
+                //subparts are unique, so equal sizes plus containment means the parts are equal sets:
+                if (parts[i].length != wp.parts[i].length || !containsAll(i, wp.parts[i])) {
+                    return false;
+                }
+            }
+            return true;
         }
         return false;
     }
 
     public int hashCode() {
-        return parts.hashCode();
+        return hashCode;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        List<Set<String>> parts = null;
+        if (this.parts != null) {
+            parts = new ArrayList<Set<String>>(this.parts.length);
+            for (String[] part : this.parts) {
+                parts.add(new LinkedHashSet<String>(Arrays.asList(part)));
+            }
+        }
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("parts", parts);
+        out.writeFields();
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        List<Set<String>> parts = (List<Set<String>>) fields.get("parts", null);
+        if (parts != null) {
+            String[][] subparts = new String[parts.size()][];
+            for (int i = 0; i < subparts.length; i++) {
+                Set<String> part = parts.get(i);
+                String[] interned = new String[part.size()];
+                int j = 0;
+                for (String subpart : part) {
+                    interned[j++] = subpart.intern();
+                }
+                subparts[i] = interned;
+            }
+            initParts(subparts);
+        }
     }
 
 }
@@ -18,6 +18,12 @@
  */
 package org.apache.ki.authz.permission;
 
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.ki.authz.Permission;
 
 
@@ -25,20 +31,197 @@ import org.apache.ki.authz.Permission;
  * <tt>PermissionResolver</tt> implementation that returns a new {@link WildcardPermission WildcardPermission}
  * based on the input string.
  *
+ * <p>Because most applications check the same, relatively small set of permission strings over and over, this
+ * resolver can optionally retain the permissions it creates in a bounded, thread-safe cache so they don't need to
+ * be parsed again for every check.  Caching is disabled by default; enable it by setting a positive
+ * {@link #setCacheSize(int) cacheSize}.  When the cache is full, entries that have not been used since the previous
+ * eviction are evicted to make room for new ones, so that frequently checked permissions stay cached.
+ *
  * @author Jeremy Haile
  * @since 0.9
  */
 public class WildcardPermissionResolver implements PermissionResolver {
 
     /**
-     * Returns a new {@link WildcardPermission WildcardPermission} instance constructed based on the specified
-     * <tt>permissionString</tt>.
+     * Cache of previously resolved permissions, or <code>null</code> if caching is disabled.
+     */
+    private volatile ConcurrentMap<String, CacheEntry> cache = null;
+
+    /**
+     * The maximum number of entries retained in the cache.
+     */
+    private volatile int cacheSize = 0;
+
+    private final AtomicLong cacheHitCount = new AtomicLong();
+    private final AtomicLong cacheMissCount = new AtomicLong();
+
+    /**
+     * Set while a thread is evicting entries, so that concurrent callers don't all evict at once.
+     */
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * Default no-argument constructor.  Resolved permissions will not be cached.
+     */
+    public WildcardPermissionResolver() {
+    }
+
+    /**
+     * Creates a new instance that caches up to <code>cacheSize</code> resolved permissions.
+     *
+     * @param cacheSize the maximum number of resolved permissions to cache, or <code>0</code> to disable caching.
+     * @since 1.0
+     */
+    public WildcardPermissionResolver(int cacheSize) {
+        setCacheSize(cacheSize);
+    }
+
+    /**
+     * Returns the maximum number of resolved permissions retained by this resolver, or <code>0</code> (the default)
+     * if caching is disabled.
+     *
+     * @return the maximum number of resolved permissions retained by this resolver, or <code>0</code> if caching
+     *         is disabled.
+     * @since 1.0
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Sets the maximum number of resolved permissions retained by this resolver.  A value of <code>0</code> or less
+     * disables caching.  Calling this method discards any already cached permissions.
+     *
+     * @param cacheSize the maximum number of resolved permissions to cache, or <code>0</code> to disable caching.
+     * @since 1.0
+     */
+    public void setCacheSize(int cacheSize) {
+        if (cacheSize > 0) {
+            this.cacheSize = cacheSize;
+            this.cache = new ConcurrentHashMap<String, CacheEntry>(Math.min(cacheSize, 1024));
+        } else {
+            this.cacheSize = 0;
+            this.cache = null;
+        }
+    }
+
+    /**
+     * Returns the number of permission lookups that were served from the cache.
+     *
+     * @return the number of permission lookups that were served from the cache.
+     * @since 1.0
+     */
+    public long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+
+    /**
+     * Returns the number of permission lookups that were not found in the cache and had to be parsed.  Always
+     * <code>0</code> when caching is disabled.
+     *
+     * @return the number of permission lookups that were not found in the cache and had to be parsed.
+     * @since 1.0
+     */
+    public long getCacheMissCount() {
+        return cacheMissCount.get();
+    }
+
+    /**
+     * Removes all cached permissions and resets the hit and miss counters.
+     *
+     * @since 1.0
+     */
+    public void clearCache() {
+        ConcurrentMap<String, CacheEntry> cache = this.cache;
+        if (cache != null) {
+            cache.clear();
+        }
+        cacheHitCount.set(0);
+        cacheMissCount.set(0);
+    }
+
+    /**
+     * Returns a {@link WildcardPermission WildcardPermission} instance constructed based on the specified
+     * <tt>permissionString</tt>.  If {@link #setCacheSize(int) caching} is enabled, a previously constructed instance
+     * for the same string may be returned.
      *
      * @param permissionString the permission string to convert to a {@link Permission Permission} instance.
-     * @return a new {@link WildcardPermission WildcardPermission} instance constructed based on the specified
+     * @return a {@link WildcardPermission WildcardPermission} instance constructed based on the specified
      *         <tt>permissionString</tt>
      */
     public Permission resolvePermission(String permissionString) {
+        ConcurrentMap<String, CacheEntry> cache = this.cache;
+        if (cache == null || permissionString == null) {
+            return createPermission(permissionString);
+        }
+
+        CacheEntry entry = cache.get(permissionString);
+        if (entry != null) {
+            cacheHitCount.incrementAndGet();
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            return entry.permission;
+        }
+
+        cacheMissCount.incrementAndGet();
+        Permission permission = createPermission(permissionString);
+        if (cache.size() >= cacheSize && evicting.compareAndSet(false, true)) {
+            try {
+                evict(cache);
+            } finally {
+                evicting.set(false);
+            }
+        }
+        CacheEntry existing = cache.putIfAbsent(permissionString, new CacheEntry(permission));
+        return existing != null ? existing.permission : permission;
+    }
+
+    /**
+     * Creates the actual Permission instance for the specified string.  The default implementation returns a
+     * <code>new WildcardPermission(permissionString)</code>.
+     *
+     * @param permissionString the permission string to convert to a {@link Permission Permission} instance.
+     * @return a new Permission instance for the specified string.
+     * @since 1.0
+     */
+    protected Permission createPermission(String permissionString) {
         return new WildcardPermission(permissionString);
     }
+
+    /**
+     * Makes room for new entries, using the second chance (clock) approximation of LRU instead of the bookkeeping of
+     * a strict LRU policy:  entries used since the previous eviction only lose their reference bit and are kept,
+     * the first unused ones in iteration order are removed.  Only called by one thread at a time; others meanwhile
+     * add their entries without evicting, so the cache may briefly exceed its size by a few entries.
+     */
+    private void evict(ConcurrentMap<String, CacheEntry> cache) {
+        int toRemove = Math.max(1, cacheSize / 16);
+        //a second pass finds the entries whose reference bit was cleared by the first one:
+        for (int pass = 0; pass < 2 && toRemove > 0; pass++) {
+            Iterator<CacheEntry> i = cache.values().iterator();
+            while (toRemove > 0 && i.hasNext()) {
+                CacheEntry entry = i.next();
+                if (entry.referenced) {
+                    entry.referenced = false;
+                } else {
+                    i.remove();
+                    toRemove--;
+                }
+            }
+        }
+    }
+
+    /**
+     * A cached permission together with its reference bit, set whenever the permission is returned from the cache.
+     */
+    private static class CacheEntry {
+
+        private final Permission permission;
+        private volatile boolean referenced = false;
+
+        private CacheEntry(Permission permission) {
+            this.permission = permission;
+        }
+    }
 }
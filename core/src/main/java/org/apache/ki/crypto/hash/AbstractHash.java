@@ -19,7 +19,6 @@
 package org.apache.ki.crypto.hash;
 
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
 import org.apache.ki.codec.Base64;
@@ -154,16 +153,15 @@ public abstract class AbstractHash extends CodecSupport implements Hash {
     /**
      * Returns the JDK MessageDigest instance to use for executing the hash.
      *
+     * <p>This implementation returns the current thread's reusable instance from
+     * {@link DigestUtils#getDigest(String) DigestUtils.getDigest}, so that the security providers don't have to be
+     * consulted for every hash.  The instance must therefore not be retained after the hash has been computed.
+     *
      * @param algorithmName the algorithm to use for the hash, provided by subclasses.
      * @return the MessageDigest object for the specfied <tt>algorithm</tt>.
      */
     protected MessageDigest getDigest(String algorithmName) {
-        try {
-            return MessageDigest.getInstance(algorithmName);
-        } catch (NoSuchAlgorithmException e) {
-            String msg = "No native '" + algorithmName + "' MessageDigest instance available on the current JVM.";
-            throw new IllegalStateException(msg, e);
-        }
+        return DigestUtils.getDigest(algorithmName);
     }
 
     /**
@@ -196,19 +194,7 @@ public abstract class AbstractHash extends CodecSupport implements Hash {
      * @return the hashed bytes.
      */
     protected byte[] hash(byte[] bytes, byte[] salt, int hashIterations) {
-        MessageDigest md = getDigest(getAlgorithmName());
-        if (salt != null) {
-            md.reset();
-            md.update(salt);
-        }
-        byte[] hashed = md.digest(bytes);
-        int iterations = hashIterations - 1; //already hashed once above
-        //iterate remaining number:
-        for (int i = 0; i < iterations; i++) {
-            md.reset();
-            hashed = md.digest(hashed);
-        }
-        return hashed;
+        return DigestUtils.hash(getDigest(getAlgorithmName()), bytes, salt, hashIterations);
     }
 
     /**
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.crypto.hash;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Static utility methods for hashing with reusable {@link MessageDigest MessageDigest} instances.
+ * <p/>
+ * Looking up a <code>MessageDigest</code> via <code>MessageDigest.getInstance</code> consults the installed security
+ * providers each time and is comparatively expensive.  This class instead keeps one instance per algorithm for each
+ * thread and {@link MessageDigest#reset() resets} it before handing it out again.
+ * <p/>
+ * The {@link #hash(String, byte[], byte[], int, byte[], int) hash} methods accepting an output buffer perform all
+ * iterations in place within that buffer, so hashing does not allocate a new array per iteration.
+ *
+ * @since 1.0
+ */
+public class DigestUtils {
+
+    /**
+     * The digests of the current thread, keyed by algorithm name.
+     */
+    private static final ThreadLocal<Map<String, MessageDigest>> digests =
+            new ThreadLocal<Map<String, MessageDigest>>() {
+                protected Map<String, MessageDigest> initialValue() {
+                    return new HashMap<String, MessageDigest>(4);
+                }
+            };
+
+    /**
+     * Returns the current thread's reset <code>MessageDigest</code> for the specified algorithm, creating it on first
+     * use.
+     * <p/>
+     * The instance is shared by all hashing performed by the current thread via this class, so it may only be used
+     * until the next call to a method of this class and must never be retained or handed to another thread.
+     *
+     * @param algorithmName the name of the digest algorithm, for example <code>SHA-256</code>.
+     * @return the current thread's reset <code>MessageDigest</code> for the specified algorithm.
+     * @throws IllegalStateException if the algorithm is not available on the current JVM.
+     */
+    public static MessageDigest getDigest(String algorithmName) throws IllegalStateException {
+        Map<String, MessageDigest> threadDigests = digests.get();
+        MessageDigest md = threadDigests.get(algorithmName);
+        if (md == null) {
+            md = newDigest(algorithmName);
+            threadDigests.put(algorithmName, md);
+        } else {
+            md.reset();
+        }
+        return md;
+    }
+
+    private static MessageDigest newDigest(String algorithmName) throws IllegalStateException {
+        try {
+            return MessageDigest.getInstance(algorithmName);
+        } catch (NoSuchAlgorithmException e) {
+            String msg = "No native '" + algorithmName + "' MessageDigest instance available on the current JVM.";
+            throw new IllegalStateException(msg, e);
+        }
+    }
+
+    /**
+     * Returns the length in bytes of the digests computed by the specified algorithm.
+     *
+     * @param algorithmName the name of the digest algorithm, for example <code>SHA-256</code>.
+     * @return the length in bytes of the digests computed by the specified algorithm.
+     * @throws IllegalStateException if the algorithm is not available on the current JVM or its provider does not
+     *                               report the digest length.
+     */
+    public static int getDigestLength(String algorithmName) throws IllegalStateException {
+        int length = getDigest(algorithmName).getDigestLength();
+        if (length <= 0) {
+            throw new IllegalStateException("The '" + algorithmName + "' MessageDigest does not report its length.");
+        }
+        return length;
+    }
+
+    /**
+     * Hashes the specified bytes with the current thread's digest for the specified algorithm and writes the result
+     * into the caller-supplied buffer.
+     *
+     * @param algorithmName  the name of the digest algorithm, for example <code>SHA-256</code>.
+     * @param source         the bytes to hash.
+     * @param salt           the salt to use for the initial hash, may be <code>null</code>.
+     * @param hashIterations the number of times the <code>source</code> will be hashed.
+     * @param output         the buffer receiving the hash.
+     * @param offset         the position in <code>output</code> at which the hash is written.
+     * @return the number of bytes written, that is the digest length.
+     * @throws IllegalArgumentException if <code>output</code> cannot hold the hash at the specified offset.
+     * @throws IllegalStateException    if the algorithm is not available on the current JVM.
+     * @see #hash(MessageDigest, byte[], byte[], int, byte[], int)
+     */
+    public static int hash(String algorithmName, byte[] source, byte[] salt, int hashIterations,
+                           byte[] output, int offset) throws IllegalArgumentException, IllegalStateException {
+        return hash(getDigest(algorithmName), source, salt, hashIterations, output, offset);
+    }
+
+    /**
+     * Hashes the specified bytes with the given digest and writes the result into the caller-supplied buffer.  The
+     * first iteration hashes the <code>salt</code> (if any) followed by the <code>source</code>, and each further
+     * iteration hashes the result of the previous one, in place.
+     *
+     * @param md             the digest to use, which is reset first.
+     * @param source         the bytes to hash.
+     * @param salt           the salt to use for the initial hash, may be <code>null</code>.
+     * @param hashIterations the number of times the <code>source</code> will be hashed.
+     * @param output         the buffer receiving the hash.
+     * @param offset         the position in <code>output</code> at which the hash is written.
+     * @return the number of bytes written, that is the digest length.
+     * @throws IllegalArgumentException if <code>output</code> cannot hold the hash at the specified offset.
+     */
+    public static int hash(MessageDigest md, byte[] source, byte[] salt, int hashIterations,
+                           byte[] output, int offset) throws IllegalArgumentException {
+        int length = md.getDigestLength();
+        if (length <= 0) {
+            //the provider doesn't report its length - compute the hash the conventional way and copy it:
+            byte[] hashed = hash(md, source, salt, hashIterations);
+            checkOutput(output, offset, hashed.length);
+            System.arraycopy(hashed, 0, output, offset, hashed.length);
+            return hashed.length;
+        }
+        checkOutput(output, offset, length);
+        md.reset();
+        if (salt != null) {
+            md.update(salt);
+        }
+        md.update(source);
+        try {
+            md.digest(output, offset, length);
+            //iterate remaining number:
+            for (int i = 1; i < hashIterations; i++) {
+                md.update(output, offset, length);
+                md.digest(output, offset, length);
+            }
+        } catch (DigestException e) {
+            throw new IllegalStateException("Unable to write the '" + md.getAlgorithm() + "' digest.", e);
+        }
+        return length;
+    }
+
+    /**
+     * Hashes the specified bytes with the given digest and returns the result in a new array.  Apart from that
+     * single array, no memory is allocated per iteration.
+     *
+     * @param md             the digest to use, which is reset first.
+     * @param source         the bytes to hash.
+     * @param salt           the salt to use for the initial hash, may be <code>null</code>.
+     * @param hashIterations the number of times the <code>source</code> will be hashed.
+     * @return the hashed bytes.
+     */
+    public static byte[] hash(MessageDigest md, byte[] source, byte[] salt, int hashIterations) {
+        int length = md.getDigestLength();
+        if (length > 0) {
+            byte[] hashed = new byte[length];
+            hash(md, source, salt, hashIterations, hashed, 0);
+            return hashed;
+        }
+        md.reset();
+        if (salt != null) {
+            md.update(salt);
+        }
+        byte[] hashed = md.digest(source);
+        for (int i = 1; i < hashIterations; i++) {
+            hashed = md.digest(hashed);
+        }
+        return hashed;
+    }
+
+    private static void checkOutput(byte[] output, int offset, int length) throws IllegalArgumentException {
+        if (output == null || offset < 0 || output.length - offset < length) {
+            throw new IllegalArgumentException("output buffer must provide at least " + length +
+                    " bytes starting at the specified offset.");
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package org.apache.ki.mgt;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 
@@ -27,6 +28,7 @@ import org.apache.ki.authz.ModularRealmAuthorizer;
 import org.apache.ki.authz.Permission;
 import org.apache.ki.authz.permission.PermissionResolver;
 import org.apache.ki.authz.permission.PermissionResolverAware;
+import org.apache.ki.cache.CacheManagerAware;
 import org.apache.ki.subject.PrincipalCollection;
 import org.apache.ki.util.LifecycleUtils;
 
@@ -61,6 +63,7 @@ public abstract class AuthorizingSecurityManager extends AuthenticatingSecurityM
     public AuthorizingSecurityManager() {
         super();
         this.authorizer = new ModularRealmAuthorizer();
+        applyCacheManagerToAuthorizer();
     }
 
     /**
@@ -86,6 +89,7 @@ public abstract class AuthorizingSecurityManager extends AuthenticatingSecurityM
             throw new IllegalArgumentException(msg);
         }
         this.authorizer = authorizer;
+        applyCacheManagerToAuthorizer();
     }
 
     /**
@@ -114,6 +118,31 @@ public abstract class AuthorizingSecurityManager extends AuthenticatingSecurityM
         }
     }
 
+    /**
+     * Calls {@link org.apache.ki.mgt.RealmSecurityManager#afterCacheManagerSet() super.afterCacheManagerSet()} and
+     * then immediately calls {@link #applyCacheManagerToAuthorizer() applyCacheManagerToAuthorizer()} to ensure the
+     * <code>CacheManager</code> is applied to the Authorizer as necessary.
+     */
+    protected void afterCacheManagerSet() {
+        super.afterCacheManagerSet();
+        applyCacheManagerToAuthorizer();
+    }
+
+    /**
+     * Ensures the internal delegate <code>Authorizer</code> is injected with the current
+     * {@link #setCacheManager CacheManager} so it may use it for its internal caching needs.
+     * <p/>
+     * Note:  This implementation only injects the CacheManager into the Authorizer if the Authorizer
+     * instance implements the {@link CacheManagerAware CacheManagerAware} interface.
+     *
+     * @since 1.0
+     */
+    protected void applyCacheManagerToAuthorizer() {
+        if (this.authorizer instanceof CacheManagerAware) {
+            ((CacheManagerAware) this.authorizer).setCacheManager(getCacheManager());
+        }
+    }
+
     /**
      * First calls <code>super.afterRealmsSet()</code> and then sets these same <code>Realm</code> objects on this
      * instance's wrapped {@link Authorizer Authorizer}.
@@ -154,6 +183,15 @@ public abstract class AuthorizingSecurityManager extends AuthenticatingSecurityM
         return this.authorizer.isPermitted(principals, permissions);
     }
 
+    public BitSet getPermittedMask(PrincipalCollection principals, String domain, String action, List<?> instanceIds) {
+        return this.authorizer.getPermittedMask(principals, domain, action, instanceIds);
+    }
+
+    public <T> List<T> filterPermitted(PrincipalCollection principals, String domain, String action,
+                                       Collection<T> instanceIds) {
+        return this.authorizer.filterPermitted(principals, domain, action, instanceIds);
+    }
+
     public boolean isPermittedAll(PrincipalCollection principals, String... permissions) {
         return this.authorizer.isPermittedAll(principals, permissions);
     }
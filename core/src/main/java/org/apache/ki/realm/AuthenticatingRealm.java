@@ -18,6 +18,8 @@
  */
 package org.apache.ki.realm;
 
+import java.util.Collection;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,10 +30,14 @@ import org.apache.ki.authc.IncorrectCredentialsException;
 import org.apache.ki.authc.LogoutAware;
 import org.apache.ki.authc.UsernamePasswordToken;
 import org.apache.ki.authc.credential.AllowAllCredentialsMatcher;
+import org.apache.ki.authc.credential.CachingCredentialsMatcher;
 import org.apache.ki.authc.credential.CredentialsMatcher;
 import org.apache.ki.authc.credential.SimpleCredentialsMatcher;
+import org.apache.ki.cache.Cache;
 import org.apache.ki.cache.CacheManager;
 import org.apache.ki.subject.PrincipalCollection;
+import org.apache.ki.util.Destroyable;
+import org.apache.ki.util.LifecycleUtils;
 
 
 /**
@@ -51,16 +57,30 @@ import org.apache.ki.subject.PrincipalCollection;
  * to subclasses, a top-level abstract class for most common authentication behavior is more useful as an extension
  * point for most applications.
  *
+ * <p>If {@link #setAuthenticationCachingEnabled(boolean) authentication caching} is enabled, the
+ * <code>AuthenticationInfo</code> returned by {@link #doGetAuthenticationInfo(AuthenticationToken)
+ * doGetAuthenticationInfo} is cached (keyed by the token's principal) in a cache obtained from the
+ * {@link #getCacheManager() cacheManager}, so that repeated log-ins for the same account, such as HTTP Basic
+ * authentication on every request, don't each require a lookup in the underlying data store.  The submitted
+ * credentials are still verified by the {@link #getCredentialsMatcher() credentialsMatcher} on every log-in.
+ *
  * @author Les Hazlewood
  * @author Jeremy Haile
  * @since 0.2
  */
-public abstract class AuthenticatingRealm extends CachingRealm implements LogoutAware {
+public abstract class AuthenticatingRealm extends CachingRealm implements LogoutAware, Destroyable {
 
     //TODO - complete JavaDoc
 
     private static final Logger log = LoggerFactory.getLogger(AuthenticatingRealm.class);
 
+    /**
+     * The default postfix appended to the authentication cache name.
+     */
+    private static final String DEFAULT_AUTHENTICATION_CACHE_POSTFIX = "-authentication";
+
+    private static int INSTANCE_COUNT = 0;
+
     /**
      * Password matcher used to determine if the provided password matches
      * the password stored in the data store.
@@ -74,6 +94,19 @@ public abstract class AuthenticatingRealm extends CachingRealm implements Logout
      */
     private Class<? extends AuthenticationToken> authenticationTokenClass = UsernamePasswordToken.class;
 
+    private boolean authenticationCachingEnabled = false;
+
+    /**
+     * The cache used by this realm to store AuthenticationInfos, keyed by the token principal.
+     */
+    private Cache authenticationCache = null;
+    private String authenticationCacheName = null;
+
+    /**
+     * The authentication cache if it was built by this realm from the cacheManager rather than explicitly set.
+     */
+    private Cache defaultAuthenticationCache = null;
+
     /*--------------------------------------------
     |         C O N S T R U C T O R S           |
     ============================================*/
@@ -155,6 +188,49 @@ public abstract class AuthenticatingRealm extends CachingRealm implements Logout
         this.authenticationTokenClass = authenticationTokenClass;
     }
 
+    /**
+     * Returns <code>true</code> if AuthenticationInfo acquired from the underlying data store is cached, so that
+     * subsequent log-ins for the same account don't require another lookup.  The default is <code>false</code>.
+     *
+     * @return <code>true</code> if AuthenticationInfo is cached, <code>false</code> otherwise.
+     * @since 1.0
+     */
+    public boolean isAuthenticationCachingEnabled() {
+        return authenticationCachingEnabled;
+    }
+
+    /**
+     * Sets whether AuthenticationInfo acquired from the underlying data store is cached.  Caching requires either an
+     * explicitly {@link #setAuthenticationCache(Cache) configured cache} or a {@link #setCacheManager cacheManager}.
+     * <p/>
+     * <b>Please note:</b> the cached info contains the account's stored credentials (for example a password hash),
+     * so the cache should not be persisted or replicated anywhere the credentials would not be stored either.  If an
+     * account's credentials change at runtime, its entry should be removed via
+     * {@link #clearCachedAuthenticationInfo(org.apache.ki.subject.PrincipalCollection) clearCachedAuthenticationInfo}.
+     *
+     * @param authenticationCachingEnabled whether AuthenticationInfo should be cached.
+     * @since 1.0
+     */
+    public void setAuthenticationCachingEnabled(boolean authenticationCachingEnabled) {
+        this.authenticationCachingEnabled = authenticationCachingEnabled;
+    }
+
+    public Cache getAuthenticationCache() {
+        return authenticationCache;
+    }
+
+    public void setAuthenticationCache(Cache authenticationCache) {
+        this.authenticationCache = authenticationCache;
+    }
+
+    public String getAuthenticationCacheName() {
+        return authenticationCacheName;
+    }
+
+    public void setAuthenticationCacheName(String authenticationCacheName) {
+        this.authenticationCacheName = authenticationCacheName;
+    }
+
     /*--------------------------------------------
     |               M E T H O D S               |
     ============================================*/
@@ -172,9 +248,71 @@ public abstract class AuthenticatingRealm extends CachingRealm implements Logout
         return token != null && getAuthenticationTokenClass().isAssignableFrom(token.getClass());
     }
 
+    /**
+     * Discards the authentication cache if it was built from the previous cacheManager, so the next log-in builds
+     * it from the new one.  An explicitly {@link #setAuthenticationCache(Cache) set} cache is retained.
+     */
+    protected void afterCacheManagerSet() {
+        synchronized (this) {
+            if (this.authenticationCache == this.defaultAuthenticationCache) {
+                this.authenticationCache = null;
+            }
+            this.defaultAuthenticationCache = null;
+        }
+    }
+
+    /**
+     * Returns the cache to use for AuthenticationInfo, creating it via the {@link #getCacheManager() cacheManager} if
+     * necessary, or <code>null</code> if authentication caching is disabled or no cache is available.
+     */
+    private Cache getAvailableAuthenticationCache() {
+        if (!isAuthenticationCachingEnabled()) {
+            return null;
+        }
+        Cache cache = getAuthenticationCache();
+        if (cache == null) {
+            CacheManager cacheManager = getCacheManager();
+            if (cacheManager != null) {
+                synchronized (this) {
+                    cache = getAuthenticationCache();
+                    if (cache == null) {
+                        String cacheName = getAuthenticationCacheName();
+                        if (cacheName == null) {
+                            cacheName = getClass().getName() + "-" + INSTANCE_COUNT++ +
+                                    DEFAULT_AUTHENTICATION_CACHE_POSTFIX;
+                            setAuthenticationCacheName(cacheName);
+                        }
+                        if (log.isDebugEnabled()) {
+                            log.debug("CacheManager [" + cacheManager + "] has been configured.  Building " +
+                                    "authentication cache named [" + cacheName + "]");
+                        }
+                        cache = cacheManager.getCache(cacheName);
+                        setAuthenticationCache(cache);
+                        this.defaultAuthenticationCache = cache;
+                    }
+                }
+            }
+        }
+        return cache;
+    }
+
     public final AuthenticationInfo getAuthenticationInfo(AuthenticationToken token) throws AuthenticationException {
 
-        AuthenticationInfo info = doGetAuthenticationInfo(token);
+        Cache cache = getAvailableAuthenticationCache();
+        Object key = cache != null ? getAuthenticationCacheKey(token) : null;
+        AuthenticationInfo info = key != null ? (AuthenticationInfo) cache.get(key) : null;
+        if (info != null) {
+            if (log.isTraceEnabled()) {
+                log.trace("AuthenticationInfo found in cache for token [" + token + "]");
+            }
+            if (credentialsMatch(token, info)) {
+                return info;
+            }
+            //the cached credentials may be outdated - discard them and check against the data store instead:
+            cache.remove(key);
+        }
+
+        info = doGetAuthenticationInfo(token);
 
         if (info == null) {
             if (log.isDebugEnabled()) {
@@ -185,20 +323,84 @@ public abstract class AuthenticatingRealm extends CachingRealm implements Logout
             return null;
         }
 
+        if (!credentialsMatch(token, info)) {
+            String msg = "The credentials provided for account [" + token +
+                    "] did not match the expected credentials.";
+            throw new IncorrectCredentialsException(msg);
+        }
+
+        if (key != null) {
+            cache.put(key, info);
+        }
+
+        return info;
+    }
+
+    private boolean credentialsMatch(AuthenticationToken token, AuthenticationInfo info) {
         CredentialsMatcher cm = getCredentialsMatcher();
-        if (cm != null) {
-            if (!cm.doCredentialsMatch(token, info)) {
-                String msg = "The credentials provided for account [" + token +
-                        "] did not match the expected credentials.";
-                throw new IncorrectCredentialsException(msg);
-            }
-        } else {
+        if (cm == null) {
             throw new AuthenticationException("A CredentialsMatcher must be configured in order to verify " +
                     "credentials during authentication.  If you do not wish for credentials to be examined, you " +
                     "can configure an " + AllowAllCredentialsMatcher.class.getName() + " instance.");
         }
+        return cm.doCredentialsMatch(token, info);
+    }
 
-        return info;
+    /**
+     * Returns the key under which the AuthenticationInfo for the specified token is cached.  This implementation
+     * returns the token's {@link AuthenticationToken#getPrincipal() principal}.
+     *
+     * @param token the submitted authentication token.
+     * @return the key under which the AuthenticationInfo for the token's account is cached.
+     * @since 1.0
+     */
+    protected Object getAuthenticationCacheKey(AuthenticationToken token) {
+        return token != null ? token.getPrincipal() : null;
+    }
+
+    /**
+     * Returns the key under which the AuthenticationInfo for the account with the specified principals is cached.
+     * This implementation returns the first principal contributed by this realm, which matches the
+     * {@link #getAuthenticationCacheKey(AuthenticationToken) token key} whenever the realm identifies accounts by the
+     * submitted principal, as most do.  Subclasses that don't must override both methods.
+     *
+     * @param principals the principals of the account.
+     * @return the key under which the account's AuthenticationInfo is cached, or <code>null</code> if there is none.
+     * @since 1.0
+     */
+    protected Object getAuthenticationCacheKey(PrincipalCollection principals) {
+        if (principals == null) {
+            return null;
+        }
+        Collection realmPrincipals = principals.fromRealm(getName());
+        return realmPrincipals != null && !realmPrincipals.isEmpty() ? realmPrincipals.iterator().next() : null;
+    }
+
+    /**
+     * Removes the cached AuthenticationInfo for the specified account, if any, so that the next log-in acquires it
+     * from the underlying data store again.  Subclasses should call this method whenever an account's credentials
+     * change at runtime.
+     * <p/>
+     * If the {@link #getCredentialsMatcher() credentialsMatcher} is a
+     * {@link CachingCredentialsMatcher CachingCredentialsMatcher}, its remembered match for the account is
+     * {@link CachingCredentialsMatcher#clear(Object) cleared} as well.
+     *
+     * @param principals the principals of the account whose cached AuthenticationInfo should be removed.
+     * @since 1.0
+     */
+    protected void clearCachedAuthenticationInfo(PrincipalCollection principals) {
+        Object key = getAuthenticationCacheKey(principals);
+        if (key == null) {
+            return;
+        }
+        Cache cache = getAuthenticationCache();
+        if (cache != null) {
+            cache.remove(key);
+        }
+        CredentialsMatcher cm = getCredentialsMatcher();
+        if (cm instanceof CachingCredentialsMatcher) {
+            ((CachingCredentialsMatcher) cm).clear(key);
+        }
     }
 
     /**
@@ -221,7 +423,8 @@ public abstract class AuthenticatingRealm extends CachingRealm implements Logout
     protected abstract AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) throws AuthenticationException;
 
     /**
-     * Default implementation that does nothing (no-op) and exists as a convenience mechanism in case subclasses
+     * Default implementation that only {@link #clearCachedAuthenticationInfo(PrincipalCollection) removes} the
+     * account's cached AuthenticationInfo, if any, and exists as a convenience mechanism in case subclasses
      * wish to override it to implement realm-specific logout logic for the given user account logging out.</p>
      * <p/>
      * In a single-realm Ki configuration (most applications), the <code>principals</code> method
@@ -237,7 +440,17 @@ public abstract class AuthenticatingRealm extends CachingRealm implements Logout
      * @param principals the application-specific Subject/user identifier that is logging out.
      */
     public void onLogout(PrincipalCollection principals) {
-        //no-op, here for subclass override if desired.
+        clearCachedAuthenticationInfo(principals);
+    }
+
+    /**
+     * Destroys the {@link #getCredentialsMatcher() credentialsMatcher} if it is {@link Destroyable Destroyable}.
+     * Subclasses overriding this method should call <code>super.destroy()</code>.
+     *
+     * @since 1.0
+     */
+    public void destroy() {
+        LifecycleUtils.destroy(getCredentialsMatcher());
     }
 
 }
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.realm;
+
+import org.apache.ki.subject.PrincipalCollection;
+
+
+/**
+ * An <code>AuthorizationCacheListener</code> is notified whenever an {@link AuthorizingRealm AuthorizingRealm}
+ * discards or replaces the cached authorization data of an account, typically because that data has changed or has
+ * been {@link AuthorizingRealm#setAuthorizationCacheSoftTimeToLive(long) refreshed}.  Components that
+ * keep their own copies of a realm's authorization data can use this callback to discard those copies as well.
+ *
+ * @see AuthorizingRealm#addAuthorizationCacheListener(AuthorizationCacheListener)
+ * @since 1.0
+ */
+public interface AuthorizationCacheListener {
+
+    /**
+     * Callback triggered after the specified <code>realm</code> has cleared its cached authorization data for the
+     * account identified by <code>principals</code>.
+     *
+     * @param realm      the realm that cleared its cached authorization data.
+     * @param principals the principals of the account whose cached authorization data was cleared.
+     */
+    void onAuthorizationInfoCleared(AuthorizingRealm realm, PrincipalCollection principals);
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.realm;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe timing statistics about the {@link AuthorizingRealm AuthorizingRealm}'s loads of
+ * {@link org.apache.ki.authz.AuthorizationInfo AuthorizationInfo} from the underlying data store, either for the
+ * realm as a whole or for a single account.
+ * <p/>
+ * A <em>load</em> is one invocation of
+ * {@link AuthorizingRealm#doGetAuthorizationInfo(org.apache.ki.subject.PrincipalCollection) doGetAuthorizationInfo}.
+ * Callers that missed the cache while a load for the same account was already in progress wait for that load
+ * instead of starting their own, and are counted as {@link #getSharedLoadCount() shared loads}.
+ *
+ * @see AuthorizingRealm#getAuthorizationLoadStatistics()
+ * @since 1.0
+ */
+public class AuthorizationLoadStatistics implements Serializable {
+
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong sharedLoadCount = new AtomicLong();
+    private final AtomicLong totalLoadTimeNanos = new AtomicLong();
+    private final AtomicLong maxLoadTimeNanos = new AtomicLong();
+    private final AtomicLong lastLoadTimeNanos = new AtomicLong();
+
+    void loaded(long nanos, boolean failed) {
+        loadCount.incrementAndGet();
+        if (failed) {
+            failureCount.incrementAndGet();
+        }
+        totalLoadTimeNanos.addAndGet(nanos);
+        lastLoadTimeNanos.set(nanos);
+        long max = maxLoadTimeNanos.get();
+        while (nanos > max && !maxLoadTimeNanos.compareAndSet(max, nanos)) {
+            max = maxLoadTimeNanos.get();
+        }
+    }
+
+    void shared() {
+        sharedLoadCount.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of loads performed, including failed ones.
+     *
+     * @return the number of loads performed, including failed ones.
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /**
+     * Returns the number of loads that ended with an exception.
+     *
+     * @return the number of loads that ended with an exception.
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Returns the number of callers that received the result of a load started by another, concurrent caller
+     * instead of performing their own.
+     *
+     * @return the number of callers that shared another caller's in-flight load.
+     */
+    public long getSharedLoadCount() {
+        return sharedLoadCount.get();
+    }
+
+    /**
+     * Returns the accumulated time spent in all loads, in nanoseconds.
+     *
+     * @return the accumulated time spent in all loads, in nanoseconds.
+     */
+    public long getTotalLoadTimeNanos() {
+        return totalLoadTimeNanos.get();
+    }
+
+    /**
+     * Returns the duration of the slowest load, in nanoseconds.
+     *
+     * @return the duration of the slowest load, in nanoseconds.
+     */
+    public long getMaxLoadTimeNanos() {
+        return maxLoadTimeNanos.get();
+    }
+
+    /**
+     * Returns the duration of the most recent load, in nanoseconds.
+     *
+     * @return the duration of the most recent load, in nanoseconds.
+     */
+    public long getLastLoadTimeNanos() {
+        return lastLoadTimeNanos.get();
+    }
+
+    /**
+     * Returns the average duration of a load in nanoseconds, or <code>0</code> if no load has been performed yet.
+     *
+     * @return the average duration of a load in nanoseconds.
+     */
+    public long getAverageLoadTimeNanos() {
+        long count = loadCount.get();
+        return count > 0 ? totalLoadTimeNanos.get() / count : 0;
+    }
+
+    public String toString() {
+        return "loads=" + getLoadCount() + ", failures=" + getFailureCount() + ", shared=" + getSharedLoadCount() +
+                ", avgNanos=" + getAverageLoadTimeNanos() + ", maxNanos=" + getMaxLoadTimeNanos() +
+                ", lastNanos=" + getLastLoadTimeNanos();
+    }
+}
@@ -19,11 +19,27 @@
 package org.apache.ki.realm;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,14 +48,20 @@ import org.apache.ki.authc.credential.CredentialsMatcher;
 import org.apache.ki.authz.AuthorizationException;
 import org.apache.ki.authz.AuthorizationInfo;
 import org.apache.ki.authz.AuthorizingAccount;
+import org.apache.ki.authz.CompiledAuthorizationInfo;
 import org.apache.ki.authz.Permission;
+import org.apache.ki.authz.RoleRegistry;
 import org.apache.ki.authz.UnauthorizedException;
+import org.apache.ki.authz.permission.InstancePermissionMatcher;
 import org.apache.ki.authz.permission.PermissionResolver;
 import org.apache.ki.authz.permission.PermissionResolverAware;
+import org.apache.ki.authz.permission.PermittedInstances;
 import org.apache.ki.authz.permission.WildcardPermissionResolver;
 import org.apache.ki.cache.Cache;
 import org.apache.ki.cache.CacheManager;
+import org.apache.ki.subject.PrincipalCacheKey;
 import org.apache.ki.subject.PrincipalCollection;
+import org.apache.ki.util.Destroyable;
 import org.apache.ki.util.Initializable;
 
 
@@ -64,7 +86,8 @@ import org.apache.ki.util.Initializable;
  * @see org.apache.ki.authz.SimpleAuthorizationInfo
  * @since 0.2
  */
-public abstract class AuthorizingRealm extends AuthenticatingRealm implements Initializable, PermissionResolverAware {
+public abstract class AuthorizingRealm extends AuthenticatingRealm
+        implements Initializable, Destroyable, PermissionResolverAware {
 
     //TODO - complete JavaDoc
 
@@ -78,8 +101,30 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
      */
     private static final String DEFAULT_AUTHORIZATION_CACHE_POSTFIX = "-authorization";
 
+    /**
+     * The default maximum number of accounts for which individual load statistics are kept.
+     */
+    public static final int DEFAULT_AUTHORIZATION_LOAD_STATISTICS_KEY_LIMIT = 1000;
+
+    /**
+     * The default maximum number of threads refreshing AuthorizationInfo in the background.
+     */
+    public static final int DEFAULT_AUTHORIZATION_REFRESH_THREADS = 2;
+
+    /**
+     * The default maximum number of background AuthorizationInfo refreshes waiting for a thread.
+     */
+    public static final int DEFAULT_AUTHORIZATION_REFRESH_QUEUE_SIZE = 100;
+
     private static int INSTANCE_COUNT = 0;
 
+    /**
+     * Receives the compiled info found by {@link #getAuthorizationInfo(PrincipalCollection)} while
+     * {@link #getCompiledAuthorizationInfo(PrincipalCollection)} is waiting for it on the current thread, so that
+     * the compiled form can be reused instead of compiling the returned source info again.
+     */
+    private static final ThreadLocal<AuthorizationInfo[]> compiledInfoHolder = new ThreadLocal<AuthorizationInfo[]>();
+
     /*--------------------------------------------
     |    I N S T A N C E   V A R I A B L E S    |
     ============================================*/
@@ -91,6 +136,61 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
 
     private PermissionResolver permissionResolver = new WildcardPermissionResolver();
 
+    /**
+     * Assigns the role ids of this realm's compiled AuthorizationInfos.
+     */
+    private final RoleRegistry roleRegistry = new RoleRegistry();
+
+    /**
+     * Listeners notified whenever an account's cached AuthorizationInfo is cleared.
+     */
+    private final CopyOnWriteArrayList<AuthorizationCacheListener> authorizationCacheListeners =
+            new CopyOnWriteArrayList<AuthorizationCacheListener>();
+
+    /**
+     * AuthorizationInfo loads currently in progress, keyed by authorization cache key.
+     */
+    private final ConcurrentMap<Object, FutureTask<AuthorizationInfo>> authorizationLoads =
+            new ConcurrentHashMap<Object, FutureTask<AuthorizationInfo>>();
+
+    /**
+     * Load statistics for the realm as a whole.
+     */
+    private final AuthorizationLoadStatistics authorizationLoadStatistics = new AuthorizationLoadStatistics();
+
+    /**
+     * Load statistics per authorization cache key, bounded by the authorizationLoadStatisticsKeyLimit.
+     */
+    private final ConcurrentMap<Object, AuthorizationLoadStatistics> authorizationLoadStatisticsByKey =
+            new ConcurrentHashMap<Object, AuthorizationLoadStatistics>();
+
+    private int authorizationLoadStatisticsKeyLimit = DEFAULT_AUTHORIZATION_LOAD_STATISTICS_KEY_LIMIT;
+
+    /**
+     * Age in milliseconds after which a cached AuthorizationInfo is refreshed in the background, 0 to disable.
+     */
+    private long authorizationCacheSoftTimeToLive = 0;
+
+    /**
+     * Age in milliseconds after which a cached AuthorizationInfo is no longer used, 0 for no limit.
+     */
+    private long authorizationCacheHardTimeToLive = 0;
+
+    private Executor authorizationRefreshExecutor = null;
+
+    /**
+     * The executor created by this realm if none was configured, shut down in {@link #destroy()}.
+     */
+    private ExecutorService defaultAuthorizationRefreshExecutor = null;
+
+    private int authorizationRefreshThreads = DEFAULT_AUTHORIZATION_REFRESH_THREADS;
+    private int authorizationRefreshQueueSize = DEFAULT_AUTHORIZATION_REFRESH_QUEUE_SIZE;
+
+    /**
+     * Cache keys for which a background refresh has been submitted but not yet finished.
+     */
+    private final ConcurrentMap<Object, Boolean> authorizationRefreshes = new ConcurrentHashMap<Object, Boolean>();
+
     /*--------------------------------------------
     |         C O N S T R U C T O R S           |
     ============================================*/
@@ -139,6 +239,225 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
         this.permissionResolver = permissionResolver;
     }
 
+    /**
+     * Returns the registry assigning the role ids of the AuthorizationInfos {@link #compile compiled} by this realm.
+     * It only holds the roles granted by this realm and is discarded together with it.
+     *
+     * @return the registry assigning the role ids of this realm's compiled AuthorizationInfos.
+     * @since 1.0
+     */
+    public RoleRegistry getRoleRegistry() {
+        return roleRegistry;
+    }
+
+    /**
+     * Registers a listener that will be notified whenever this realm
+     * {@link #clearCachedAuthorizationInfo(org.apache.ki.subject.PrincipalCollection) clears} an account's cached
+     * authorization data.  Registering the same listener more than once has no effect.
+     *
+     * @param listener the listener to notify when cached authorization data is cleared.
+     * @since 1.0
+     */
+    public void addAuthorizationCacheListener(AuthorizationCacheListener listener) {
+        if (listener != null) {
+            authorizationCacheListeners.addIfAbsent(listener);
+        }
+    }
+
+    /**
+     * Removes a previously {@link #addAuthorizationCacheListener registered} listener.
+     *
+     * @param listener the listener to remove.
+     * @return <code>true</code> if the listener was removed, <code>false</code> if it was not registered.
+     * @since 1.0
+     */
+    public boolean removeAuthorizationCacheListener(AuthorizationCacheListener listener) {
+        return authorizationCacheListeners.remove(listener);
+    }
+
+    /**
+     * Returns the maximum number of accounts for which individual
+     * {@link #getAuthorizationLoadStatistics(org.apache.ki.subject.PrincipalCollection) load statistics} are kept.
+     * Loads of accounts beyond that limit are only reflected in the realm-wide
+     * {@link #getAuthorizationLoadStatistics() statistics}.  The default is
+     * {@link #DEFAULT_AUTHORIZATION_LOAD_STATISTICS_KEY_LIMIT}.
+     *
+     * @return the maximum number of accounts for which individual load statistics are kept.
+     * @since 1.0
+     */
+    public int getAuthorizationLoadStatisticsKeyLimit() {
+        return authorizationLoadStatisticsKeyLimit;
+    }
+
+    /**
+     * Sets the maximum number of accounts for which individual load statistics are kept.  A value of <code>0</code>
+     * or less disables per-account statistics.
+     *
+     * @param authorizationLoadStatisticsKeyLimit
+     *         the maximum number of accounts for which individual load statistics are kept.
+     * @since 1.0
+     */
+    public void setAuthorizationLoadStatisticsKeyLimit(int authorizationLoadStatisticsKeyLimit) {
+        this.authorizationLoadStatisticsKeyLimit = authorizationLoadStatisticsKeyLimit;
+    }
+
+    /**
+     * Returns the realm-wide statistics about loading AuthorizationInfo from the underlying data store via
+     * {@link #doGetAuthorizationInfo(org.apache.ki.subject.PrincipalCollection) doGetAuthorizationInfo}.
+     *
+     * @return the realm-wide AuthorizationInfo load statistics, never <code>null</code>.
+     * @since 1.0
+     */
+    public AuthorizationLoadStatistics getAuthorizationLoadStatistics() {
+        return authorizationLoadStatistics;
+    }
+
+    /**
+     * Returns the AuthorizationInfo load statistics for the account identified by the specified
+     * <code>principals</code>, or <code>null</code> if no load has been recorded for that account.
+     *
+     * @param principals the principals of the account for which to return the load statistics.
+     * @return the account's load statistics, or <code>null</code> if none have been recorded.
+     * @since 1.0
+     */
+    public AuthorizationLoadStatistics getAuthorizationLoadStatistics(PrincipalCollection principals) {
+        if (principals == null) {
+            return null;
+        }
+        Object key = getAuthorizationCacheKey(principals);
+        return key != null ? authorizationLoadStatisticsByKey.get(key) : null;
+    }
+
+    /**
+     * Returns an unmodifiable view of all per-account AuthorizationInfo load statistics, keyed by
+     * {@link #getAuthorizationCacheKey(org.apache.ki.subject.PrincipalCollection) authorization cache key}.
+     *
+     * @return all per-account load statistics, keyed by authorization cache key.
+     * @since 1.0
+     */
+    public Map<Object, AuthorizationLoadStatistics> getAuthorizationLoadStatisticsByKey() {
+        return Collections.unmodifiableMap(authorizationLoadStatisticsByKey);
+    }
+
+    /**
+     * Discards all per-account AuthorizationInfo load statistics.
+     *
+     * @since 1.0
+     */
+    public void clearAuthorizationLoadStatistics() {
+        authorizationLoadStatisticsByKey.clear();
+    }
+
+    /**
+     * Returns the age in milliseconds after which a cached AuthorizationInfo is refreshed in the background while
+     * the existing (stale) value continues to be used.  A value of <code>0</code> (the default) disables
+     * background refreshes.
+     *
+     * @return the age in milliseconds after which a cached AuthorizationInfo is refreshed in the background.
+     * @see #setAuthorizationCacheSoftTimeToLive(long)
+     * @since 1.0
+     */
+    public long getAuthorizationCacheSoftTimeToLive() {
+        return authorizationCacheSoftTimeToLive;
+    }
+
+    /**
+     * Enables &quot;refresh-ahead&quot; caching:  once a cached AuthorizationInfo is older than the specified number
+     * of milliseconds, the next authorization check for that account submits a refresh via
+     * {@link #doGetAuthorizationInfo(org.apache.ki.subject.PrincipalCollection) doGetAuthorizationInfo} to the
+     * {@link #getAuthorizationRefreshExecutor() authorizationRefreshExecutor} but is itself answered from the stale
+     * value, so that request threads don't have to wait for the underlying data store.  Stale values are used until
+     * they reach the {@link #setAuthorizationCacheHardTimeToLive(long) hard time to live}.
+     * <p/>
+     * A value of <code>0</code> or less (the default) disables background refreshes.  Note that the cache itself
+     * may still evict entries at any time according to its own configuration.
+     *
+     * @param authorizationCacheSoftTimeToLive
+     *         the age in milliseconds after which a cached AuthorizationInfo is refreshed in the background.
+     * @since 1.0
+     */
+    public void setAuthorizationCacheSoftTimeToLive(long authorizationCacheSoftTimeToLive) {
+        this.authorizationCacheSoftTimeToLive = authorizationCacheSoftTimeToLive;
+    }
+
+    /**
+     * Returns the age in milliseconds after which a cached AuthorizationInfo is no longer used and is instead
+     * loaded again synchronously.  A value of <code>0</code> (the default) means no limit.
+     *
+     * @return the age in milliseconds after which a cached AuthorizationInfo is no longer used.
+     * @since 1.0
+     */
+    public long getAuthorizationCacheHardTimeToLive() {
+        return authorizationCacheHardTimeToLive;
+    }
+
+    /**
+     * Sets the age in milliseconds after which a cached AuthorizationInfo is no longer used and is instead loaded
+     * again synchronously, for example if background refreshes keep failing.  Only takes effect if a
+     * {@link #setAuthorizationCacheSoftTimeToLive(long) soft time to live} is set.  A value of <code>0</code> or
+     * less (the default) means no limit.
+     *
+     * @param authorizationCacheHardTimeToLive
+     *         the age in milliseconds after which a cached AuthorizationInfo is no longer used.
+     * @since 1.0
+     */
+    public void setAuthorizationCacheHardTimeToLive(long authorizationCacheHardTimeToLive) {
+        this.authorizationCacheHardTimeToLive = authorizationCacheHardTimeToLive;
+    }
+
+    /**
+     * Returns the executor running background AuthorizationInfo refreshes.  If none has been
+     * {@link #setAuthorizationRefreshExecutor(java.util.concurrent.Executor) set}, a bounded pool of at most
+     * {@link #getAuthorizationRefreshThreads() authorizationRefreshThreads} daemon threads and a queue of
+     * {@link #getAuthorizationRefreshQueueSize() authorizationRefreshQueueSize} tasks is created on first use and
+     * shut down when this realm is {@link #destroy() destroyed}.
+     *
+     * @return the executor running background AuthorizationInfo refreshes.
+     * @since 1.0
+     */
+    public synchronized Executor getAuthorizationRefreshExecutor() {
+        if (authorizationRefreshExecutor == null) {
+            if (defaultAuthorizationRefreshExecutor == null) {
+                defaultAuthorizationRefreshExecutor = createAuthorizationRefreshExecutor();
+            }
+            return defaultAuthorizationRefreshExecutor;
+        }
+        return authorizationRefreshExecutor;
+    }
+
+    /**
+     * Sets the executor running background AuthorizationInfo refreshes.  An executor set via this method is not
+     * shut down by this realm.  It should be bounded:  refreshes it rejects are simply retried on a later check.
+     *
+     * @param authorizationRefreshExecutor the executor running background AuthorizationInfo refreshes.
+     * @since 1.0
+     */
+    public synchronized void setAuthorizationRefreshExecutor(Executor authorizationRefreshExecutor) {
+        this.authorizationRefreshExecutor = authorizationRefreshExecutor;
+    }
+
+    public int getAuthorizationRefreshThreads() {
+        return authorizationRefreshThreads;
+    }
+
+    public void setAuthorizationRefreshThreads(int authorizationRefreshThreads) {
+        if (authorizationRefreshThreads < 1) {
+            throw new IllegalArgumentException("authorizationRefreshThreads must be greater than zero.");
+        }
+        this.authorizationRefreshThreads = authorizationRefreshThreads;
+    }
+
+    public int getAuthorizationRefreshQueueSize() {
+        return authorizationRefreshQueueSize;
+    }
+
+    public void setAuthorizationRefreshQueueSize(int authorizationRefreshQueueSize) {
+        if (authorizationRefreshQueueSize < 1) {
+            throw new IllegalArgumentException("authorizationRefreshQueueSize must be greater than zero.");
+        }
+        this.authorizationRefreshQueueSize = authorizationRefreshQueueSize;
+    }
+
     /*--------------------------------------------
     |               M E T H O D S               |
     ============================================*/
@@ -164,9 +483,38 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
      */
     public final void init() {
         initAuthorizationCache();
+        afterInit();
+    }
+
+    /**
+     * Template method called at the end of {@link #init() init()}, once the realm has been configured.  Does nothing
+     * by default.
+     *
+     * @since 1.0
+     */
+    protected void afterInit() {
+    }
+
+    /**
+     * Shuts down the background refresh executor if it was created by this realm, and then calls
+     * <code>super.destroy()</code>.
+     *
+     * @since 1.0
+     */
+    public void destroy() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = defaultAuthorizationRefreshExecutor;
+            defaultAuthorizationRefreshExecutor = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        super.destroy();
     }
 
     protected void afterCacheManagerSet() {
+        super.afterCacheManagerSet();
         this.authorizationCache = null;
         initAuthorizationCache();
     }
@@ -245,6 +593,13 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
      * lookup, the authorization info will be looked up from the underlying data store via the
      * {@link #doGetAuthorizationInfo(org.apache.ki.subject.PrincipalCollection)} method, which must be implemented by subclasses.
      *
+     * <p>The cached value is a {@link CompiledAuthorizationInfo CompiledAuthorizationInfo} that holds the account's
+     * already-resolved permissions alongside the original info, which is what this method returns.
+     *
+     * <p>All of this realm's role and permission checks acquire their info through this method, via
+     * {@link #getCompiledAuthorizationInfo(org.apache.ki.subject.PrincipalCollection) getCompiledAuthorizationInfo},
+     * so subclasses may override it to customize the info used for authorization.
+     *
      * <p><b>Please note:</b>  If caching is enabled and if any authorization data for an account is changed at
      * runtime, such as adding or removing roles and/or permissions, the subclass imlementation should clear the
      * cached AuthorizationInfo for that account via the
@@ -259,6 +614,86 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
      *         or <tt>null</tt> if no account could be found.
      */
     public AuthorizationInfo getAuthorizationInfo(PrincipalCollection principals) {
+        AuthorizationInfo info = getCachedAuthorizationInfo(principals);
+        if (info instanceof CompiledAuthorizationInfo) {
+            AuthorizationInfo[] holder = compiledInfoHolder.get();
+            if (holder != null) {
+                holder[0] = info;
+            }
+            return ((CompiledAuthorizationInfo) info).getSource();
+        }
+        return info;
+    }
+
+    /**
+     * Returns the compiled form of the info {@link #getAuthorizationInfo(PrincipalCollection) getAuthorizationInfo}
+     * returns for the specified <code>principals</code>, or <tt>null</tt> if no account could be found.  This is the
+     * instance used by all of this realm's role and permission checks.
+     *
+     * <p>If <code>getAuthorizationInfo</code> returns the source of this realm's cached
+     * {@link CompiledAuthorizationInfo CompiledAuthorizationInfo}, as it does unless overridden, that cached
+     * instance is returned.  Any other info returned by an overriding subclass is {@link #compile compiled} for this
+     * invocation only.  Deprecated {@link AuthorizingAccount AuthorizingAccount} instances perform their own checks
+     * and are therefore returned as is.
+     *
+     * @param principals the corresponding Subject's identifying principals.
+     * @return the compiled authorization information for the account associated with the specified
+     *         <code>principals</code>, or <tt>null</tt> if no account could be found.
+     * @see #getAuthorizationInfo(org.apache.ki.subject.PrincipalCollection)
+     * @since 1.0
+     */
+    @SuppressWarnings("deprecation")
+    public final AuthorizationInfo getCompiledAuthorizationInfo(PrincipalCollection principals) {
+        AuthorizationInfo[] previous = compiledInfoHolder.get();
+        AuthorizationInfo[] holder = new AuthorizationInfo[1];
+        compiledInfoHolder.set(holder);
+        AuthorizationInfo info;
+        try {
+            info = getAuthorizationInfo(principals);
+        } finally {
+            if (previous != null) {
+                compiledInfoHolder.set(previous);
+            } else {
+                compiledInfoHolder.remove();
+            }
+        }
+        if (info == null || info instanceof CompiledAuthorizationInfo || info instanceof AuthorizingAccount) {
+            return info;
+        }
+        AuthorizationInfo compiled = holder[0];
+        if (compiled != null && ((CompiledAuthorizationInfo) compiled).getSource() == info) {
+            return compiled;
+        }
+        return compile(info);
+    }
+
+    /**
+     * Returns the cached {@link CompiledAuthorizationInfo CompiledAuthorizationInfo} for the specified
+     * <code>principals</code>, loading it if necessary, or <tt>null</tt> if no account could be found.
+     *
+     * <p>Compiled infos are what is actually stored in the {@link #getAuthorizationCache() authorization cache}:  the
+     * account's string permissions are resolved via the {@link #getPermissionResolver() permissionResolver} only
+     * once, when the info is first acquired from
+     * {@link #doGetAuthorizationInfo(org.apache.ki.subject.PrincipalCollection) doGetAuthorizationInfo}, and are
+     * then reused for every subsequent check until the cache entry is evicted or
+     * {@link #clearCachedAuthorizationInfo(org.apache.ki.subject.PrincipalCollection) cleared}.
+     *
+     * <p>Deprecated {@link AuthorizingAccount AuthorizingAccount} instances perform their own checks and are
+     * therefore returned as is.
+     *
+     * <p>Concurrent cache misses for the same account share a single load:  only the first caller invokes
+     * <code>doGetAuthorizationInfo</code>, all others wait for and receive its result (or its exception).  Each load
+     * is timed and reflected in the {@link #getAuthorizationLoadStatistics() load statistics}.
+     *
+     * <p>If a {@link #setAuthorizationCacheSoftTimeToLive(long) soft time to live} is configured, a cached info
+     * older than that is returned as is while a refresh is performed in the background.
+     *
+     * @param principals the corresponding Subject's identifying principals.
+     * @return the compiled authorization information for the account associated with the specified
+     *         <code>principals</code>, or <tt>null</tt> if no account could be found.
+     */
+    @SuppressWarnings("deprecation")
+    private AuthorizationInfo getCachedAuthorizationInfo(PrincipalCollection principals) {
 
         if (principals == null) {
             return null;
@@ -284,27 +719,242 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
                     log.trace("AuthorizationInfo found in cache for principals [" + principals + "]");
                 }
             }
+            if (info instanceof CompiledAuthorizationInfo && getAuthorizationCacheSoftTimeToLive() > 0) {
+                long age = System.currentTimeMillis() - ((CompiledAuthorizationInfo) info).getCreationTime();
+                long hardTimeToLive = getAuthorizationCacheHardTimeToLive();
+                if (hardTimeToLive > 0 && age >= hardTimeToLive) {
+                    if (log.isTraceEnabled()) {
+                        log.trace("Cached AuthorizationInfo for principals [" + principals + "] has expired.");
+                    }
+                    info = null;
+                } else if (age >= getAuthorizationCacheSoftTimeToLive()) {
+                    refreshAuthorizationInfo(principals, key, authzCache);
+                }
+            }
+            if (info != null && !(info instanceof CompiledAuthorizationInfo) && !(info instanceof AuthorizingAccount)) {
+                //placed in the cache directly by a subclass - compile it for this invocation only and leave the
+                //subclass's cache entry untouched:
+                info = compile(info);
+            }
         }
 
 
         if (info == null) {
+            info = loadAuthorizationInfo(principals, authzCache);
+        }
+
+        return info;
+    }
+
+    /**
+     * Acquires the account's info via {@link #doGetAuthorizationInfo(org.apache.ki.subject.PrincipalCollection)},
+     * joining an identical load already in progress if there is one, and caches the compiled result.
+     *
+     * @param principals the principals of the account for which to load the info.
+     * @param authzCache the authorization cache, or <code>null</code> if caching is disabled.
+     * @return the compiled info, or <code>null</code> if no account could be found.
+     */
+    private AuthorizationInfo loadAuthorizationInfo(final PrincipalCollection principals, Cache authzCache) {
+        final Object key = getAuthorizationCacheKey(principals);
+        if (key == null) {
+            return doLoadAuthorizationInfo(principals, null);
+        }
+
+        FutureTask<AuthorizationInfo> load = new FutureTask<AuthorizationInfo>(new Callable<AuthorizationInfo>() {
+            public AuthorizationInfo call() throws Exception {
+                return doLoadAuthorizationInfo(principals, key);
+            }
+        });
+        FutureTask<AuthorizationInfo> inProgress = authorizationLoads.putIfAbsent(key, load);
+        if (inProgress != null) {
+            if (log.isTraceEnabled()) {
+                log.trace("Waiting for in-progress AuthorizationInfo load for principals [" + principals + "]");
+            }
+            authorizationLoadStatistics.shared();
+            AuthorizationLoadStatistics keyStatistics = authorizationLoadStatisticsByKey.get(key);
+            if (keyStatistics != null) {
+                keyStatistics.shared();
+            }
+            return awaitAuthorizationInfo(inProgress);
+        }
+
+        AuthorizationInfo info;
+        try {
+            load.run();
+            info = awaitAuthorizationInfo(load);
+            // Don't cache the info if the account was cleared while it was being loaded - it might be stale:
+            if (authzCache != null && authorizationLoads.get(key) == load) {
+                if (info != null) {
+                    if (log.isTraceEnabled()) {
+                        log.trace("Caching authorization info for principals: [" + principals + "].");
+                    }
+                    authzCache.put(key, info);
+                } else {
+                    //the account no longer exists - discard any expired or stale entry:
+                    authzCache.remove(key);
+                }
+            }
+        } finally {
+            authorizationLoads.remove(key, load);
+        }
+        return info;
+    }
+
+    /**
+     * Submits a background reload of the account's info unless one is already pending or in progress.
+     *
+     * @param principals the principals of the account for which to refresh the info.
+     * @param key        the account's authorization cache key.
+     * @param authzCache the authorization cache.
+     */
+    private void refreshAuthorizationInfo(final PrincipalCollection principals, final Object key,
+                                          final Cache authzCache) {
+        if (key == null || authorizationLoads.containsKey(key) ||
+                authorizationRefreshes.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Refreshing stale AuthorizationInfo for principals [" + principals + "] in the background.");
+        }
+        Runnable refresh = new Runnable() {
+            public void run() {
+                try {
+                    loadAuthorizationInfo(principals, authzCache);
+                    //components holding copies of the previous info must pick up the refreshed one:
+                    notifyAuthorizationCacheListeners(principals);
+                } catch (RuntimeException e) {
+                    if (log.isWarnEnabled()) {
+                        log.warn("Unable to refresh AuthorizationInfo for principals [" + principals + "].  " +
+                                "The cached value will continue to be used.", e);
+                    }
+                } finally {
+                    authorizationRefreshes.remove(key);
+                }
+            }
+        };
+        try {
+            getAuthorizationRefreshExecutor().execute(refresh);
+        } catch (RejectedExecutionException e) {
+            authorizationRefreshes.remove(key);
+            if (log.isDebugEnabled()) {
+                log.debug("AuthorizationInfo refresh for principals [" + principals + "] was rejected.  " +
+                        "It will be retried on a later authorization check.");
+            }
+        }
+    }
+
+    /**
+     * Creates the default, bounded executor for background AuthorizationInfo refreshes.
+     *
+     * @return a new executor for background AuthorizationInfo refreshes.
+     */
+    protected ExecutorService createAuthorizationRefreshExecutor() {
+        final String namePrefix = getName() + "-authorization-refresh-";
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, namePrefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        int threads = getAuthorizationRefreshThreads();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(getAuthorizationRefreshQueueSize()), threadFactory);
+    }
+
+    @SuppressWarnings("deprecation")
+    private AuthorizationInfo doLoadAuthorizationInfo(PrincipalCollection principals, Object key) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
             // Call template method if tbe info was not found in a cache
-            info = doGetAuthorizationInfo(principals);
-            // If the info is not null and the cache has been created, then cache the authorization info.
-            if (info != null && authzCache != null) {
-                if (log.isTraceEnabled()) {
-                    log.trace("Caching authorization info for principals: [" + principals + "].");
+            AuthorizationInfo info = doGetAuthorizationInfo(principals);
+            if (info != null && !(info instanceof AuthorizingAccount)) {
+                info = compile(info);
+            }
+            failed = false;
+            return info;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            authorizationLoadStatistics.loaded(elapsed, failed);
+            AuthorizationLoadStatistics keyStatistics = getAuthorizationLoadStatisticsForUpdate(key);
+            if (keyStatistics != null) {
+                keyStatistics.loaded(elapsed, failed);
+            }
+        }
+    }
+
+    private AuthorizationLoadStatistics getAuthorizationLoadStatisticsForUpdate(Object key) {
+        if (key == null) {
+            return null;
+        }
+        AuthorizationLoadStatistics statistics = authorizationLoadStatisticsByKey.get(key);
+        if (statistics == null && authorizationLoadStatisticsByKey.size() < getAuthorizationLoadStatisticsKeyLimit()) {
+            statistics = new AuthorizationLoadStatistics();
+            AuthorizationLoadStatistics existing = authorizationLoadStatisticsByKey.putIfAbsent(key, statistics);
+            if (existing != null) {
+                statistics = existing;
+            }
+        }
+        return statistics;
+    }
+
+    private AuthorizationInfo awaitAuthorizationInfo(FutureTask<AuthorizationInfo> load) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return load.get();
+                } catch (InterruptedException e) {
+                    //the load is performed by another caller's thread and can't be abandoned - keep waiting:
+                    interrupted = true;
                 }
-                Object key = getAuthorizationCacheKey(principals);
-                authzCache.put(key, info);
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AuthorizationException("Unable to acquire AuthorizationInfo.", cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
         }
+    }
 
-        return info;
+    /**
+     * Resolves all of the specified info's permissions into an immutable
+     * {@link CompiledAuthorizationInfo CompiledAuthorizationInfo}.
+     *
+     * @param info the AuthorizationInfo to compile.
+     * @return the compiled view of the specified info.
+     * @since 1.0
+     */
+    protected CompiledAuthorizationInfo compile(AuthorizationInfo info) {
+        if (info instanceof CompiledAuthorizationInfo) {
+            return (CompiledAuthorizationInfo) info;
+        }
+        return new CompiledAuthorizationInfo(info, resolvePermissions(info), getRoleRegistry());
     }
 
+    /**
+     * Returns the key under which the AuthorizationInfo for the specified <code>principals</code> is cached.
+     * <p/>
+     * This implementation returns an immutable {@link PrincipalCacheKey PrincipalCacheKey} for the principals, so
+     * that modifying the collection after a lookup can never corrupt the cache, and so cache lookups don't have to
+     * re-hash the entire collection each time.
+     *
+     * @param principals the principals of the account whose AuthorizationInfo will be cached.
+     * @return the key under which the account's AuthorizationInfo is cached.
+     */
     protected Object getAuthorizationCacheKey(PrincipalCollection principals) {
-        return principals;
+        return PrincipalCacheKey.forPrincipals(principals);
     }
 
     /**
@@ -318,6 +968,8 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
      * After this method is called, the next authorization check for that same account will result in a call to
      * {@link #getAuthorizationInfo(org.apache.ki.subject.PrincipalCollection) getAuthorizationInfo}, and the
      * resulting return value will be cached before being returned so it can be reused for later authorization checks.
+     * <p/>
+     * Any registered {@link AuthorizationCacheListener AuthorizationCacheListener}s are notified afterwards.
      *
      * @param principals the principals of the account for which to clear the cached AuthorizationInfo.
      */
@@ -326,12 +978,25 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
             return;
         }
 
+        Object key = getAuthorizationCacheKey(principals);
+        if (key != null) {
+            //results of a load still in progress may already be stale - make sure they aren't cached:
+            authorizationLoads.remove(key);
+        }
+
         Cache cache = getAuthorizationCache();
         //cache instance will be non-null if caching is enabled:
         if (cache != null) {
-            Object key = getAuthorizationCacheKey(principals);
             cache.remove(key);
         }
+
+        notifyAuthorizationCacheListeners(principals);
+    }
+
+    private void notifyAuthorizationCacheListeners(PrincipalCollection principals) {
+        for (AuthorizationCacheListener listener : authorizationCacheListeners) {
+            listener.onAuthorizationInfoCleared(this, principals);
+        }
     }
 
     /**
@@ -345,8 +1010,23 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
      */
     protected abstract AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals);
 
-    @SuppressWarnings({"unchecked"})
     private Collection<Permission> getPermissions(AuthorizationInfo info) {
+        if (info instanceof CompiledAuthorizationInfo) {
+            return ((CompiledAuthorizationInfo) info).getPermissions();
+        }
+        return resolvePermissions(info);
+    }
+
+    /**
+     * Returns the specified info's object permissions together with its string permissions resolved via the
+     * {@link #getPermissionResolver() permissionResolver}.
+     *
+     * @param info the AuthorizationInfo whose permissions should be resolved, may be <code>null</code>.
+     * @return an immutable set of the info's resolved permissions, never <code>null</code>.
+     * @since 1.0
+     */
+    @SuppressWarnings({"unchecked"})
+    protected Collection<Permission> resolvePermissions(AuthorizationInfo info) {
         Set<Permission> permissions = new HashSet<Permission>();
 
         if (info != null) {
@@ -375,7 +1055,7 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
     }
 
     public boolean isPermitted(PrincipalCollection principals, Permission permission) {
-        AuthorizationInfo info = getAuthorizationInfo(principals);
+        AuthorizationInfo info = getCompiledAuthorizationInfo(principals);
         return isPermitted(permission, info);
     }
 
@@ -386,6 +1066,10 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
             return ((AuthorizingAccount) info).isPermitted(permission);
         }
 
+        if (info instanceof CompiledAuthorizationInfo) {
+            return ((CompiledAuthorizationInfo) info).isPermitted(permission);
+        }
+
         Collection<Permission> perms = getPermissions(info);
         if (perms != null && !perms.isEmpty()) {
             for (Permission perm : perms) {
@@ -406,7 +1090,7 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
     }
 
     public boolean[] isPermitted(PrincipalCollection principals, List<Permission> permissions) {
-        AuthorizationInfo info = getAuthorizationInfo(principals);
+        AuthorizationInfo info = getCompiledAuthorizationInfo(principals);
         return isPermitted(permissions, info);
     }
 
@@ -431,6 +1115,91 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
         return result;
     }
 
+    public BitSet getPermittedMask(PrincipalCollection principals, String domain, String action, List<?> instanceIds) {
+        int size = instanceIds != null ? instanceIds.size() : 0;
+        AuthorizationInfo info = getCompiledAuthorizationInfo(principals);
+        InstancePermissionMatcher matcher = getInstancePermissionMatcher(info, domain, action);
+        if (matcher != null) {
+            return matcher.getPermittedMask(instanceIds);
+        }
+        BitSet mask = new BitSet(size);
+        if (info != null) {
+            for (int i = 0; i < size; i++) {
+                if (isPermitted(toInstancePermission(domain, action, instanceIds.get(i)), info)) {
+                    mask.set(i);
+                }
+            }
+        }
+        return mask;
+    }
+
+    public <T> List<T> filterPermitted(PrincipalCollection principals, String domain, String action,
+                                       Collection<T> instanceIds) {
+        AuthorizationInfo info = getCompiledAuthorizationInfo(principals);
+        InstancePermissionMatcher matcher = getInstancePermissionMatcher(info, domain, action);
+        if (matcher != null) {
+            return matcher.filterPermitted(instanceIds);
+        }
+        List<T> permitted = new ArrayList<T>();
+        if (info != null && instanceIds != null) {
+            for (T instanceId : instanceIds) {
+                if (isPermitted(toInstancePermission(domain, action, instanceId), info)) {
+                    permitted.add(instanceId);
+                }
+            }
+        }
+        return permitted;
+    }
+
+    /**
+     * Returns a matcher evaluating <code>domain:action:instanceId</code> permissions directly against the info's
+     * compiled permissions, or <code>null</code> if each permission must be resolved and checked individually
+     * because the info is not compiled or a custom {@link #getPermissionResolver() permissionResolver} is in use.
+     */
+    private InstancePermissionMatcher getInstancePermissionMatcher(AuthorizationInfo info, String domain,
+                                                                   String action) {
+        if (domain == null || action == null) {
+            throw new IllegalArgumentException("domain and action arguments cannot be null.");
+        }
+        if (info == null) {
+            return new InstancePermissionMatcher(null, domain, action);
+        }
+        if (info instanceof CompiledAuthorizationInfo &&
+                InstancePermissionMatcher.isEquivalentTo(getPermissionResolver())) {
+            return ((CompiledAuthorizationInfo) info).getInstancePermissionMatcher(domain, action);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the instances of the specified domain and action the corresponding Subject is permitted to act on:
+     * {@link PermittedInstances#ALL all}, an explicit set of instance tokens, or {@link PermittedInstances#NONE none}.
+     * This allows data access code to restrict a query, for example with an SQL <code>IN</code> clause, instead of
+     * loading every instance and checking each one afterwards.
+     * <p/>
+     * The analysis is based on the account's compiled permissions and is retained alongside its cached
+     * {@link CompiledAuthorizationInfo CompiledAuthorizationInfo}, so it is only performed once per domain and action
+     * until the info is evicted or cleared.
+     *
+     * @param principals the principals of the Subject being checked.
+     * @param domain     the permission domain, for example <code>document</code>.
+     * @param action     the action being performed, for example <code>read</code>.
+     * @return the permitted instances, or <code>null</code> if they cannot be enumerated because the account's
+     *         permissions use custom implication rules or a custom {@link #getPermissionResolver() permissionResolver}
+     *         is configured.  In that case each instance has to be checked individually, for example via
+     *         {@link #filterPermitted(PrincipalCollection, String, String, java.util.Collection) filterPermitted}.
+     * @since 1.0
+     */
+    public PermittedInstances getPermittedInstances(PrincipalCollection principals, String domain, String action) {
+        AuthorizationInfo info = getCompiledAuthorizationInfo(principals);
+        InstancePermissionMatcher matcher = getInstancePermissionMatcher(info, domain, action);
+        return matcher != null ? matcher.getPermittedInstances() : null;
+    }
+
+    private Permission toInstancePermission(String domain, String action, Object instanceId) {
+        return getPermissionResolver().resolvePermission(domain + ":" + action + ":" + instanceId);
+    }
+
     public boolean isPermittedAll(PrincipalCollection subjectIdentifier, String... permissions) {
         if (permissions != null && permissions.length > 0) {
             Collection<Permission> perms = new ArrayList<Permission>(permissions.length);
@@ -443,7 +1212,7 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
     }
 
     public boolean isPermittedAll(PrincipalCollection principal, Collection<Permission> permissions) {
-        AuthorizationInfo info = getAuthorizationInfo(principal);
+        AuthorizationInfo info = getCompiledAuthorizationInfo(principal);
         return info != null && isPermittedAll(permissions, info);
     }
 
@@ -470,7 +1239,7 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
     }
 
     public void checkPermission(PrincipalCollection principal, Permission permission) throws AuthorizationException {
-        AuthorizationInfo info = getAuthorizationInfo(principal);
+        AuthorizationInfo info = getCompiledAuthorizationInfo(principal);
         checkPermission(permission, info);
     }
 
@@ -496,7 +1265,7 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
     }
 
     public void checkPermissions(PrincipalCollection principal, Collection<Permission> permissions) throws AuthorizationException {
-        AuthorizationInfo info = getAuthorizationInfo(principal);
+        AuthorizationInfo info = getCompiledAuthorizationInfo(principal);
         checkPermissions(permissions, info);
     }
 
@@ -515,7 +1284,7 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
     }
 
     public boolean hasRole(PrincipalCollection principal, String roleIdentifier) {
-        AuthorizationInfo info = getAuthorizationInfo(principal);
+        AuthorizationInfo info = getCompiledAuthorizationInfo(principal);
         return hasRole(roleIdentifier, info);
     }
 
@@ -525,11 +1294,14 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
         if (info instanceof AuthorizingAccount) {
             return ((AuthorizingAccount) info).hasRole(roleIdentifier);
         }
+        if (info instanceof CompiledAuthorizationInfo) {
+            return ((CompiledAuthorizationInfo) info).hasRole(roleIdentifier);
+        }
         return info != null && info.getRoles() != null && info.getRoles().contains(roleIdentifier);
     }
 
     public boolean[] hasRoles(PrincipalCollection principal, List<String> roleIdentifiers) {
-        AuthorizationInfo info = getAuthorizationInfo(principal);
+        AuthorizationInfo info = getCompiledAuthorizationInfo(principal);
         boolean[] result = new boolean[roleIdentifiers != null ? roleIdentifiers.size() : 0];
         if (info != null) {
             result = hasRoles(roleIdentifiers, info);
@@ -559,7 +1331,7 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
     }
 
     public boolean hasAllRoles(PrincipalCollection principal, Collection<String> roleIdentifiers) {
-        AuthorizationInfo info = getAuthorizationInfo(principal);
+        AuthorizationInfo info = getCompiledAuthorizationInfo(principal);
         return info != null && hasAllRoles(roleIdentifiers, info);
     }
 
@@ -569,6 +1341,9 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
         if (info instanceof AuthorizingAccount) {
             return ((AuthorizingAccount) info).hasAllRoles(roleIdentifiers);
         }
+        if (info instanceof CompiledAuthorizationInfo) {
+            return ((CompiledAuthorizationInfo) info).hasAllRoles(roleIdentifiers);
+        }
 
         if (roleIdentifiers != null && !roleIdentifiers.isEmpty()) {
             for (String roleName : roleIdentifiers) {
@@ -581,7 +1356,7 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
     }
 
     public void checkRole(PrincipalCollection principal, String role) throws AuthorizationException {
-        AuthorizationInfo info = getAuthorizationInfo(principal);
+        AuthorizationInfo info = getCompiledAuthorizationInfo(principal);
         checkRole(role, info);
     }
 
@@ -599,7 +1374,7 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
     }
 
     public void checkRoles(PrincipalCollection principal, Collection<String> roles) throws AuthorizationException {
-        AuthorizationInfo info = getAuthorizationInfo(principal);
+        AuthorizationInfo info = getCompiledAuthorizationInfo(principal);
         checkRoles(roles, info);
     }
 
@@ -609,6 +1384,9 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
         if (info instanceof AuthorizingAccount) {
             ((AuthorizingAccount) info).checkRoles(roles);
         } else {
+            if (info instanceof CompiledAuthorizationInfo && ((CompiledAuthorizationInfo) info).hasAllRoles(roles)) {
+                return;
+            }
             if (roles != null && !roles.isEmpty()) {
                 for (String roleName : roles) {
                     checkRole(roleName, info);
@@ -625,6 +1403,7 @@ public abstract class AuthorizingRealm extends AuthenticatingRealm implements In
      * @param principals the application-specific Subject/user identifier.
      */
     public void onLogout(PrincipalCollection principals) {
+        super.onLogout(principals);
         clearCachedAuthorizationInfo(principals);
     }
 }
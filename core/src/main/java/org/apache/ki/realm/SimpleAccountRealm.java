@@ -18,10 +18,16 @@
  */
 package org.apache.ki.realm;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.ki.authc.Account;
 import org.apache.ki.authc.AuthenticationException;
@@ -32,10 +38,15 @@ import org.apache.ki.authc.LockedAccountException;
 import org.apache.ki.authc.SimpleAccount;
 import org.apache.ki.authc.UsernamePasswordToken;
 import org.apache.ki.authz.AuthorizationInfo;
-import org.apache.ki.authz.SimpleAuthorizingAccount;
+import org.apache.ki.authz.CompiledAuthorizationInfo;
+import org.apache.ki.authz.Permission;
+import org.apache.ki.authz.SimpleAuthorizationInfo;
 import org.apache.ki.authz.SimpleRole;
+import org.apache.ki.cache.Cache;
 import org.apache.ki.subject.PrincipalCollection;
 import org.apache.ki.util.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -48,6 +59,16 @@ import org.apache.ki.util.CollectionUtils;
  * determines if this class stores all data in memory or spools to disk or clusters it, etc based on the
  * Caches it creates.
  *
+ * <p>Each account's effective roles and permissions are compiled ahead of time, when the account is added or the
+ * realm's definitions are {@link #compilePermissionViews() recompiled}, rather than on each authorization check.
+ * The permissions of each distinct combination of roles are compiled into a single index once and shared by all
+ * accounts with that combination, so checks never have to consult the individual roles.</p>
+ *
+ * <p>Roles may {@link SimpleRole#getInheritedRoles() inherit} other roles.  The transitive closure of each role's
+ * inherited roles is computed during compilation as well:  an account effectively has all roles it was assigned plus
+ * all roles they inherit, and all of their permissions.  Inheritance cycles are rejected with an
+ * <code>IllegalStateException</code>.</p>
+ *
  * @author Jeremy Haile
  * @author Les Hazlewood
  * @since 0.1
@@ -56,8 +77,21 @@ public class SimpleAccountRealm extends AuthorizingRealm {
 
     //TODO - complete JavaDoc
 
+    private static final Logger log = LoggerFactory.getLogger(SimpleAccountRealm.class);
+
     protected Map<String, SimpleRole> roles = null;
 
+    /**
+     * The compiled views of all accounts.  Replaced as a whole when recompiled, so checks never observe a partially
+     * recompiled set of definitions.
+     */
+    private volatile PermissionViews permissionViews = new PermissionViews();
+
+    /**
+     * Guards the compilation of permission views.
+     */
+    private final Object permissionViewsLock = new Object();
+
     public SimpleAccountRealm() {
         init();
     }
@@ -98,13 +132,16 @@ public class SimpleAccountRealm extends AuthorizingRealm {
 
     public void addAccount(String username, String password, String... roles) {
         Set<String> roleNames = CollectionUtils.asSet(roles);
-        SimpleAccount account = new SimpleAuthorizingAccount(username, password, getName(), roleNames, null);
+        SimpleAccount account = new SimpleAccount(username, password, getName(), roleNames, null);
         add(account);
     }
 
     protected void add(SimpleAccount account) {
         Object key = getAuthorizationCacheKey(account.getPrincipals());
         getAuthorizationCache().put(key, account);
+        synchronized (permissionViewsLock) {
+            compileAccount(account, permissionViews);
+        }
     }
 
     protected SimpleRole getRole(String rolename) {
@@ -143,6 +180,157 @@ public class SimpleAccountRealm extends AuthorizingRealm {
     protected void accountAndRoleCachesCreated() {
     }
 
+    /**
+     * Compiles the effective roles and permissions of all accounts from the current account and role definitions,
+     * and then replaces the previously compiled views in a single step.  Until this method returns, checks continue
+     * to use the previous views.
+     * <p/>
+     * Accounts are compiled automatically when they are {@link #add(SimpleAccount) added}.  This method must be
+     * called after the permissions or inherited roles of existing roles, or the roles of existing accounts, have been
+     * changed.
+     *
+     * @throws IllegalStateException if the roles' inheritance contains a cycle, in which case the previously
+     *                               compiled views remain in effect.
+     * @since 1.0
+     */
+    public void compilePermissionViews() {
+        synchronized (permissionViewsLock) {
+            PermissionViews views = new PermissionViews();
+            if (roles != null) {
+                //resolve all inheritance up front, so that cycles are detected even if no account has the roles:
+                for (String roleName : roles.keySet()) {
+                    getRoleClosure(roleName, views, new LinkedList<String>());
+                }
+            }
+            Cache cache = getAuthorizationCache();
+            if (cache != null) {
+                for (Object value : cache.values()) {
+                    if (value instanceof SimpleAccount) {
+                        compileAccount((SimpleAccount) value, views);
+                    }
+                }
+            }
+            this.permissionViews = views;
+            if (log.isDebugEnabled()) {
+                log.debug("Compiled permission views for " + views.accounts.size() + " accounts sharing " +
+                        views.roleCombinations.size() + " distinct role combinations.");
+            }
+        }
+    }
+
+    /**
+     * Compiles the specified account against the role combinations in the specified views and registers the
+     * result with them.  Must be called while holding the <code>permissionViewsLock</code>.
+     */
+    private void compileAccount(SimpleAccount account, PermissionViews views) {
+        Object username = getUsername(account);
+        if (username == null) {
+            return;
+        }
+        Collection<String> roleNames = account.getRoles();
+        Set<String> roleCombination = roleNames != null && !roleNames.isEmpty() ?
+                new HashSet<String>(roleNames) : Collections.<String>emptySet();
+        RoleCombination combination = views.roleCombinations.get(roleCombination);
+        if (combination == null) {
+            combination = compileRoles(roleCombination, views);
+            views.roleCombinations.put(roleCombination, combination);
+        }
+
+        CompiledAuthorizationInfo compiled;
+        Collection<Permission> accountPermissions = resolvePermissions(account);
+        if (combination.permissions.containsAll(accountPermissions)) {
+            compiled = new CompiledAuthorizationInfo(account, combination.compiled);
+        } else {
+            //the account has permissions of its own in addition to those of its roles:
+            Set<Permission> permissions = new LinkedHashSet<Permission>(combination.permissions);
+            permissions.addAll(accountPermissions);
+            SimpleAuthorizationInfo info = new SimpleAuthorizationInfo(combination.roles);
+            compiled = new CompiledAuthorizationInfo(account,
+                    new CompiledAuthorizationInfo(info, permissions, getRoleRegistry()));
+        }
+        views.accounts.put(username, compiled);
+    }
+
+    private RoleCombination compileRoles(Set<String> roleNames, PermissionViews views) {
+        Set<String> effectiveRoles = new LinkedHashSet<String>();
+        for (String roleName : roleNames) {
+            effectiveRoles.addAll(getRoleClosure(roleName, views, new LinkedList<String>()));
+        }
+        Set<Permission> permissions = new LinkedHashSet<Permission>();
+        for (String roleName : effectiveRoles) {
+            SimpleRole role = roles != null ? getRole(roleName) : null;
+            if (role != null && role.getPermissions() != null) {
+                permissions.addAll(role.getPermissions());
+            }
+        }
+        SimpleAuthorizationInfo info = new SimpleAuthorizationInfo(effectiveRoles);
+        CompiledAuthorizationInfo compiled = new CompiledAuthorizationInfo(info, permissions, getRoleRegistry());
+        return new RoleCombination(effectiveRoles, permissions, compiled);
+    }
+
+    /**
+     * Returns the specified role's name together with the names of all roles it inherits from, directly or
+     * transitively, computing and retaining them in the specified views if necessary.
+     *
+     * @param roleName the name of the role.
+     * @param views    the views retaining the closures computed so far.
+     * @param path     the roles whose closures are currently being computed, used to detect cycles.
+     * @return the role's name together with the names of all roles it inherits from.
+     * @throws IllegalStateException if the role inherits from itself.
+     */
+    private Set<String> getRoleClosure(String roleName, PermissionViews views, LinkedList<String> path)
+            throws IllegalStateException {
+        Set<String> closure = views.roleClosures.get(roleName);
+        if (closure != null) {
+            return closure;
+        }
+        if (path.contains(roleName)) {
+            StringBuffer cycle = new StringBuffer();
+            for (String name : path.subList(path.indexOf(roleName), path.size())) {
+                cycle.append(name).append(" -> ");
+            }
+            cycle.append(roleName);
+            throw new IllegalStateException("Role inheritance cycle detected: " + cycle);
+        }
+        closure = new LinkedHashSet<String>();
+        closure.add(roleName);
+        SimpleRole role = roles != null ? getRole(roleName) : null;
+        Set<String> inherited = role != null ? role.getInheritedRoles() : null;
+        if (inherited != null && !inherited.isEmpty()) {
+            path.addLast(roleName);
+            for (String inheritedRole : inherited) {
+                closure.addAll(getRoleClosure(inheritedRole, views, path));
+            }
+            path.removeLast();
+        }
+        closure = Collections.unmodifiableSet(closure);
+        views.roleClosures.put(roleName, closure);
+        return closure;
+    }
+
+    private Object getUsername(SimpleAccount account) {
+        PrincipalCollection principals = account.getPrincipals();
+        if (principals == null) {
+            return null;
+        }
+        Collection realmPrincipals = principals.fromRealm(getName());
+        return realmPrincipals.isEmpty() ? null : realmPrincipals.iterator().next();
+    }
+
+    /**
+     * Returns the account's precompiled view if it is still current, and only compiles the info otherwise.
+     */
+    protected CompiledAuthorizationInfo compile(AuthorizationInfo info) {
+        if (info instanceof SimpleAccount) {
+            Object username = getUsername((SimpleAccount) info);
+            CompiledAuthorizationInfo compiled = username != null ? permissionViews.accounts.get(username) : null;
+            if (compiled != null && compiled.getSource() == info) {
+                return compiled;
+            }
+        }
+        return super.compile(info);
+    }
+
     protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) throws AuthenticationException {
         UsernamePasswordToken upToken = (UsernamePasswordToken) token;
         SimpleAccount account = (SimpleAccount) getAuthorizationCache().get(upToken.getUsername());
@@ -169,4 +357,32 @@ public class SimpleAccountRealm extends AuthorizingRealm {
     protected Object getAuthorizationCacheKey(PrincipalCollection principals) {
         return principals.fromRealm(getName()).iterator().next(); //returns the username
     }
-}
\ No newline at end of file
+
+    /**
+     * The effective roles and permissions of one distinct combination of assigned roles, compiled once and shared by
+     * all accounts having exactly that combination.
+     */
+    private static class RoleCombination {
+        private final Set<String> roles;
+        private final Set<Permission> permissions;
+        private final CompiledAuthorizationInfo compiled;
+
+        private RoleCombination(Set<String> roles, Set<Permission> permissions, CompiledAuthorizationInfo compiled) {
+            this.roles = roles;
+            this.permissions = permissions;
+            this.compiled = compiled;
+        }
+    }
+
+    /**
+     * One complete set of compiled views, published as a unit via the <code>permissionViews</code> field.
+     */
+    private static class PermissionViews {
+        private final ConcurrentMap<String, Set<String>> roleClosures =
+                new ConcurrentHashMap<String, Set<String>>();
+        private final ConcurrentMap<Set<String>, RoleCombination> roleCombinations =
+                new ConcurrentHashMap<Set<String>, RoleCombination>();
+        private final ConcurrentMap<Object, CompiledAuthorizationInfo> accounts =
+                new ConcurrentHashMap<Object, CompiledAuthorizationInfo>();
+    }
+}
@@ -18,13 +18,26 @@
  */
 package org.apache.ki.realm.jdbc;
 
+import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import javax.sql.DataSource;
 
 import org.slf4j.Logger;
@@ -39,9 +52,13 @@ import org.apache.ki.authc.UnknownAccountException;
 import org.apache.ki.authc.UsernamePasswordToken;
 import org.apache.ki.authz.AuthorizationException;
 import org.apache.ki.authz.AuthorizationInfo;
+import org.apache.ki.authz.Permission;
 import org.apache.ki.authz.SimpleAuthorizationInfo;
+import org.apache.ki.cache.Cache;
+import org.apache.ki.cache.CacheManager;
 import org.apache.ki.realm.AuthorizingRealm;
 import org.apache.ki.subject.PrincipalCollection;
+import org.apache.ki.subject.SimplePrincipalCollection;
 import org.apache.ki.util.JdbcUtils;
 
 
@@ -57,10 +74,18 @@ import org.apache.ki.util.JdbcUtils;
  * of authentication and authorization cannot handle your schema, this class can be subclassed and the
  * appropriate methods overridden. (usually {@link #doGetAuthenticationInfo(org.apache.ki.authc.AuthenticationToken)},
  * {@link #getRoleNamesForUser(java.sql.Connection,String)}, and/or {@link #getPermissions(java.sql.Connection,String,java.util.Collection)}
+ * - or {@link #getPermissionsByRole(java.sql.Connection,java.util.Collection)} if role caching is enabled, see below)
  * </p>
  *
  * <p>
- * This realm supports caching by extending from {@link org.apache.ki.realm.AuthorizingRealm}.
+ * This realm supports caching by extending from {@link org.apache.ki.realm.AuthorizingRealm}.  In addition, if
+ * {@link #setRoleCachingEnabled(boolean) roleCachingEnabled} is set, it caches each user's role names and each role's
+ * permissions separately, so that the permissions of a role are read once for all users sharing it.  Since cached
+ * permissions belong to a role rather than to a user, they are read via
+ * {@link #getPermissionsByRole(java.sql.Connection,java.util.Collection) getPermissionsByRole}, so a subclass that
+ * customizes permission lookup must override that method instead of <code>getPermissions</code>.  These caches
+ * can be {@link #setWarmUpEnabled(boolean) filled in bulk} when the realm's caches are created, and kept current via
+ * a periodic {@link #setRefreshIntervalSeconds(int) incremental refresh}.
  * </p>
  *
  * @author Jeremy Haile
@@ -88,8 +113,52 @@ public class JdbcRealm extends AuthorizingRealm {
      */
     protected static final String DEFAULT_PERMISSIONS_QUERY = "select permission from roles_permissions where role_name = ?";
 
+    /**
+     * A query retrieving a user's roles and the permissions of these roles at once, suitable for the schema implied by
+     * the default queries.
+     *
+     * @see #setUserRolesPermissionsQuery(String)
+     * @since 1.0
+     */
+    public static final String DEFAULT_USER_ROLES_PERMISSIONS_QUERY = "select ur.role_name, rp.permission " +
+            "from user_roles ur left outer join roles_permissions rp on ur.role_name = rp.role_name " +
+            "where ur.username = ?";
+
+    /**
+     * The default query used to retrieve the roles of all users during a {@link #warmUp() warm-up}.
+     */
+    protected static final String DEFAULT_ALL_USER_ROLES_QUERY =
+            "select username, role_name from user_roles order by username";
+
+    /**
+     * The default query used to retrieve the permissions of all roles during a {@link #warmUp() warm-up}.
+     */
+    protected static final String DEFAULT_ALL_ROLES_PERMISSIONS_QUERY =
+            "select role_name, permission from roles_permissions order by role_name";
+
+    /**
+     * The default number of rows fetched per round trip by the {@link #warmUp() warm-up} queries.
+     */
+    protected static final int DEFAULT_WARM_UP_FETCH_SIZE = 1000;
+
+    /**
+     * The default time in milliseconds by which each {@link #refresh() refresh} looks back before the start of the
+     * previous one (1 minute).
+     */
+    public static final long DEFAULT_REFRESH_OVERLAP = 60 * 1000;
+
     private static final Logger log = LoggerFactory.getLogger(JdbcRealm.class);
 
+    /**
+     * The postfix appended to the realm name for the cache of each user's role names.
+     */
+    private static final String USER_ROLES_CACHE_POSTFIX = "-userRoles";
+
+    /**
+     * The postfix appended to the realm name for the cache of each role's permissions.
+     */
+    private static final String ROLE_PERMISSIONS_CACHE_POSTFIX = "-rolePermissions";
+
     /*--------------------------------------------
     |    I N S T A N C E   V A R I A B L E S    |
     ============================================*/
@@ -101,8 +170,74 @@ public class JdbcRealm extends AuthorizingRealm {
 
     protected String permissionsQuery = DEFAULT_PERMISSIONS_QUERY;
 
+    protected String userRolesPermissionsQuery = null;
+
     protected boolean permissionsLookupEnabled = false;
 
+    protected boolean roleCachingEnabled = false;
+
+    private long userRolesCacheTimeToLive = 0;
+
+    private long rolePermissionsCacheTimeToLive = 0;
+
+    protected boolean warmUpEnabled = false;
+
+    protected String allUserRolesQuery = DEFAULT_ALL_USER_ROLES_QUERY;
+
+    protected String allRolesPermissionsQuery = DEFAULT_ALL_ROLES_PERMISSIONS_QUERY;
+
+    protected int warmUpFetchSize = DEFAULT_WARM_UP_FETCH_SIZE;
+
+    protected String changedUsersQuery = null;
+
+    protected String changedRolesQuery = null;
+
+    protected int refreshIntervalSeconds = 0;
+
+    protected String currentTimestampQuery = null;
+
+    private long refreshOverlap = DEFAULT_REFRESH_OVERLAP;
+
+    /**
+     * Runs the periodic {@link #refresh() refresh}, if enabled.  Guarded by <code>this</code>.
+     */
+    private ScheduledExecutorService refreshScheduler = null;
+
+    /**
+     * Start time of the last successful warm-up or refresh, passed to the queries of the next refresh less the
+     * {@link #setRefreshOverlap(long) refreshOverlap}.  Taken from the database if a
+     * {@link #setCurrentTimestampQuery(String) currentTimestampQuery} is set.
+     */
+    private volatile long lastRefreshTime = 0;
+
+    /**
+     * The CacheManager whose role caches were last warmed up automatically, so that they are warmed up only once.
+     * Guarded by <code>this</code>.
+     */
+    private CacheManager warmedUpCacheManager = null;
+
+    /**
+     * Each user's role names, keyed by username.  Created on first use if role caching is enabled.
+     */
+    private Cache userRolesCache = null;
+
+    /**
+     * Each role's resolved permissions, keyed by role name.  Created on first use if role caching is enabled.
+     */
+    private Cache rolePermissionsCache = null;
+
+    /**
+     * Role name loads in progress, keyed by username.  A load's entry is removed when the user's cached role names
+     * are cleared, so that role names read before the clear are not left in the cache.
+     */
+    private final ConcurrentMap<String, Object> userRolesLoads = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * Role permission loads in progress, keyed by role name.  A load's entry is removed when the role's cached
+     * permissions are cleared, so that permissions read before the clear are not left in the cache.
+     */
+    private final ConcurrentMap<String, Object> rolePermissionsLoads = new ConcurrentHashMap<String, Object>();
+
     /*--------------------------------------------
     |         C O N S T R U C T O R S           |
     ============================================*/
@@ -168,6 +303,28 @@ public class JdbcRealm extends AuthorizingRealm {
         this.permissionsQuery = permissionsQuery;
     }
 
+    /**
+     * Sets a query retrieving a user's roles together with their permissions, so that authorization data is loaded
+     * in a single round trip instead of one query for the roles plus one per role for its permissions.  The query must
+     * take the user's username as a single parameter and return a row per role and permission, with the role name in
+     * the first and the permission (or <code>null</code> for a role without permissions) in the second column.  For
+     * the default schema, {@link #DEFAULT_USER_ROLES_PERMISSIONS_QUERY} can be used:
+     * <pre>
+     * select ur.role_name, rp.permission
+     * from user_roles ur left outer join roles_permissions rp on ur.role_name = rp.role_name
+     * where ur.username = ?</pre>
+     * <p/>
+     * The query is only used if {@link #setPermissionsLookupEnabled(boolean) permissionsLookupEnabled} is set, and
+     * takes the place of the {@link #setUserRolesQuery(String) userRolesQuery} and
+     * {@link #setPermissionsQuery(String) permissionsQuery} in that case.  It is <code>null</code> by default.
+     *
+     * @param userRolesPermissionsQuery the query to use for retrieving a user's roles and their permissions.
+     * @since 1.0
+     */
+    public void setUserRolesPermissionsQuery(String userRolesPermissionsQuery) {
+        this.userRolesPermissionsQuery = userRolesPermissionsQuery;
+    }
+
     /**
      * Enables lookup of permissions during authorization.  The default is "false" - meaning that only roles
      * are associated with a user.  Set this to true in order to lookup roles <b>and</b> permissions.
@@ -179,6 +336,197 @@ public class JdbcRealm extends AuthorizingRealm {
         this.permissionsLookupEnabled = permissionsLookupEnabled;
     }
 
+    /**
+     * Enables two-tier caching of authorization data:  each user's role names are cached by username, and each
+     * role's permissions - already resolved via the {@link #getPermissionResolver() permissionResolver} - are cached
+     * by role name and shared by all users with that role.  Loading a user's AuthorizationInfo then only queries the
+     * roles of users and the permissions of roles not found in these caches, so the database load after a cold start
+     * is proportional to the number of users plus the number of roles instead of their product.
+     * <p/>
+     * Both caches are created via the {@link #setCacheManager(org.apache.ki.cache.CacheManager) cacheManager}; role
+     * caching has no effect if none is configured.  While enabled, the
+     * {@link #setUserRolesPermissionsQuery(String) userRolesPermissionsQuery} is not used, and role permissions are
+     * read via {@link #getPermissionsByRole(java.sql.Connection,java.util.Collection) getPermissionsByRole} rather
+     * than {@link #getPermissions(java.sql.Connection,String,java.util.Collection) getPermissions}.  Defaults to
+     * <code>false</code>.
+     *
+     * @param roleCachingEnabled true if role names and role permissions should be cached separately.
+     * @see #clearCachedUserRoles(String)
+     * @see #clearCachedRolePermissions(String)
+     * @since 1.0
+     */
+    public void setRoleCachingEnabled(boolean roleCachingEnabled) {
+        this.roleCachingEnabled = roleCachingEnabled;
+    }
+
+    /**
+     * Enables filling the role name and role permission caches in bulk whenever this realm's caches are created, that
+     * is once its {@link #setCacheManager(org.apache.ki.cache.CacheManager) cacheManager} is set, or when the realm
+     * is {@link #init() initialized} if it was not fully configured at that point.  Instead of a query per user on
+     * the first request after a restart, the {@link #setAllUserRolesQuery(String) allUserRolesQuery} and
+     * {@link #setAllRolesPermissionsQuery(String) allRolesPermissionsQuery} stream all rows in
+     * {@link #setWarmUpFetchSize(int) warmUpFetchSize} chunks.  Only takes effect if
+     * {@link #setRoleCachingEnabled(boolean) roleCachingEnabled} is set.  Defaults to <code>false</code>.
+     *
+     * @param warmUpEnabled true if the caches should be filled in bulk when they are created.
+     * @see #warmUp()
+     * @since 1.0
+     */
+    public void setWarmUpEnabled(boolean warmUpEnabled) {
+        this.warmUpEnabled = warmUpEnabled;
+    }
+
+    /**
+     * Overrides the query retrieving the roles of all users during a {@link #warmUp() warm-up}.  It must not take any
+     * parameters and must return a row per user and role, with the username in the first and the role name in the
+     * second column.  The rows should be ordered by username, so that each user's roles can be cached as soon as
+     * they have been read.
+     *
+     * @param allUserRolesQuery the query to use for retrieving the roles of all users.
+     * @see #DEFAULT_ALL_USER_ROLES_QUERY
+     * @since 1.0
+     */
+    public void setAllUserRolesQuery(String allUserRolesQuery) {
+        this.allUserRolesQuery = allUserRolesQuery;
+    }
+
+    /**
+     * Overrides the query retrieving the permissions of all roles during a {@link #warmUp() warm-up}.  It must not
+     * take any parameters and must return a row per role and permission, with the role name in the first and the
+     * permission in the second column.  The rows should be ordered by role name, so that each role's permissions can
+     * be cached as soon as they have been read.  Only used if {@link #setPermissionsLookupEnabled(boolean)
+     * permissionsLookupEnabled} is set.
+     *
+     * @param allRolesPermissionsQuery the query to use for retrieving the permissions of all roles.
+     * @see #DEFAULT_ALL_ROLES_PERMISSIONS_QUERY
+     * @since 1.0
+     */
+    public void setAllRolesPermissionsQuery(String allRolesPermissionsQuery) {
+        this.allRolesPermissionsQuery = allRolesPermissionsQuery;
+    }
+
+    /**
+     * Sets the number of rows the JDBC driver is asked to fetch per round trip during a {@link #warmUp() warm-up}.
+     * The rows are put into the caches as they are read, so that large tables are streamed rather than read into
+     * memory at once; only the usernames and role names read so far are retained.
+     *
+     * @param warmUpFetchSize the number of rows to fetch per round trip.
+     * @see #DEFAULT_WARM_UP_FETCH_SIZE
+     * @since 1.0
+     */
+    public void setWarmUpFetchSize(int warmUpFetchSize) {
+        if (warmUpFetchSize < 1) {
+            throw new IllegalArgumentException("warmUpFetchSize must be greater than zero.");
+        }
+        this.warmUpFetchSize = warmUpFetchSize;
+    }
+
+    /**
+     * Sets the query returning the users whose roles changed since the last {@link #refresh() refresh}.  It must take
+     * a single <code>Timestamp</code> parameter and return the usernames in the first column, for example
+     * <code>select username from users where roles_modified &gt;= ?</code>.  <code>null</code> (the default) disables
+     * refreshing users.
+     *
+     * @param changedUsersQuery the query to use for retrieving the users whose roles changed.
+     * @since 1.0
+     */
+    public void setChangedUsersQuery(String changedUsersQuery) {
+        this.changedUsersQuery = changedUsersQuery;
+    }
+
+    /**
+     * Sets the query returning the roles whose permissions changed since the last {@link #refresh() refresh}.  It
+     * must take a single <code>Timestamp</code> parameter and return the role names in the first column, for example
+     * <code>select role_name from roles where permissions_modified &gt;= ?</code>.  <code>null</code> (the default)
+     * disables refreshing roles.
+     *
+     * @param changedRolesQuery the query to use for retrieving the roles whose permissions changed.
+     * @since 1.0
+     */
+    public void setChangedRolesQuery(String changedRolesQuery) {
+        this.changedRolesQuery = changedRolesQuery;
+    }
+
+    /**
+     * Sets the interval in seconds at which a background thread {@link #refresh() refreshes} the role name and role
+     * permission caches.  The thread is started once this realm's caches are created, or when the realm is
+     * {@link #init() initialized} if it was not fully configured at that point, and stopped when the realm is
+     * {@link #destroy() destroyed}.  Zero or less (the default) disables periodic refreshes.
+     *
+     * @param refreshIntervalSeconds the interval in seconds at which the caches are refreshed.
+     * @since 1.0
+     */
+    public void setRefreshIntervalSeconds(int refreshIntervalSeconds) {
+        this.refreshIntervalSeconds = refreshIntervalSeconds;
+    }
+
+    /**
+     * Sets a query returning the current time of the database, for example <code>select current_timestamp</code>.
+     * If set, the start time of each warm-up and {@link #refresh() refresh}, which is passed to the
+     * {@link #setChangedUsersQuery(String) changedUsersQuery} and {@link #setChangedRolesQuery(String)
+     * changedRolesQuery} of the next refresh, is read from the database, so that it is comparable to the modification
+     * times stored there even if the clocks of the database and of this application differ.  It must not take any
+     * parameters and must return the time as a timestamp in the first column.  <code>null</code> (the default) uses
+     * the time of this application.
+     *
+     * @param currentTimestampQuery the query to use for retrieving the current time of the database.
+     * @since 1.0
+     */
+    public void setCurrentTimestampQuery(String currentTimestampQuery) {
+        this.currentTimestampQuery = currentTimestampQuery;
+    }
+
+    /**
+     * Returns the time in milliseconds by which each {@link #refresh() refresh} looks back before the start of the
+     * previous warm-up or refresh, so that changes committed with an earlier modification time while that one was
+     * running, or recorded by a clock lagging behind, are not missed.  Changes within the overlap are simply loaded
+     * twice.
+     *
+     * @return the time in milliseconds by which each refresh looks back before the start of the previous one.
+     * @see #DEFAULT_REFRESH_OVERLAP
+     * @since 1.0
+     */
+    public long getRefreshOverlap() {
+        return refreshOverlap;
+    }
+
+    public void setRefreshOverlap(long refreshOverlap) {
+        if (refreshOverlap < 0) {
+            throw new IllegalArgumentException("refreshOverlap cannot be negative.");
+        }
+        this.refreshOverlap = refreshOverlap;
+    }
+
+    /**
+     * Returns the age in milliseconds after which a user's cached role names are read again from the database.  A
+     * value of <code>0</code> (the default) means no limit.
+     *
+     * @return the age in milliseconds after which a user's cached role names are no longer used.
+     * @since 1.0
+     */
+    public long getUserRolesCacheTimeToLive() {
+        return userRolesCacheTimeToLive;
+    }
+
+    public void setUserRolesCacheTimeToLive(long userRolesCacheTimeToLive) {
+        this.userRolesCacheTimeToLive = userRolesCacheTimeToLive;
+    }
+
+    /**
+     * Returns the age in milliseconds after which a role's cached permissions are read again from the database.  A
+     * value of <code>0</code> (the default) means no limit.
+     *
+     * @return the age in milliseconds after which a role's cached permissions are no longer used.
+     * @since 1.0
+     */
+    public long getRolePermissionsCacheTimeToLive() {
+        return rolePermissionsCacheTimeToLive;
+    }
+
+    public void setRolePermissionsCacheTimeToLive(long rolePermissionsCacheTimeToLive) {
+        this.rolePermissionsCacheTimeToLive = rolePermissionsCacheTimeToLive;
+    }
+
     /*--------------------------------------------
     |               M E T H O D S               |
     ============================================*/
@@ -274,6 +622,10 @@ public class JdbcRealm extends AuthorizingRealm {
 
         String username = (String) principals.fromRealm(getName()).iterator().next();
 
+        if (roleCachingEnabled && getCacheManager() != null) {
+            return getCachedAuthorizationInfo(username);
+        }
+
         Connection conn = null;
         Set<String> roleNames = null;
         Set<String> permissions = null;
@@ -281,9 +633,15 @@ public class JdbcRealm extends AuthorizingRealm {
             conn = dataSource.getConnection();
 
             // Retrieve roles and permissions from database
-            roleNames = getRoleNamesForUser(conn, username);
-            if( permissionsLookupEnabled ) {
-                permissions = getPermissions(conn, username, roleNames);
+            if (permissionsLookupEnabled && userRolesPermissionsQuery != null) {
+                roleNames = new LinkedHashSet<String>();
+                permissions = new LinkedHashSet<String>();
+                getRolesAndPermissionsForUser(conn, username, roleNames, permissions);
+            } else {
+                roleNames = getRoleNamesForUser(conn, username);
+                if( permissionsLookupEnabled ) {
+                    permissions = getPermissions(conn, username, roleNames);
+                }
             }
 
         } catch (SQLException e) {
@@ -304,6 +662,598 @@ public class JdbcRealm extends AuthorizingRealm {
 
     }
 
+    /**
+     * Builds the user's AuthorizationInfo from the role name and role permission caches, querying the database only
+     * for data missing from them.
+     */
+    private AuthorizationInfo getCachedAuthorizationInfo(String username) {
+        Connection conn = null;
+        try {
+            Cache userRoles = getUserRolesCache();
+            Set<String> roleNames = getCachedValue(userRoles, username, userRolesCacheTimeToLive);
+            if (roleNames == null) {
+                Object load = new Object();
+                userRolesLoads.put(username, load);
+                try {
+                    conn = dataSource.getConnection();
+                    roleNames = getRoleNamesForUser(conn, username);
+                    putLoadedValue(userRoles, userRolesLoads, username, load, roleNames);
+                } finally {
+                    userRolesLoads.remove(username, load);
+                }
+            }
+
+            SimpleAuthorizationInfo info = new SimpleAuthorizationInfo(roleNames);
+            if (permissionsLookupEnabled) {
+                Cache rolePermissions = getRolePermissionsCache();
+                Set<Permission> permissions = new LinkedHashSet<Permission>();
+                List<String> uncachedRoleNames = new ArrayList<String>();
+                for (String roleName : roleNames) {
+                    Set<Permission> cached = getCachedValue(rolePermissions, roleName, rolePermissionsCacheTimeToLive);
+                    if (cached != null) {
+                        permissions.addAll(cached);
+                    } else {
+                        uncachedRoleNames.add(roleName);
+                    }
+                }
+
+                if (!uncachedRoleNames.isEmpty()) {
+                    Object load = new Object();
+                    for (String roleName : uncachedRoleNames) {
+                        rolePermissionsLoads.put(roleName, load);
+                    }
+                    try {
+                        if (conn == null) {
+                            conn = dataSource.getConnection();
+                        }
+                        Map<String, Set<String>> loaded = getPermissionsByRole(conn, uncachedRoleNames);
+                        for (Map.Entry<String, Set<String>> entry : loaded.entrySet()) {
+                            Set<Permission> resolved = resolvePermissions(entry.getValue());
+                            putLoadedValue(rolePermissions, rolePermissionsLoads, entry.getKey(), load, resolved);
+                            permissions.addAll(resolved);
+                        }
+                    } finally {
+                        for (String roleName : uncachedRoleNames) {
+                            rolePermissionsLoads.remove(roleName, load);
+                        }
+                    }
+                }
+                info.setObjectPermissions(permissions);
+            }
+            return info;
+
+        } catch (SQLException e) {
+            final String message = "There was a SQL error while authorizing user [" + username + "]";
+            if (log.isErrorEnabled()) {
+                log.error(message, e);
+            }
+
+            // Rethrow any SQL errors as an authorization exception
+            throw new AuthorizationException(message, e);
+        } finally {
+            JdbcUtils.closeConnection(conn);
+        }
+    }
+
+    private Set<Permission> resolvePermissions(Set<String> permissionStrings) {
+        Set<Permission> permissions = new LinkedHashSet<Permission>();
+        for (String permissionString : permissionStrings) {
+            if (permissionString != null) {
+                permissions.add(getPermissionResolver().resolvePermission(permissionString));
+            }
+        }
+        return permissions;
+    }
+
+    /**
+     * Caches a value read from the database, unless it was cleared while being read and might therefore be outdated.
+     */
+    private static <T> void putLoadedValue(Cache cache, ConcurrentMap<String, Object> loads, String key, Object load,
+                                           T value) {
+        cache.put(key, new CachedValue<T>(value));
+        if (loads.get(key) != load) {
+            cache.remove(key);
+        }
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private <T> T getCachedValue(Cache cache, String key, long timeToLive) {
+        CachedValue<T> cached = (CachedValue<T>) cache.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (timeToLive > 0 && System.currentTimeMillis() - cached.creationTime >= timeToLive) {
+            cache.remove(key);
+            return null;
+        }
+        return cached.value;
+    }
+
+    private synchronized Cache getUserRolesCache() {
+        if (userRolesCache == null) {
+            userRolesCache = createRoleCache(USER_ROLES_CACHE_POSTFIX);
+        }
+        return userRolesCache;
+    }
+
+    private synchronized Cache getRolePermissionsCache() {
+        if (rolePermissionsCache == null) {
+            rolePermissionsCache = createRoleCache(ROLE_PERMISSIONS_CACHE_POSTFIX);
+        }
+        return rolePermissionsCache;
+    }
+
+    private Cache createRoleCache(String postfix) {
+        CacheManager cacheManager = getCacheManager();
+        String cacheName = getName() + postfix;
+        if (log.isDebugEnabled()) {
+            log.debug("CacheManager [" + cacheManager + "] has been configured.  Building cache named [" +
+                    cacheName + "]");
+        }
+        return cacheManager.getCache(cacheName);
+    }
+
+    protected void afterCacheManagerSet() {
+        synchronized (this) {
+            this.userRolesCache = null;
+            this.rolePermissionsCache = null;
+        }
+        super.afterCacheManagerSet();
+    }
+
+    /**
+     * Performs the {@link #setWarmUpEnabled(boolean) warm-up} and starts the
+     * {@link #setRefreshIntervalSeconds(int) periodic refresh}, if enabled.
+     */
+    protected void afterAuthorizationCacheSet() {
+        super.afterAuthorizationCacheSet();
+        startRoleCaches(false);
+    }
+
+    /**
+     * Performs the {@link #setWarmUpEnabled(boolean) warm-up} and starts the
+     * {@link #setRefreshIntervalSeconds(int) periodic refresh}, if enabled and not done yet because the realm was
+     * configured after its cacheManager was set.
+     */
+    protected void afterInit() {
+        super.afterInit();
+        startRoleCaches(true);
+    }
+
+    private void startRoleCaches(boolean configured) {
+        if (!warmUpEnabled && refreshIntervalSeconds <= 0) {
+            return;
+        }
+        CacheManager cacheManager = getCacheManager();
+        if (!roleCachingEnabled || dataSource == null || cacheManager == null) {
+            if (configured && log.isWarnEnabled()) {
+                log.warn("The warm-up and periodic refresh of realm [" + getName() + "] require roleCachingEnabled, " +
+                        "a dataSource and a cacheManager.  Skipping them.");
+            } else if (log.isDebugEnabled()) {
+                log.debug("Realm [" + getName() + "] is not fully configured yet.  Deferring the warm-up and " +
+                        "periodic refresh until it is initialized.");
+            }
+            return;
+        }
+        boolean warmUp;
+        synchronized (this) {
+            warmUp = warmUpEnabled && warmedUpCacheManager != cacheManager;
+            warmedUpCacheManager = cacheManager;
+        }
+        if (warmUp) {
+            try {
+                warmUp();
+            } catch (AuthorizationException e) {
+                if (log.isErrorEnabled()) {
+                    log.error("Unable to warm up the role caches of realm [" + getName() + "].  Authorization data " +
+                            "will be loaded on demand.", e);
+                }
+            }
+        }
+        startRefreshThread();
+    }
+
+    /**
+     * Fills the role name and role permission caches with the data of all users and roles, using a single query for
+     * each.  Does nothing unless {@link #setRoleCachingEnabled(boolean) roleCachingEnabled} is set and a
+     * {@link #setCacheManager(org.apache.ki.cache.CacheManager) cacheManager} is configured.
+     *
+     * @throws AuthorizationException if a query fails.
+     * @since 1.0
+     */
+    public void warmUp() throws AuthorizationException {
+        if (!roleCachingEnabled || getCacheManager() == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            long cutoff = getCurrentTime(conn);
+
+            final Cache userRoles = getUserRolesCache();
+            final Set<String> usernames = new HashSet<String>();
+            final Set<String> knownRoleNames = new HashSet<String>();
+            queryGroups(conn, allUserRolesQuery, null, new GroupHandler() {
+                public void handleGroup(String username, Set<String> roleNames) {
+                    if (!usernames.add(username)) {
+                        //the rows aren't ordered by username - add the roles cached earlier during this warm-up:
+                        Set<String> earlier = getCachedValue(userRoles, username, 0);
+                        if (earlier != null) {
+                            roleNames.addAll(earlier);
+                        }
+                    }
+                    userRoles.put(username, new CachedValue<Set<String>>(roleNames));
+                    knownRoleNames.addAll(roleNames);
+                }
+            });
+
+            int roleCount = 0;
+            if (permissionsLookupEnabled) {
+                final Cache rolePermissions = getRolePermissionsCache();
+                final Set<String> roleNames = new HashSet<String>();
+                queryGroups(conn, allRolesPermissionsQuery, null, new GroupHandler() {
+                    public void handleGroup(String roleName, Set<String> permissionStrings) {
+                        Set<Permission> resolved = resolvePermissions(permissionStrings);
+                        if (!roleNames.add(roleName)) {
+                            //the rows aren't ordered by role name - add the permissions cached earlier:
+                            Set<Permission> earlier = getCachedValue(rolePermissions, roleName, 0);
+                            if (earlier != null) {
+                                resolved.addAll(earlier);
+                            }
+                        }
+                        rolePermissions.put(roleName, new CachedValue<Set<Permission>>(resolved));
+                    }
+                });
+                //roles without any permissions don't appear in the query results, but are known as well:
+                for (String roleName : knownRoleNames) {
+                    if (roleNames.add(roleName)) {
+                        rolePermissions.put(roleName, new CachedValue<Set<Permission>>(new LinkedHashSet<Permission>()));
+                    }
+                }
+                roleCount = roleNames.size();
+            }
+
+            lastRefreshTime = cutoff;
+            if (log.isInfoEnabled()) {
+                log.info("Warmed up realm [" + getName() + "] with the roles of " + usernames.size() + " users " +
+                        "and the permissions of " + roleCount + " roles in " +
+                        (System.currentTimeMillis() - start) + " milliseconds.");
+            }
+        } catch (SQLException e) {
+            final String message = "There was a SQL error while warming up the role caches";
+            if (log.isErrorEnabled()) {
+                log.error(message, e);
+            }
+            throw new AuthorizationException(message, e);
+        } finally {
+            JdbcUtils.closeConnection(conn);
+        }
+    }
+
+    /**
+     * Reloads the role names of the users returned by the {@link #setChangedUsersQuery(String) changedUsersQuery}
+     * and the permissions of the roles returned by the {@link #setChangedRolesQuery(String) changedRolesQuery}, both
+     * called with the start time of the previous warm-up or refresh less the {@link #setRefreshOverlap(long)
+     * refreshOverlap}, and discards the cached AuthorizationInfo of
+     * the affected users.  Does nothing unless {@link #setRoleCachingEnabled(boolean) roleCachingEnabled} is set and
+     * a {@link #setCacheManager(org.apache.ki.cache.CacheManager) cacheManager} is configured.
+     *
+     * @throws AuthorizationException if a query fails.
+     * @since 1.0
+     */
+    public void refresh() throws AuthorizationException {
+        if (!roleCachingEnabled || getCacheManager() == null) {
+            return;
+        }
+        Timestamp since = new Timestamp(Math.max(0, lastRefreshTime - refreshOverlap));
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            long start = getCurrentTime(conn);
+
+            if (changedUsersQuery != null) {
+                Set<String> usernames = queryKeys(conn, changedUsersQuery, since);
+                Cache userRoles = getUserRolesCache();
+                for (String username : usernames) {
+                    clearCachedAuthorizationInfo(new SimplePrincipalCollection(username, getName()));
+                    userRoles.put(username, new CachedValue<Set<String>>(getRoleNamesForUser(conn, username)));
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Refreshed the roles of " + usernames.size() + " users in realm [" + getName() + "]");
+                }
+            }
+
+            if (permissionsLookupEnabled && changedRolesQuery != null) {
+                Set<String> roleNames = queryKeys(conn, changedRolesQuery, since);
+                Map<String, Set<String>> loaded = getPermissionsByRole(conn, roleNames);
+                Cache rolePermissions = getRolePermissionsCache();
+                for (Map.Entry<String, Set<String>> entry : loaded.entrySet()) {
+                    Set<Permission> resolved = resolvePermissions(entry.getValue());
+                    //loads started before this refresh might still put outdated permissions:
+                    rolePermissionsLoads.remove(entry.getKey());
+                    rolePermissions.put(entry.getKey(), new CachedValue<Set<Permission>>(resolved));
+                    clearCachedAuthorizationInfoWithRole(entry.getKey());
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Refreshed the permissions of " + loaded.size() + " roles in realm [" + getName() + "]");
+                }
+            }
+
+            lastRefreshTime = start;
+        } catch (SQLException e) {
+            final String message = "There was a SQL error while refreshing the role caches";
+            if (log.isErrorEnabled()) {
+                log.error(message, e);
+            }
+            throw new AuthorizationException(message, e);
+        } finally {
+            JdbcUtils.closeConnection(conn);
+        }
+    }
+
+    /**
+     * Returns the current time of the database if a {@link #setCurrentTimestampQuery(String) currentTimestampQuery}
+     * is set, otherwise the current time of this application.
+     */
+    private long getCurrentTime(Connection conn) throws SQLException {
+        if (currentTimestampQuery == null) {
+            return System.currentTimeMillis();
+        }
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = conn.prepareStatement(currentTimestampQuery);
+            rs = ps.executeQuery();
+            Timestamp now = rs.next() ? rs.getTimestamp(1) : null;
+            if (now == null) {
+                throw new SQLException("The currentTimestampQuery [" + currentTimestampQuery + "] did not return " +
+                        "a timestamp.");
+            }
+            return now.getTime();
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(ps);
+        }
+    }
+
+    /**
+     * Receives the rows of a query grouped by the value of their first column, see {@link #queryGroups}.
+     */
+    private interface GroupHandler {
+        void handleGroup(String key, Set<String> values);
+    }
+
+    /**
+     * Executes the specified query, optionally with a single timestamp parameter, and passes each run of consecutive
+     * rows with the same value in the first column to the handler, together with the values of the (optional)
+     * second column, while iterating the results.  A key appears more than once if the rows are not ordered by it.
+     */
+    private void queryGroups(Connection conn, String query, Timestamp since, GroupHandler handler)
+            throws SQLException {
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            ps = conn.prepareStatement(query);
+            ps.setFetchSize(warmUpFetchSize);
+            if (since != null) {
+                ps.setTimestamp(1, since);
+            }
+
+            // Execute query
+            rs = ps.executeQuery();
+            boolean twoColumns = rs.getMetaData().getColumnCount() > 1;
+
+            String currentKey = null;
+            Set<String> values = null;
+            while (rs.next()) {
+                String key = rs.getString(1);
+                if (key == null) {
+                    continue;
+                }
+                if (!key.equals(currentKey)) {
+                    if (currentKey != null) {
+                        handler.handleGroup(currentKey, values);
+                    }
+                    currentKey = key;
+                    values = new LinkedHashSet<String>();
+                }
+                String value = twoColumns ? rs.getString(2) : null;
+                if (value != null) {
+                    values.add(value);
+                }
+            }
+            if (currentKey != null) {
+                handler.handleGroup(currentKey, values);
+            }
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(ps);
+        }
+    }
+
+    /**
+     * Executes the specified query with a single timestamp parameter and returns the distinct values of the first
+     * column.
+     */
+    private Set<String> queryKeys(Connection conn, String query, Timestamp since) throws SQLException {
+        final Set<String> keys = new LinkedHashSet<String>();
+        queryGroups(conn, query, since, new GroupHandler() {
+            public void handleGroup(String key, Set<String> values) {
+                keys.add(key);
+            }
+        });
+        return keys;
+    }
+
+    private synchronized void startRefreshThread() {
+        if (refreshScheduler != null || refreshIntervalSeconds <= 0 ||
+                (changedUsersQuery == null && changedRolesQuery == null)) {
+            return;
+        }
+        if (lastRefreshTime == 0) {
+            lastRefreshTime = getInitialRefreshTime();
+        }
+        final String threadName = getName() + "-refresh";
+        refreshScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        refreshScheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    refresh();
+                } catch (Exception e) {
+                    if (log.isErrorEnabled()) {
+                        log.error("Error while refreshing the role caches of realm [" + getName() + "].", e);
+                    }
+                }
+            }
+        }, refreshIntervalSeconds, refreshIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the time from which the first refresh looks for changes if no warm-up has been performed.
+     */
+    private long getInitialRefreshTime() {
+        if (currentTimestampQuery == null) {
+            return System.currentTimeMillis();
+        }
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            return getCurrentTime(conn);
+        } catch (SQLException e) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to read the current time of the database for realm [" + getName() + "].  Using " +
+                        "the time of this application instead.", e);
+            }
+            return System.currentTimeMillis();
+        } finally {
+            JdbcUtils.closeConnection(conn);
+        }
+    }
+
+    /**
+     * Stops the {@link #setRefreshIntervalSeconds(int) periodic refresh}, if running.
+     */
+    public void destroy() {
+        ScheduledExecutorService scheduler;
+        synchronized (this) {
+            scheduler = refreshScheduler;
+            refreshScheduler = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        super.destroy();
+    }
+
+    /**
+     * Discards the cached role names and the cached AuthorizationInfo of the specified user, so that both are read
+     * again from the database on the next authorization check of that user.  Call this method after changing a
+     * user's roles at runtime.
+     *
+     * @param username the user whose roles have changed.
+     * @see #clearCachedRolePermissions(String)
+     * @since 1.0
+     */
+    public void clearCachedUserRoles(String username) {
+        if (username == null) {
+            return;
+        }
+        clearCachedAuthorizationInfo(new SimplePrincipalCollection(username, getName()));
+    }
+
+    /**
+     * Discards the cached permissions of the specified role, as well as the cached AuthorizationInfo of every user
+     * with that role, so that the role's permissions are read again from the database on the next authorization check
+     * of any of these users.  Call this method after changing a role's permissions at runtime.
+     *
+     * @param roleName the role whose permissions have changed.
+     * @see #clearCachedUserRoles(String)
+     * @since 1.0
+     */
+    public void clearCachedRolePermissions(String roleName) {
+        if (roleName == null) {
+            return;
+        }
+        rolePermissionsLoads.remove(roleName);
+        Cache cache;
+        synchronized (this) {
+            cache = rolePermissionsCache;
+        }
+        if (cache != null) {
+            cache.remove(roleName);
+        }
+        clearCachedAuthorizationInfoWithRole(roleName);
+    }
+
+    private void clearCachedAuthorizationInfoWithRole(String roleName) {
+        Cache cache;
+        //users known to have the role - clear the normal way, so that listeners are notified:
+        synchronized (this) {
+            cache = userRolesCache;
+        }
+        if (cache != null) {
+            for (Object username : getKeys(cache)) {
+                Set<String> roleNames = getCachedValue(cache, (String) username, 0);
+                if (roleNames != null && roleNames.contains(roleName)) {
+                    //the user's roles haven't changed - keep them cached:
+                    super.clearCachedAuthorizationInfo(new SimplePrincipalCollection(username, getName()));
+                }
+            }
+        }
+
+        //and any remaining cached info with the role, e.g. for principals from several realms:
+        cache = getAuthorizationCache();
+        if (cache != null) {
+            for (Object key : getKeys(cache)) {
+                Object value = cache.get(key);
+                if (value instanceof AuthorizationInfo) {
+                    Collection<String> roles = ((AuthorizationInfo) value).getRoles();
+                    if (roles != null && roles.contains(roleName)) {
+                        cache.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the keys of the specified cache, so that entries can be removed while iterating.
+     */
+    @SuppressWarnings({"unchecked"})
+    private static List<Object> getKeys(Cache cache) {
+        return new ArrayList<Object>(cache.keys());
+    }
+
+    /**
+     * Also discards the cached role names of the account's user if {@link #setRoleCachingEnabled(boolean) role
+     * caching} is enabled, so that they are read again from the database as well.  This includes logout, which clears
+     * the account's cached AuthorizationInfo.
+     *
+     * @param principals the principals of the account for which to clear the cached authorization data.
+     */
+    protected void clearCachedAuthorizationInfo(PrincipalCollection principals) {
+        if (principals != null) {
+            Cache cache;
+            synchronized (this) {
+                cache = userRolesCache;
+            }
+            for (Object username : principals.fromRealm(getName())) {
+                userRolesLoads.remove(username);
+                if (cache != null) {
+                    cache.remove(username);
+                }
+            }
+        }
+        super.clearCachedAuthorizationInfo(principals);
+    }
+
     protected Set<String> getRoleNamesForUser(Connection conn, String username) throws SQLException {
         PreparedStatement ps = null;
         ResultSet rs = null;
@@ -336,35 +1286,134 @@ public class JdbcRealm extends AuthorizingRealm {
         return roleNames;
     }
 
-    protected Set<String> getPermissions(Connection conn, String username, Collection<String> roleNames) throws SQLException {
+    /**
+     * Retrieves a user's roles and their permissions with the single
+     * {@link #setUserRolesPermissionsQuery(String) userRolesPermissionsQuery}.
+     *
+     * @param conn        the connection to use.
+     * @param username    the user whose roles and permissions to retrieve.
+     * @param roleNames   the set to add the user's role names to.
+     * @param permissions the set to add the permissions of the user's roles to.
+     * @throws SQLException if the query fails.
+     * @since 1.0
+     */
+    protected void getRolesAndPermissionsForUser(Connection conn, String username, Set<String> roleNames,
+                                                 Set<String> permissions) throws SQLException {
         PreparedStatement ps = null;
         ResultSet rs = null;
+        try {
+            ps = conn.prepareStatement(userRolesPermissionsQuery);
+            ps.setString(1, username);
+
+            // Execute query
+            rs = ps.executeQuery();
+
+            // Loop over results - a row per role and permission, or a null permission for roles without any
+            while (rs.next()) {
+
+                String roleName = rs.getString(1);
+                if (roleName != null) {
+                    roleNames.add(roleName);
+                } else {
+                    if (log.isWarnEnabled()) {
+                        log.warn("Null role name found while retrieving role names for user [" + username + "]");
+                    }
+                }
+
+                String permissionString = rs.getString(2);
+                if (permissionString != null) {
+                    permissions.add(permissionString);
+                }
+            }
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(ps);
+        }
+    }
+
+    /**
+     * Retrieves the permissions of the specified user's roles.  The default implementation combines the permissions
+     * returned by {@link #getPermissionsByRole(java.sql.Connection,java.util.Collection) getPermissionsByRole}.
+     * <p/>
+     * Not called if {@link #setRoleCachingEnabled(boolean) roleCachingEnabled} is set, since permissions are then
+     * cached per role - override <code>getPermissionsByRole</code> instead.
+     *
+     * @param conn      the connection to use.
+     * @param username  the user whose permissions to retrieve.
+     * @param roleNames the user's roles.
+     * @return the permissions of the user's roles.
+     * @throws SQLException if a query fails.
+     */
+    protected Set<String> getPermissions(Connection conn, String username, Collection<String> roleNames) throws SQLException {
         Set<String> permissions = new LinkedHashSet<String>();
+        for (Set<String> rolePermissions : getPermissionsByRole(conn, roleNames).values()) {
+            permissions.addAll(rolePermissions);
+        }
+        return permissions;
+    }
+
+    /**
+     * Retrieves the permissions of each of the specified roles with the
+     * {@link #setPermissionsQuery(String) permissionsQuery}, preparing the statement only once.  This is the method
+     * to override to customize permission lookup if {@link #setRoleCachingEnabled(boolean) roleCachingEnabled} is
+     * set.
+     *
+     * @param conn      the connection to use.
+     * @param roleNames the roles whose permissions to retrieve.
+     * @return the permissions of each role, keyed by role name in iteration order.
+     * @throws SQLException if a query fails.
+     * @since 1.0
+     */
+    protected Map<String, Set<String>> getPermissionsByRole(Connection conn, Collection<String> roleNames) throws SQLException {
+        PreparedStatement ps = null;
+        Map<String, Set<String>> permissionsByRole = new LinkedHashMap<String, Set<String>>();
+        if (roleNames == null || roleNames.isEmpty()) {
+            return permissionsByRole;
+        }
         try {
+            // Prepare the statement once and execute it for each role
+            ps = conn.prepareStatement(permissionsQuery);
+
             for (String roleName : roleNames) {
 
-                ps = conn.prepareStatement(permissionsQuery);
+                Set<String> permissions = new LinkedHashSet<String>();
+                permissionsByRole.put(roleName, permissions);
                 ps.setString(1, roleName);
 
                 // Execute query
-                rs = ps.executeQuery();
-
-                // Loop over results and add each returned role to a set
-                while (rs.next()) {
+                ResultSet rs = ps.executeQuery();
+                try {
+                    // Loop over results and add each returned permission to a set
+                    while (rs.next()) {
 
-                    String permissionString = rs.getString(1);
+                        String permissionString = rs.getString(1);
 
-                    // Add the permission to the set of permissions
-                    permissions.add(permissionString);
+                        // Add the permission to the set of permissions
+                        permissions.add(permissionString);
+                    }
+                } finally {
+                    JdbcUtils.closeResultSet(rs);
                 }
 
             }
         } finally {
-            JdbcUtils.closeResultSet(rs);
             JdbcUtils.closeStatement(ps);
         }
 
-        return permissions;
+        return permissionsByRole;
+    }
+
+    /**
+     * Cache entry recording when the value was read from the database.
+     */
+    private static class CachedValue<T> implements Serializable {
+
+        private final T value;
+        private final long creationTime = System.currentTimeMillis();
+
+        CachedValue(T value) {
+            this.value = value;
+        }
     }
 
 }
\ No newline at end of file
@@ -29,6 +29,7 @@ import org.apache.ki.authc.AuthenticationToken;
 import org.apache.ki.authz.AuthorizationInfo;
 import org.apache.ki.realm.AuthorizingRealm;
 import org.apache.ki.subject.PrincipalCollection;
+import org.apache.ki.util.LifecycleUtils;
 
 /**
  * <p>A {@link org.apache.ki.realm.Realm} that authenticates with an LDAP
@@ -75,8 +76,15 @@ public abstract class AbstractLdapRealm extends AuthorizingRealm {
 
     protected String systemPassword = null;
 
+    protected boolean contextPoolingEnabled = false;
+
     private LdapContextFactory ldapContextFactory = null;
 
+    /**
+     * Set if the <tt>ldapContextFactory</tt> was created by this realm, which is then responsible for destroying it.
+     */
+    private boolean defaultLdapContextFactory = false;
+
     /*--------------------------------------------
     |         C O N S T R U C T O R S           |
     ============================================*/
@@ -147,6 +155,18 @@ public abstract class AbstractLdapRealm extends AuthorizingRealm {
     }
 
 
+    /**
+     * Used when initializing the default {@link LdapContextFactory}.  If enabled, a
+     * {@link PooledLdapContextFactory PooledLdapContextFactory} is created, which reuses open LDAP connections for
+     * authentication binds as well as for authorization lookups.  This property is ignored if a custom
+     * <tt>LdapContextFactory</tt> is specified.  The default is <tt>false</tt>.
+     *
+     * @param contextPoolingEnabled whether the default factory should pool LDAP connections.
+     */
+    public void setContextPoolingEnabled(boolean contextPoolingEnabled) {
+        this.contextPoolingEnabled = contextPoolingEnabled;
+    }
+
     /**
      * Configures the {@link LdapContextFactory} implementation that is used to create LDAP connections for
      * authentication and authorization.  If this is set, the {@link LdapContextFactory} provided will be used.
@@ -157,6 +177,7 @@ public abstract class AbstractLdapRealm extends AuthorizingRealm {
      */
     public void setLdapContextFactory(LdapContextFactory ldapContextFactory) {
         this.ldapContextFactory = ldapContextFactory;
+        this.defaultLdapContextFactory = false;
     }
 
     /*--------------------------------------------
@@ -170,7 +191,8 @@ public abstract class AbstractLdapRealm extends AuthorizingRealm {
                 log.debug("No LdapContextFactory is specified, so a default instance is being created.");
             }
 
-            DefaultLdapContextFactory defaultFactory = new DefaultLdapContextFactory();
+            DefaultLdapContextFactory defaultFactory = contextPoolingEnabled ?
+                    new PooledLdapContextFactory() : new DefaultLdapContextFactory();
             defaultFactory.setPrincipalSuffix(this.principalSuffix);
             defaultFactory.setSearchBase(this.searchBase);
             defaultFactory.setUrl(this.url);
@@ -178,6 +200,14 @@ public abstract class AbstractLdapRealm extends AuthorizingRealm {
             defaultFactory.setSystemPassword(this.systemPassword);
 
             ldapContextFactory = defaultFactory;
+            defaultLdapContextFactory = true;
+        }
+    }
+
+    public void destroy() {
+        super.destroy();
+        if (defaultLdapContextFactory) {
+            LifecycleUtils.destroy(ldapContextFactory);
         }
     }
 
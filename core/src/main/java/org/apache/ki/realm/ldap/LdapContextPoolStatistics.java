@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.realm.ldap;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counters describing the activity of a {@link PooledLdapContextFactory PooledLdapContextFactory}'s
+ * connection pool.
+ *
+ * @see PooledLdapContextFactory#getStatistics()
+ * @since 1.0
+ */
+public class LdapContextPoolStatistics implements Serializable {
+
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong validationFailureCount = new AtomicLong();
+    private final AtomicLong bindFailureCount = new AtomicLong();
+    private final AtomicLong exhaustedCount = new AtomicLong();
+
+    void created() {
+        createdCount.incrementAndGet();
+    }
+
+    void destroyed() {
+        destroyedCount.incrementAndGet();
+    }
+
+    void borrowed() {
+        borrowCount.incrementAndGet();
+    }
+
+    void validationFailed() {
+        validationFailureCount.incrementAndGet();
+    }
+
+    void bindFailed() {
+        bindFailureCount.incrementAndGet();
+    }
+
+    void exhausted() {
+        exhaustedCount.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of LDAP connections opened by the pool.
+     *
+     * @return the number of LDAP connections opened by the pool.
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * Returns the number of LDAP connections closed by the pool, because they were idle for too long, failed
+     * validation or could not be re-bound.
+     *
+     * @return the number of LDAP connections closed by the pool.
+     */
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    /**
+     * Returns the number of contexts successfully handed out by the pool.
+     *
+     * @return the number of contexts successfully handed out by the pool.
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * Returns the number of idle connections found to be unusable when they were about to be handed out.
+     *
+     * @return the number of idle connections that failed validation.
+     */
+    public long getValidationFailureCount() {
+        return validationFailureCount.get();
+    }
+
+    /**
+     * Returns the number of failed attempts to bind a pooled connection with a user's credentials.
+     *
+     * @return the number of failed user binds.
+     */
+    public long getBindFailureCount() {
+        return bindFailureCount.get();
+    }
+
+    /**
+     * Returns the number of requests that failed because no connection became available in time.
+     *
+     * @return the number of requests that failed because the pool was exhausted.
+     */
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+
+    public String toString() {
+        return "created=" + getCreatedCount() + ", destroyed=" + getDestroyedCount() + ", borrowed=" +
+                getBorrowCount() + ", validationFailures=" + getValidationFailureCount() + ", bindFailures=" +
+                getBindFailureCount() + ", exhausted=" + getExhaustedCount();
+    }
+}
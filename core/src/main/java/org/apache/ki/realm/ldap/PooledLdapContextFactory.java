@@ -0,0 +1,649 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.realm.ldap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.LdapContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.ki.util.Destroyable;
+
+/**
+ * A {@link DefaultLdapContextFactory DefaultLdapContextFactory} that keeps a bounded pool of open LDAP connections
+ * and reuses them for both system and user contexts, so that neither authorization lookups nor authentication binds
+ * have to open a new connection (and perform a TCP and possibly TLS handshake) per request.
+ * <p/>
+ * Pooled connections are bound with the {@link #setSystemUsername(String) system credentials}.  A request for a
+ * user context re-binds a pooled connection with the user's credentials; once the caller closes the context, the
+ * connection is re-bound with the system credentials before it is returned to the pool, or discarded if that fails.
+ * Contexts handed out by this factory must therefore always be closed (for example via
+ * {@link LdapUtils#closeContext(javax.naming.ldap.LdapContext) LdapUtils.closeContext}), and must not be used after
+ * they have been closed.  Callers that change a context's environment cause its connection to be discarded instead
+ * of reused.
+ * <p/>
+ * The pool opens at most {@link #setMaxSize(int) maxSize} connections.  A request waits up to
+ * {@link #setMaxWaitMillis(long) maxWaitMillis} for a connection to become available and fails with a
+ * {@link ServiceUnavailableException ServiceUnavailableException} otherwise.  Idle connections are
+ * {@link #setTestOnBorrow(boolean) validated} before they are handed out, and a background thread closes connections
+ * that have been idle for longer than {@link #setMaxIdleTimeMillis(long) maxIdleTimeMillis} while keeping at least
+ * {@link #setMinSize(int) minSize} connections open.
+ * <p/>
+ * The pool is created on first use, so it must be configured before then.  JNDI provider pooling is disabled by
+ * default, as the provider's pool does not support re-binding connections.  Call {@link #destroy() destroy} to close
+ * the pooled connections when the factory is no longer needed.
+ *
+ * @since 1.0
+ */
+public class PooledLdapContextFactory extends DefaultLdapContextFactory implements Destroyable {
+
+    /**
+     * The default maximum number of open connections.
+     */
+    public static final int DEFAULT_MAX_SIZE = 8;
+
+    /**
+     * The default time a request waits for a connection to become available, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 5000;
+
+    /**
+     * The default time after which an idle connection is closed, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_IDLE_TIME_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * The default interval at which idle connections are checked, in milliseconds.
+     */
+    public static final long DEFAULT_EVICTION_INTERVAL_MILLIS = 60 * 1000;
+
+    private static final Logger log = LoggerFactory.getLogger(PooledLdapContextFactory.class);
+
+    private int minSize = 0;
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    private long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+
+    private long maxIdleTimeMillis = DEFAULT_MAX_IDLE_TIME_MILLIS;
+
+    private long evictionIntervalMillis = DEFAULT_EVICTION_INTERVAL_MILLIS;
+
+    private boolean testOnBorrow = true;
+
+    private final LdapContextPoolStatistics statistics = new LdapContextPoolStatistics();
+
+    /**
+     * Idle connections, most recently used first.  Guarded by itself.
+     */
+    private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+
+    /**
+     * One permit per connection that may still be handed out, created on first use.
+     */
+    private volatile Semaphore permits;
+
+    private ScheduledExecutorService evictor;
+
+    private volatile boolean destroyed = false;
+
+    public PooledLdapContextFactory() {
+        setUsePooling(false);
+    }
+
+    /*--------------------------------------------
+    |  A C C E S S O R S / M O D I F I E R S    |
+    ============================================*/
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Sets the number of connections the pool opens on first use and keeps open even when they are idle.  The
+     * default is <code>0</code>.
+     *
+     * @param minSize the minimum number of open connections.
+     */
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of connections the pool opens, including connections in use.  The default is
+     * {@link #DEFAULT_MAX_SIZE}.
+     *
+     * @param maxSize the maximum number of open connections.
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * Sets how long a request waits for a connection when all {@link #setMaxSize(int) maxSize} connections are in
+     * use.  The default is {@link #DEFAULT_MAX_WAIT_MILLIS}.
+     *
+     * @param maxWaitMillis the maximum wait in milliseconds, <code>0</code> to fail immediately.
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getMaxIdleTimeMillis() {
+        return maxIdleTimeMillis;
+    }
+
+    /**
+     * Sets how long a connection may stay idle before it is closed.  The default is
+     * {@link #DEFAULT_MAX_IDLE_TIME_MILLIS}.
+     *
+     * @param maxIdleTimeMillis the maximum idle time in milliseconds, <code>0</code> or less to keep idle
+     *                          connections open.
+     */
+    public void setMaxIdleTimeMillis(long maxIdleTimeMillis) {
+        this.maxIdleTimeMillis = maxIdleTimeMillis;
+    }
+
+    public long getEvictionIntervalMillis() {
+        return evictionIntervalMillis;
+    }
+
+    /**
+     * Sets the interval at which idle connections are closed and the pool is topped up to
+     * {@link #setMinSize(int) minSize}.  The default is {@link #DEFAULT_EVICTION_INTERVAL_MILLIS}.
+     *
+     * @param evictionIntervalMillis the interval in milliseconds, <code>0</code> or less to disable the background
+     *                               thread.
+     */
+    public void setEvictionIntervalMillis(long evictionIntervalMillis) {
+        this.evictionIntervalMillis = evictionIntervalMillis;
+    }
+
+    public boolean isTestOnBorrow() {
+        return testOnBorrow;
+    }
+
+    /**
+     * Sets whether idle connections are {@link #validate(javax.naming.ldap.LdapContext) validated} before they are
+     * handed out, so that connections dropped by the server or a firewall are discarded instead of causing a failed
+     * request.  The default is <code>true</code>.
+     *
+     * @param testOnBorrow whether idle connections are validated before use.
+     */
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    /**
+     * Returns the pool's activity counters.
+     *
+     * @return the pool's activity counters.
+     */
+    public LdapContextPoolStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Returns the number of contexts currently handed out and not yet closed.
+     *
+     * @return the number of contexts currently in use.
+     */
+    public int getActiveCount() {
+        Semaphore permits = this.permits;
+        return permits != null ? maxSize - permits.availablePermits() : 0;
+    }
+
+    /**
+     * Returns the number of open connections currently waiting in the pool.
+     *
+     * @return the number of idle connections.
+     */
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /*--------------------------------------------
+    |               M E T H O D S               |
+    ============================================*/
+
+    public LdapContext getSystemLdapContext() throws NamingException {
+        return borrow(null, null);
+    }
+
+    /**
+     * Returns a pooled context bound with the specified credentials.  Only a request for exactly the system username
+     * and password returns a pooled system context; use {@link #getSystemLdapContext()} to obtain one otherwise.
+     *
+     * @param username the username, which will be appended with the {@link #setPrincipalSuffix(String) principal
+     *                 suffix}.
+     * @param password the password.
+     * @return a pooled context bound with the specified credentials.
+     * @throws NamingException if the username is <code>null</code>, the credentials are rejected or no connection is
+     *                         available.
+     */
+    public LdapContext getLdapContext(String username, String password) throws NamingException {
+        if (username == null) {
+            //callers such as the ActiveDirectoryRealm treat a bound context as a successful authentication:
+            throw new javax.naming.AuthenticationException("A null username is not accepted.");
+        }
+        if (username.equals(systemUsername) &&
+                (password == null ? systemPassword == null : password.equals(systemPassword))) {
+            return borrow(null, null);
+        }
+        if (password == null || password.length() == 0) {
+            //a simple bind with an empty password is an unauthenticated bind and succeeds for any DN:
+            throw new javax.naming.AuthenticationException("An empty password is not accepted for user [" +
+                    username + "]");
+        }
+        return borrow(getPrincipal(username), password);
+    }
+
+    private String getPrincipal(String username) {
+        return username != null && principalSuffix != null ? username + principalSuffix : username;
+    }
+
+    /**
+     * Opens a new connection bound with the system credentials.
+     *
+     * @return the new connection.
+     * @throws NamingException if the connection cannot be opened.
+     */
+    protected LdapContext createPooledContext() throws NamingException {
+        return super.getLdapContext(systemUsername, systemPassword);
+    }
+
+    /**
+     * Re-binds the specified connection with the specified credentials.  Passing a <code>null</code> principal
+     * performs an anonymous bind.
+     *
+     * @param ctx         the connection to re-bind.
+     * @param principal   the principal to bind as, including any principal suffix.
+     * @param credentials the principal's credentials.
+     * @throws NamingException if the bind fails, for example because the credentials are rejected.
+     */
+    protected void bind(LdapContext ctx, String principal, String credentials) throws NamingException {
+        if (principal == null) {
+            ctx.addToEnvironment(Context.SECURITY_AUTHENTICATION, "none");
+            ctx.removeFromEnvironment(Context.SECURITY_PRINCIPAL);
+            ctx.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+        } else {
+            ctx.addToEnvironment(Context.SECURITY_AUTHENTICATION, authentication);
+            ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, principal);
+            ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, credentials);
+        }
+        ctx.reconnect(null);
+    }
+
+    /**
+     * Returns <code>true</code> if the specified idle connection can still be used.  The default implementation
+     * reads the <code>objectClass</code> attribute of the server's root DSE.
+     *
+     * @param ctx the idle connection.
+     * @return <code>true</code> if the connection can still be used.
+     */
+    protected boolean validate(LdapContext ctx) {
+        try {
+            ctx.getAttributes("", new String[]{"objectClass"});
+            return true;
+        } catch (NamingException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Pooled LDAP connection failed validation and will be discarded.", e);
+            }
+            return false;
+        }
+    }
+
+    private Semaphore getPermits() {
+        Semaphore permits = this.permits;
+        if (permits == null) {
+            synchronized (this) {
+                permits = this.permits;
+                if (permits == null) {
+                    if (maxSize <= 0) {
+                        throw new IllegalStateException("maxSize must be greater than zero.");
+                    }
+                    permits = new Semaphore(maxSize, true);
+                    this.permits = permits;
+                    ensureMinSize();
+                    startEvictor();
+                }
+            }
+        }
+        return permits;
+    }
+
+    private LdapContext borrow(String principal, String credentials) throws NamingException {
+        if (destroyed) {
+            throw new IllegalStateException("This LdapContextFactory has been destroyed.");
+        }
+        Semaphore permits = getPermits();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedNamingException("Interrupted while waiting for a pooled LDAP connection.");
+        }
+        if (!acquired) {
+            statistics.exhausted();
+            throw new ServiceUnavailableException("No pooled LDAP connection became available within " +
+                    maxWaitMillis + " ms (maxSize is " + maxSize + ").");
+        }
+
+        PooledConnection conn;
+        try {
+            conn = takeIdle();
+            if (conn == null) {
+                conn = open();
+            }
+        } catch (NamingException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+
+        if (principal != null) {
+            try {
+                bind(conn.ctx, principal, credentials);
+            } catch (NamingException e) {
+                statistics.bindFailed();
+                release(conn, true);
+                throw e;
+            } catch (RuntimeException e) {
+                statistics.bindFailed();
+                release(conn, true);
+                throw e;
+            }
+        }
+        statistics.borrowed();
+        return (LdapContext) Proxy.newProxyInstance(LdapContext.class.getClassLoader(),
+                new Class[]{LdapContext.class}, new PooledContextHandler(conn, principal != null));
+    }
+
+    private PooledConnection takeIdle() {
+        while (true) {
+            PooledConnection conn;
+            synchronized (idle) {
+                if (idle.isEmpty()) {
+                    return null;
+                }
+                conn = idle.removeFirst();
+            }
+            if (!testOnBorrow || validate(conn.ctx)) {
+                return conn;
+            }
+            statistics.validationFailed();
+            close(conn);
+        }
+    }
+
+    private PooledConnection open() throws NamingException {
+        PooledConnection conn = new PooledConnection(createPooledContext());
+        statistics.created();
+        return conn;
+    }
+
+    private void close(PooledConnection conn) {
+        LdapUtils.closeContext(conn.ctx);
+        statistics.destroyed();
+    }
+
+    /**
+     * Returns a connection to the pool, re-binding it with the system credentials first if necessary, and releases
+     * its permit.
+     */
+    private void release(PooledConnection conn, boolean rebind) {
+        try {
+            boolean reusable = !conn.broken && !destroyed;
+            if (reusable && rebind) {
+                try {
+                    bind(conn.ctx, getPrincipal(systemUsername), systemPassword);
+                } catch (NamingException e) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Unable to re-bind pooled LDAP connection with the system credentials.  " +
+                                "The connection will be discarded.", e);
+                    }
+                    reusable = false;
+                }
+            }
+            if (reusable) {
+                conn.lastUsed = System.currentTimeMillis();
+                synchronized (idle) {
+                    if (!destroyed) {
+                        idle.addFirst(conn);
+                        return;
+                    }
+                }
+            }
+            close(conn);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes connections that have been idle for longer than {@link #setMaxIdleTimeMillis(long) maxIdleTimeMillis},
+     * keeping at least {@link #setMinSize(int) minSize} connections open, and opens new connections if fewer than
+     * <code>minSize</code> are open.  Invoked periodically by a background thread, unless the
+     * {@link #setEvictionIntervalMillis(long) eviction interval} is <code>0</code>.
+     */
+    public void evictIdleContexts() {
+        if (destroyed) {
+            return;
+        }
+        List<PooledConnection> expired = new ArrayList<PooledConnection>();
+        if (maxIdleTimeMillis > 0) {
+            long cutoff = System.currentTimeMillis() - maxIdleTimeMillis;
+            synchronized (idle) {
+                long open = getOpenCount();
+                //least recently used connections are at the end:
+                ListIterator<PooledConnection> i = idle.listIterator(idle.size());
+                while (i.hasPrevious() && open > minSize) {
+                    PooledConnection conn = i.previous();
+                    if (conn.lastUsed > cutoff) {
+                        break;
+                    }
+                    i.remove();
+                    expired.add(conn);
+                    open--;
+                }
+            }
+        }
+        for (PooledConnection conn : expired) {
+            close(conn);
+        }
+        if (log.isTraceEnabled() && !expired.isEmpty()) {
+            log.trace("Closed " + expired.size() + " idle LDAP connection(s).");
+        }
+        ensureMinSize();
+    }
+
+    private long getOpenCount() {
+        return statistics.getCreatedCount() - statistics.getDestroyedCount();
+    }
+
+    private void ensureMinSize() {
+        while (!destroyed && getOpenCount() < Math.min(minSize, maxSize)) {
+            PooledConnection conn;
+            try {
+                conn = open();
+            } catch (NamingException e) {
+                if (log.isWarnEnabled()) {
+                    log.warn("Unable to open LDAP connection for the pool.", e);
+                }
+                return;
+            }
+            conn.lastUsed = System.currentTimeMillis();
+            synchronized (idle) {
+                if (!destroyed) {
+                    idle.addFirst(conn);
+                    continue;
+                }
+            }
+            close(conn);
+        }
+    }
+
+    private void startEvictor() {
+        if (evictionIntervalMillis <= 0) {
+            return;
+        }
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PooledLdapContextFactory-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    evictIdleContexts();
+                } catch (RuntimeException e) {
+                    if (log.isWarnEnabled()) {
+                        log.warn("Unable to evict idle LDAP connections.", e);
+                    }
+                }
+            }
+        }, evictionIntervalMillis, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the eviction thread and closes all idle connections.  Connections still in use are closed when they are
+     * returned.
+     */
+    public void destroy() {
+        destroyed = true;
+        synchronized (this) {
+            if (evictor != null) {
+                evictor.shutdownNow();
+                evictor = null;
+            }
+        }
+        List<PooledConnection> connections;
+        synchronized (idle) {
+            connections = new ArrayList<PooledConnection>(idle);
+            idle.clear();
+        }
+        for (PooledConnection conn : connections) {
+            close(conn);
+        }
+    }
+
+    private static class PooledConnection {
+
+        private final LdapContext ctx;
+
+        private volatile long lastUsed;
+
+        /**
+         * Set when the connection failed, or its environment was changed by a caller, so it must not be reused.
+         */
+        private volatile boolean broken = false;
+
+        private PooledConnection(LdapContext ctx) {
+            this.ctx = ctx;
+        }
+    }
+
+    /**
+     * Forwards calls to a pooled connection until the context is closed, which returns the connection to the pool.
+     */
+    private class PooledContextHandler implements InvocationHandler {
+
+        private final PooledConnection conn;
+
+        private final boolean userBound;
+
+        private boolean closed = false;
+
+        private PooledContextHandler(PooledConnection conn, boolean userBound) {
+            this.conn = conn;
+            this.userBound = userBound;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (method.getDeclaringClass() == Object.class) {
+                if (name.equals("equals")) {
+                    return proxy == args[0];
+                }
+                if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                return "Pooled LDAP context [" + conn.ctx + "]";
+            }
+            synchronized (this) {
+                if (name.equals("close")) {
+                    if (!closed) {
+                        closed = true;
+                        release(conn, userBound);
+                    }
+                    return null;
+                }
+                if (closed) {
+                    throw new NamingException("The pooled LDAP context has already been closed.");
+                }
+            }
+            if (name.equals("addToEnvironment") || name.equals("removeFromEnvironment") ||
+                    name.equals("reconnect") || name.equals("setRequestControls")) {
+                conn.broken = true;
+            }
+            try {
+                return method.invoke(conn.ctx, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof CommunicationException || cause instanceof ServiceUnavailableException) {
+                    conn.broken = true;
+                }
+                throw cause;
+            }
+        }
+    }
+}
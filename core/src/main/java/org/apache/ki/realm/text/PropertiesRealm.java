@@ -158,6 +158,7 @@ public class PropertiesRealm extends TextConfigurationRealm implements Destroyab
                 log.info("Unable to cleanly shutdown Scheduler.  Ignoring (shutting down)...", e);
             }
         }
+        super.destroy();
     }
 
     protected void startReloadThread() {
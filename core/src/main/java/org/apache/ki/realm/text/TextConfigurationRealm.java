@@ -46,6 +46,10 @@ import org.apache.ki.util.StringUtils;
  * <p>User and user-to-role definitinos are specified via the {@link #setUserDefinitions} method and
  * Role-to-permission definitions are specified via the {@link #setRoleDefinitions} method.
  *
+ * <p>The definitions are compiled when they are processed:  each account's effective permissions are computed once
+ * and shared with all other accounts having the same roles.  When the definitions are processed again, the new
+ * compiled views replace the previous ones only after all definitions have been processed.</p>
+ *
  * @author Les Hazlewood
  * @since 0.9
  */
@@ -53,6 +57,13 @@ public class TextConfigurationRealm extends SimpleAccountRealm {
 
     //TODO - complete JavaDoc
 
+    /**
+     * Prefix of a role definition token naming a role to inherit from, for example <code>inherits:manager</code>.
+     *
+     * @since 1.0
+     */
+    public static final String INHERITS_PREFIX = "inherits:";
+
     private String userDefinitions;
     private String roleDefinitions;
 
@@ -102,6 +113,18 @@ public class TextConfigurationRealm extends SimpleAccountRealm {
      * definition with double quotes (&quot;) to avoid parsing errors (e.g.
      * <code>&quot;printer:5thFloor:print,info&quot;</code>).
      *
+     * <p>A role can inherit all roles and permissions of other roles by listing their names prefixed with
+     * <code>{@link #INHERITS_PREFIX inherits:}</code> among its permission definitions, for example:</p>
+     *
+     * <p><code>admin = *, inherits:manager<br/>
+     * manager = user:*, inherits:employee<br/>
+     * employee = wiki:read</code></p>
+     *
+     * <p>An account with the <code>admin</code> role then also has the <code>manager</code> and <code>employee</code>
+     * roles and all of their permissions.  Inheritance is resolved once when the definitions are processed, so the
+     * depth of the hierarchy has no effect on the cost of an authorization check.  A role may not inherit from itself,
+     * directly or indirectly.
+     *
      * <p><b>NOTE:</b> if you have roles that don't require permission associations, don't include them in this
      * definition - just defining the role name in the {@link #setUserDefinitions(String) userDefinitions} is
      * enough to create the role if it does not yet exist.  This property is really only for configuring realms that
@@ -121,6 +144,8 @@ public class TextConfigurationRealm extends SimpleAccountRealm {
         try {
             processRoleDefinitions();
             processUserDefinitions();
+            //swap in the new definitions' compiled views all at once:
+            compilePermissionViews();
         } catch (ParseException e) {
             String msg = "Unable to parse user and/or role definitions.";
             throw new IllegalStateException(msg, e);
@@ -146,8 +171,26 @@ public class TextConfigurationRealm extends SimpleAccountRealm {
                 add(role);
             }
 
-            Set<Permission> permissions = PermissionUtils.resolveDelimitedPermissions(value, getPermissionResolver());
+            Set<String> permissionStrings = new LinkedHashSet<String>();
+            Set<String> inheritedRoles = new LinkedHashSet<String>();
+            Set<String> tokens = PermissionUtils.toPermissionStrings(value);
+            if (tokens != null) {
+                for (String token : tokens) {
+                    if (token.startsWith(INHERITS_PREFIX)) {
+                        String inheritedRole = token.substring(INHERITS_PREFIX.length()).trim();
+                        if (inheritedRole.length() == 0) {
+                            throw new ParseException("Role [" + rolename + "] inherits from a role without a name.", 0);
+                        }
+                        inheritedRoles.add(inheritedRole);
+                    } else {
+                        permissionStrings.add(token);
+                    }
+                }
+            }
+
+            Set<Permission> permissions = PermissionUtils.resolvePermissions(permissionStrings, getPermissionResolver());
             role.setPermissions(permissions);
+            role.setInheritedRoles(inheritedRoles.isEmpty() ? null : inheritedRoles);
         }
     }
 
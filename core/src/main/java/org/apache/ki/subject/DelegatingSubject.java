@@ -21,6 +21,8 @@ package org.apache.ki.subject;
 import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 
@@ -181,6 +183,22 @@ public class DelegatingSubject implements Subject {
         }
     }
 
+    public BitSet getPermittedMask(String domain, String action, List<?> instanceIds) {
+        if (hasPrincipals()) {
+            return securityManager.getPermittedMask(getPrincipals(), domain, action, instanceIds);
+        } else {
+            return new BitSet();
+        }
+    }
+
+    public <T> List<T> filterPermitted(String domain, String action, Collection<T> instanceIds) {
+        if (hasPrincipals()) {
+            return securityManager.filterPermitted(getPrincipals(), domain, action, instanceIds);
+        } else {
+            return new ArrayList<T>(0);
+        }
+    }
+
     public boolean isPermittedAll(String... permissions) {
         return hasPrincipals() && securityManager.isPermittedAll(getPrincipals(), permissions);
     }
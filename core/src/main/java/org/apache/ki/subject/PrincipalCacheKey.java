@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.subject;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of a {@link PrincipalCollection PrincipalCollection}'s principals, suitable as a key for
+ * caches holding per-account data such as a realm's authorization cache.
+ * <p/>
+ * Unlike a (mutable) <code>PrincipalCollection</code>, a key can never change after it has been placed in a cache.
+ * Its hash code is computed once on construction, and equality checks compare that hash code before comparing the
+ * principals themselves.  Two keys are equal if they contain the same principals for the same realms, regardless of
+ * the order in which they were added to their collections.
+ * <p/>
+ * Use {@link #forPrincipals(PrincipalCollection) forPrincipals} to obtain a key:  keys for
+ * {@link SimplePrincipalCollection SimplePrincipalCollection}s are created only once and reused until the
+ * collection is modified.
+ *
+ * @since 1.0
+ */
+public final class PrincipalCacheKey implements Serializable {
+
+    private static final String[] EMPTY_REALM_NAMES = new String[0];
+    private static final Object[][] EMPTY_PRINCIPALS = new Object[0][];
+
+    /**
+     * The realm names, in the collection's iteration order.
+     */
+    private final String[] realmNames;
+
+    /**
+     * The principals for each entry in <code>realmNames</code>, in the collection's iteration order.
+     */
+    private final Object[][] principals;
+
+    private final int hashCode;
+
+    /**
+     * Creates a new key containing a snapshot of the specified collection's principals.
+     *
+     * @param principalCollection the principals to snapshot.
+     * @throws IllegalArgumentException if <code>principalCollection</code> is <code>null</code>.
+     */
+    public PrincipalCacheKey(PrincipalCollection principalCollection) throws IllegalArgumentException {
+        if (principalCollection == null) {
+            throw new IllegalArgumentException("principalCollection argument cannot be null.");
+        }
+        Set<String> names = principalCollection.getRealmNames();
+        if (names == null || names.isEmpty()) {
+            this.realmNames = EMPTY_REALM_NAMES;
+            this.principals = EMPTY_PRINCIPALS;
+        } else {
+            this.realmNames = names.toArray(new String[names.size()]);
+            this.principals = new Object[realmNames.length][];
+            for (int i = 0; i < realmNames.length; i++) {
+                Collection realmPrincipals = principalCollection.fromRealm(realmNames[i]);
+                this.principals[i] = realmPrincipals != null ? realmPrincipals.toArray() : new Object[0];
+            }
+        }
+        this.hashCode = computeHashCode();
+    }
+
+    /**
+     * Returns the key for the specified principals, or <code>null</code> if <code>principals</code> is
+     * <code>null</code>.  A <code>SimplePrincipalCollection</code> creates its key only once and returns the same
+     * instance until it is modified.
+     *
+     * @param principals the principals for which to return a key.
+     * @return the key for the specified principals, or <code>null</code> if <code>principals</code> is
+     *         <code>null</code>.
+     */
+    public static PrincipalCacheKey forPrincipals(PrincipalCollection principals) {
+        if (principals == null) {
+            return null;
+        }
+        if (principals instanceof SimplePrincipalCollection) {
+            return ((SimplePrincipalCollection) principals).getCacheKey();
+        }
+        return new PrincipalCacheKey(principals);
+    }
+
+    /**
+     * Same value as the hash code of an equivalent <code>Map&lt;String,Set&gt;</code>, so it does not depend on
+     * iteration order.
+     */
+    private int computeHashCode() {
+        int hash = 0;
+        for (int i = 0; i < realmNames.length; i++) {
+            int setHash = 0;
+            for (Object principal : principals[i]) {
+                setHash += principal != null ? principal.hashCode() : 0;
+            }
+            hash += (realmNames[i] != null ? realmNames[i].hashCode() : 0) ^ setHash;
+        }
+        return hash;
+    }
+
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof PrincipalCacheKey)) {
+            return false;
+        }
+        PrincipalCacheKey other = (PrincipalCacheKey) o;
+        if (hashCode != other.hashCode || realmNames.length != other.realmNames.length) {
+            return false;
+        }
+        //fast path - the same principals added in the same order:
+        if (Arrays.equals(realmNames, other.realmNames) && Arrays.deepEquals(principals, other.principals)) {
+            return true;
+        }
+        for (int i = 0; i < realmNames.length; i++) {
+            int j = other.indexOf(realmNames[i]);
+            if (j < 0 || !sameElements(principals[i], other.principals[j])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(String realmName) {
+        for (int i = 0; i < realmNames.length; i++) {
+            if (realmName == null ? realmNames[i] == null : realmName.equals(realmNames[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean sameElements(Object[] a, Object[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        Set<Object> set = new HashSet<Object>(Arrays.asList(a));
+        return set.equals(new HashSet<Object>(Arrays.asList(b)));
+    }
+
+    public int hashCode() {
+        return hashCode;
+    }
+
+    public String toString() {
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < realmNames.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(realmNames[i]).append("=").append(Arrays.toString(principals[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -41,8 +41,18 @@ public class SimplePrincipalCollection implements MutablePrincipalCollection {
 
     //TODO - complete JavaDoc
 
+    /**
+     * The serial version of the original implementation, whose serialized form is unchanged.
+     */
+    private static final long serialVersionUID = 8269923330785842716L;
+
     private Map<String, Set> realmPrincipals;
 
+    /**
+     * Lazily created snapshot of this collection, discarded whenever the collection is modified.
+     */
+    private transient PrincipalCacheKey cacheKey;
+
     public SimplePrincipalCollection() {
     }
 
@@ -63,6 +73,8 @@ public class SimplePrincipalCollection implements MutablePrincipalCollection {
     }
 
     protected Collection getPrincipalsLazy(String realmName) {
+        //the returned collection is only used for modifications:
+        cacheKey = null;
         if (realmPrincipals == null) {
             realmPrincipals = new LinkedHashMap<String, Set>();
         }
@@ -188,6 +200,7 @@ public class SimplePrincipalCollection implements MutablePrincipalCollection {
     }
 
     public void clear() {
+        cacheKey = null;
         if (realmPrincipals != null) {
             realmPrincipals.clear();
             realmPrincipals = null;
@@ -198,6 +211,22 @@ public class SimplePrincipalCollection implements MutablePrincipalCollection {
         return asSet().iterator();
     }
 
+    /**
+     * Returns the {@link PrincipalCacheKey PrincipalCacheKey} for this collection, creating it only if the
+     * collection has been modified since the last invocation.
+     *
+     * @return the cache key for this collection's current principals.
+     * @since 1.0
+     */
+    PrincipalCacheKey getCacheKey() {
+        PrincipalCacheKey key = cacheKey;
+        if (key == null) {
+            key = new PrincipalCacheKey(this);
+            cacheKey = key;
+        }
+        return key;
+    }
+
     public boolean equals(Object o) {
         if (o == this) {
             return true;
@@ -18,6 +18,7 @@
  */
 package org.apache.ki.subject;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 
@@ -159,6 +160,37 @@ public interface Subject {
      */
     boolean[] isPermitted(List<Permission> permissions);
 
+    /**
+     * Checks a batch of instance-level permissions of the form <code>domain:action:instanceId</code> and returns a
+     * <tt>BitSet</tt> indicating which of them this Subject is permitted.
+     *
+     * <p>The result is the same as calling {@link #isPermitted(String) isPermitted} with
+     * <code>domain + ":" + action + ":" + instanceId</code> for every identifier, but the Subject's authorization
+     * data is only acquired once and no permission is parsed per identifier.
+     *
+     * @param domain      the permission domain, for example <code>document</code>.
+     * @param action      the action being performed, for example <code>read</code>.
+     * @param instanceIds the instance identifiers, converted to Strings via <code>String.valueOf</code>.
+     * @return a <tt>BitSet</tt> whose bit at an index is set if this Subject is permitted the instance with the
+     *         identifier at that index in the given list.
+     * @since 1.0
+     */
+    BitSet getPermittedMask(String domain, String action, List<?> instanceIds);
+
+    /**
+     * Returns those of the specified instance identifiers for which this Subject is permitted
+     * <code>domain:action:instanceId</code>, in iteration order.
+     *
+     * @param domain      the permission domain, for example <code>document</code>.
+     * @param action      the action being performed, for example <code>read</code>.
+     * @param instanceIds the instance identifiers, converted to Strings via <code>String.valueOf</code>.
+     * @return a new, modifiable list of the permitted instance identifiers, in iteration order - empty, never
+     *         <code>null</code>, if none are permitted or this Subject has no principals.
+     * @see #getPermittedMask(String, String, java.util.List)
+     * @since 1.0
+     */
+    <T> List<T> filterPermitted(String domain, String action, Collection<T> instanceIds);
+
     /**
      * Returns <tt>true</tt> if this Subject implies all of the specified permission strings, <tt>false</tt> otherwise.
      *
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authc.credential;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.ki.authc.AuthenticationInfo;
+import org.apache.ki.authc.AuthenticationToken;
+import org.apache.ki.authc.SimpleAuthenticationInfo;
+import org.apache.ki.authc.UsernamePasswordToken;
+import org.apache.ki.crypto.hash.Sha256Hash;
+import org.apache.ki.realm.SimpleAccountRealm;
+
+/**
+ * @since 1.0
+ */
+public class CachingCredentialsMatcherTest {
+
+    private final AtomicInteger matches = new AtomicInteger();
+    private CachingCredentialsMatcher matcher;
+
+    @Before
+    public void setup() {
+        Sha256CredentialsMatcher hashed = new Sha256CredentialsMatcher() {
+            public boolean doCredentialsMatch(AuthenticationToken token, AuthenticationInfo info) {
+                matches.incrementAndGet();
+                return super.doCredentialsMatch(token, info);
+            }
+        };
+        hashed.setHashIterations(1024);
+        matcher = new CachingCredentialsMatcher(hashed);
+    }
+
+    private AuthenticationInfo account(String password) {
+        return new SimpleAuthenticationInfo("jsmith", new Sha256Hash(password, null, 1024).toHex(), "realm");
+    }
+
+    @Test
+    public void testRepeatedMatchRemembered() {
+        AuthenticationInfo info = account("secret");
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("jsmith", "secret"), info));
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("jsmith", "secret"), info));
+        assertEquals(1, matches.get());
+
+        //different credentials are always verified, and failures are never remembered:
+        assertFalse(matcher.doCredentialsMatch(new UsernamePasswordToken("jsmith", "wrong"), info));
+        assertFalse(matcher.doCredentialsMatch(new UsernamePasswordToken("jsmith", "wrong"), info));
+        assertEquals(3, matches.get());
+    }
+
+    @Test
+    public void testStoredCredentialsChanged() {
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("jsmith", "secret"), account("secret")));
+        assertFalse(matcher.doCredentialsMatch(new UsernamePasswordToken("jsmith", "secret"), account("changed")));
+        assertEquals(2, matches.get());
+    }
+
+    @Test
+    public void testClear() {
+        AuthenticationInfo info = account("secret");
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("jsmith", "secret"), info));
+        matcher.clear("jsmith");
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("jsmith", "secret"), info));
+        assertEquals(2, matches.get());
+
+        matcher.setTimeToLive(0);
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("jsmith", "secret"), info));
+        assertEquals(3, matches.get());
+    }
+
+    @Test
+    public void testDestroyedWithRealm() {
+        final AtomicInteger destroyed = new AtomicInteger();
+        ExecutorCredentialsMatcher executorMatcher = new ExecutorCredentialsMatcher(new SimpleCredentialsMatcher()) {
+            public void destroy() {
+                destroyed.incrementAndGet();
+                super.destroy();
+            }
+        };
+        SimpleAccountRealm realm = new SimpleAccountRealm();
+        realm.setCredentialsMatcher(new CachingCredentialsMatcher(executorMatcher));
+        realm.destroy();
+        assertEquals(1, destroyed.get());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authc.credential;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+import org.apache.ki.authc.AuthenticationInfo;
+import org.apache.ki.authc.AuthenticationToken;
+import org.apache.ki.authc.ExcessiveAuthenticationLoadException;
+import org.apache.ki.authc.SimpleAuthenticationInfo;
+import org.apache.ki.authc.UsernamePasswordToken;
+import org.apache.ki.crypto.hash.Sha256Hash;
+
+/**
+ * @since 1.0
+ */
+public class ExecutorCredentialsMatcherTest {
+
+    private ExecutorCredentialsMatcher matcher;
+
+    @After
+    public void tearDown() {
+        if (matcher != null) {
+            matcher.destroy();
+        }
+    }
+
+    @Test
+    public void testMatch() {
+        matcher = new ExecutorCredentialsMatcher(new Sha256CredentialsMatcher());
+        AuthenticationInfo info = new SimpleAuthenticationInfo("jsmith", new Sha256Hash("secret").toHex(), "realm");
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("jsmith", "secret"), info));
+        assertFalse(matcher.doCredentialsMatch(new UsernamePasswordToken("jsmith", "wrong"), info));
+    }
+
+    @Test
+    public void testRejectedWhenSaturated() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        matcher = new ExecutorCredentialsMatcher(new CredentialsMatcher() {
+            public boolean doCredentialsMatch(AuthenticationToken token, AuthenticationInfo info) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        });
+        matcher.setThreads(1);
+        matcher.setQueueSize(1);
+
+        final AuthenticationInfo info = new SimpleAuthenticationInfo("jsmith", "secret", "realm");
+        Thread[] waiting = new Thread[2];
+        for (int i = 0; i < waiting.length; i++) {
+            waiting[i] = new Thread() {
+                public void run() {
+                    matcher.doCredentialsMatch(new UsernamePasswordToken("jsmith", "secret"), info);
+                }
+            };
+            waiting[i].start();
+            if (i == 0) {
+                assertTrue(started.await(5, TimeUnit.SECONDS));
+            }
+        }
+        //one match running, one queued - wait for the queued one to be submitted:
+        long deadline = System.currentTimeMillis() + 5000;
+        while (((ThreadPoolExecutor) matcher.getExecutor()).getQueue().isEmpty() &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        try {
+            matcher.doCredentialsMatch(new UsernamePasswordToken("jsmith", "secret"), info);
+            fail("Saturated matcher should reject the attempt.");
+        } catch (ExcessiveAuthenticationLoadException expected) {
+        } finally {
+            release.countDown();
+        }
+        for (Thread thread : waiting) {
+            thread.join(5000);
+        }
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("jsmith", "secret"), info));
+    }
+}
@@ -47,4 +47,26 @@ public abstract class HashedCredentialsMatcherTest extends TestCase {
         AuthenticationToken token = new UsernamePasswordToken("username", "password");
         assertTrue(matcher.doCredentialsMatch(token, account));
     }
+
+    @Test
+    public void testSaltedAndIterated() {
+        HashedCredentialsMatcher matcher = (HashedCredentialsMatcher) ClassUtils.newInstance(getMatcherClass());
+        matcher.setHashSalted(true);
+        matcher.setHashIterations(3);
+        String hex = matcher.hashProvidedCredentials("password", "username", 3).toHex();
+        AuthenticationInfo account = new SimpleAuthenticationInfo("username", hex, "realmName");
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("username", "password"), account));
+        assertFalse(matcher.doCredentialsMatch(new UsernamePasswordToken("username", "Password"), account));
+        assertFalse(matcher.doCredentialsMatch(new UsernamePasswordToken("other", "password"), account));
+    }
+
+    @Test
+    public void testStoredCredentialsOfOtherLength() {
+        CredentialsMatcher matcher = (CredentialsMatcher) ClassUtils.newInstance(getMatcherClass());
+        byte[] hashed = hash("password").getBytes();
+        byte[] truncated = new byte[hashed.length - 1];
+        System.arraycopy(hashed, 0, truncated, 0, truncated.length);
+        AuthenticationInfo account = new SimpleAuthenticationInfo("username", truncated, "realmName");
+        assertFalse(matcher.doCredentialsMatch(new UsernamePasswordToken("username", "password"), account));
+    }
 }
@@ -18,7 +18,13 @@
  */
 package org.apache.ki.authc.credential;
 
+import org.junit.Test;
+
+import org.apache.ki.authc.AuthenticationInfo;
+import org.apache.ki.authc.SimpleAuthenticationInfo;
+import org.apache.ki.authc.UsernamePasswordToken;
 import org.apache.ki.crypto.hash.AbstractHash;
+import org.apache.ki.crypto.hash.Hash;
 import org.apache.ki.crypto.hash.Sha256Hash;
 
 
@@ -35,4 +41,20 @@ public class Sha256CredentialsMatcherTest extends HashedCredentialsMatcherTest {
     public AbstractHash hash(Object credentials) {
         return new Sha256Hash(credentials);
     }
+
+    @Test
+    public void testOverriddenHashingIsUsed() {
+        Sha256CredentialsMatcher matcher = new Sha256CredentialsMatcher() {
+            protected Hash hashProvidedCredentials(Object credentials, Object salt, int hashIterations) {
+                return new Sha256Hash(credentials, "pepper", hashIterations);
+            }
+
+            protected String getHashAlgorithmName() {
+                return null;
+            }
+        };
+        byte[] hashed = new Sha256Hash("password", "pepper").getBytes();
+        AuthenticationInfo account = new SimpleAuthenticationInfo("username", hashed, "realmName");
+        assertTrue(matcher.doCredentialsMatch(new UsernamePasswordToken("username", "password"), account));
+    }
 }
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authc.pam;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.ki.authc.AuthenticationException;
+import org.apache.ki.authc.AuthenticationInfo;
+import org.apache.ki.authc.AuthenticationToken;
+import org.apache.ki.authc.UsernamePasswordToken;
+import org.apache.ki.cache.DefaultCacheManager;
+import org.apache.ki.realm.Realm;
+import org.apache.ki.realm.SimpleAccountRealm;
+
+/**
+ * @since 1.0
+ */
+public class ModularRealmAuthenticatorTest {
+
+    private final CountDownLatch slowRealmStarted = new CountDownLatch(1);
+    private final CountDownLatch slowRealmInterrupted = new CountDownLatch(1);
+    private ModularRealmAuthenticator authenticator;
+
+    @Before
+    public void setUp() {
+        SimpleAccountRealm slow = new SimpleAccountRealm("slow") {
+            protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) throws AuthenticationException {
+                slowRealmStarted.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    slowRealmInterrupted.countDown();
+                    throw new AuthenticationException(e);
+                }
+                return super.doGetAuthenticationInfo(token);
+            }
+        };
+        slow.setCacheManager(new DefaultCacheManager());
+        slow.addAccount("jsmith", "secret");
+        //only respond once the slow realm is busy, so that it is actually interrupted rather than never started:
+        SimpleAccountRealm fast = new SimpleAccountRealm("fast") {
+            protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) throws AuthenticationException {
+                try {
+                    slowRealmStarted.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new AuthenticationException(e);
+                }
+                return super.doGetAuthenticationInfo(token);
+            }
+        };
+        fast.setCacheManager(new DefaultCacheManager());
+        fast.addAccount("jsmith", "secret");
+
+        List<Realm> realms = new ArrayList<Realm>();
+        realms.add(slow);
+        realms.add(fast);
+        authenticator = new ModularRealmAuthenticator(realms);
+        authenticator.setConcurrentAuthenticationEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        authenticator.destroy();
+    }
+
+    @Test
+    public void testConcurrentFirstSuccessfulCancelsRemainingRealms() throws Exception {
+        authenticator.setAuthenticationStrategy(new FirstSuccessfulStrategy());
+        long start = System.currentTimeMillis();
+        AuthenticationInfo info = authenticator.authenticate(new UsernamePasswordToken("jsmith", "secret"));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals("jsmith", info.getPrincipals().iterator().next());
+        assertEquals(1, info.getPrincipals().getRealmNames().size());
+        assertTrue(info.getPrincipals().getRealmNames().contains("fast"));
+        assertTrue(slowRealmInterrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testConcurrentAllSuccessfulFailsFast() throws Exception {
+        authenticator.setAuthenticationStrategy(new AllSuccessfulStrategy());
+        long start = System.currentTimeMillis();
+        try {
+            authenticator.authenticate(new UsernamePasswordToken("jsmith", "wrong"));
+            fail("Incorrect credentials should fail the attempt.");
+        } catch (AuthenticationException expected) {
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue(slowRealmInterrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRealmsRoutedByTokenClass() {
+        final AtomicInteger tokenClassLookups = new AtomicInteger();
+        SimpleAccountRealm other = new SimpleAccountRealm("other") {
+            public Class getAuthenticationTokenClass() {
+                tokenClassLookups.incrementAndGet();
+                return OtherToken.class;
+            }
+        };
+        SimpleAccountRealm fast = new SimpleAccountRealm("fast");
+        fast.setCacheManager(new DefaultCacheManager());
+        fast.addAccount("jsmith", "secret");
+
+        List<Realm> realms = new ArrayList<Realm>();
+        realms.add(other);
+        realms.add(fast);
+        ModularRealmAuthenticator routing = new ModularRealmAuthenticator(realms);
+        routing.setAuthenticationStrategy(new AtLeastOneSuccessfulStrategy());
+        for (int i = 0; i < 3; i++) {
+            AuthenticationInfo info = routing.authenticate(new UsernamePasswordToken("jsmith", "secret"));
+            assertTrue(info.getPrincipals().getRealmNames().contains("fast"));
+        }
+        assertEquals(1, tokenClassLookups.get());
+
+        routing.setRealms(realms);
+        routing.authenticate(new UsernamePasswordToken("jsmith", "secret"));
+        assertEquals(2, tokenClassLookups.get());
+    }
+
+    private static class OtherToken implements AuthenticationToken {
+        public Object getPrincipal() {
+            return null;
+        }
+
+        public Object getCredentials() {
+            return null;
+        }
+    }
+}
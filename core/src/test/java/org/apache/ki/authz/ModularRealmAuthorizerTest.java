@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authz;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.ki.authc.AuthenticationException;
+import org.apache.ki.authc.AuthenticationInfo;
+import org.apache.ki.authc.AuthenticationToken;
+import org.apache.ki.authz.permission.WildcardPermission;
+import org.apache.ki.cache.DefaultCacheManager;
+import org.apache.ki.realm.AuthorizingRealm;
+import org.apache.ki.realm.Realm;
+import org.apache.ki.subject.PrincipalCollection;
+import org.apache.ki.subject.SimplePrincipalCollection;
+
+/**
+ * @since 1.0
+ */
+public class ModularRealmAuthorizerTest {
+
+    private CountingRealm realm1;
+    private CountingRealm realm2;
+    private ModularRealmAuthorizer authorizer;
+    private PrincipalCollection principals;
+
+    @Before
+    public void setUp() {
+        realm1 = new CountingRealm("role1", "newsletter:view");
+        realm2 = new CountingRealm("role2", "document:read");
+        Collection<Realm> realms = new ArrayList<Realm>();
+        realms.add(realm1);
+        realms.add(realm2);
+        authorizer = new ModularRealmAuthorizer(realms);
+        principals = new SimplePrincipalCollection("user", realm1.getName());
+    }
+
+    @Test
+    public void testHasRoles() {
+        List<String> roles = Arrays.asList("role1", "role2", "role3");
+        boolean[] result = authorizer.hasRoles(principals, roles);
+        assertTrue(result[0]);
+        assertTrue(result[1]);
+        assertFalse(result[2]);
+        assertEquals(1, realm1.lookups);
+        assertEquals(1, realm2.lookups);
+
+        assertTrue(authorizer.hasAllRoles(principals, Arrays.asList("role1", "role2")));
+        assertFalse(authorizer.hasAllRoles(principals, roles));
+        assertEquals(3, realm1.lookups);
+        assertEquals(3, realm2.lookups);
+    }
+
+    @Test
+    public void testIsPermitted() {
+        boolean[] result = authorizer.isPermitted(principals, "newsletter:view", "document:read", "printer:print");
+        assertTrue(result[0]);
+        assertTrue(result[1]);
+        assertFalse(result[2]);
+        assertEquals(1, realm1.lookups);
+        assertEquals(1, realm2.lookups);
+
+        assertTrue(authorizer.isPermittedAll(principals, "newsletter:view", "document:read"));
+        assertFalse(authorizer.isPermittedAll(principals, "newsletter:view", "printer:print"));
+    }
+
+    @Test
+    public void testSatisfiedBatchSkipsRemainingRealms() {
+        assertTrue(authorizer.isPermittedAll(principals, "newsletter:view"));
+        assertEquals(1, realm1.lookups);
+        assertEquals(0, realm2.lookups);
+    }
+
+    @Test
+    public void testCheckReportsFirstFailure() {
+        try {
+            authorizer.checkPermissions(principals, "newsletter:view", "printer:print", "printer:query");
+            fail("UnauthorizedException should have been thrown.");
+        } catch (UnauthorizedException e) {
+            assertEquals("Subject does not have permission [printer:print]", e.getMessage());
+        }
+        try {
+            authorizer.checkRoles(principals, Arrays.asList("role2", "role3", "role4"));
+            fail("UnauthorizedException should have been thrown.");
+        } catch (UnauthorizedException e) {
+            assertEquals("Subject does not have role [role3]", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testMergedAuthorization() {
+        authorizer.setCacheManager(new DefaultCacheManager());
+        authorizer.setMergedAuthorizationEnabled(true);
+
+        assertTrue(authorizer.hasRole(principals, "role2"));
+        assertTrue(authorizer.isPermitted(principals, "newsletter:view"));
+        assertTrue(authorizer.isPermitted(principals, new WildcardPermission("document:read:12")));
+        assertFalse(authorizer.isPermitted(principals, "printer:print"));
+        assertFalse(authorizer.hasAllRoles(principals, Arrays.asList("role1", "role3")));
+        assertEquals(1, realm1.lookups);
+        assertEquals(1, realm2.lookups);
+
+        realm2.clear(principals);
+        assertTrue(authorizer.isPermittedAll(principals, "newsletter:view", "document:read"));
+        assertEquals(2, realm1.lookups);
+        assertEquals(2, realm2.lookups);
+    }
+
+    @Test
+    public void testMergedAuthorizationNotCachedWhenClearedDuringBuild() {
+        authorizer.setCacheManager(new DefaultCacheManager());
+        authorizer.setMergedAuthorizationEnabled(true);
+        //simulates realm1's data being changed and cleared while the merged info is being built:
+        realm2.onLoad = new Runnable() {
+            public void run() {
+                realm2.onLoad = null;
+                realm1.clear(principals);
+            }
+        };
+
+        assertTrue(authorizer.hasRole(principals, "role1"));
+        assertTrue(authorizer.hasRole(principals, "role2"));
+        assertTrue(authorizer.hasRole(principals, "role1"));
+        assertEquals(2, realm1.lookups);
+        assertEquals(2, realm2.lookups);
+    }
+
+    @Test
+    public void testMergedAuthorizationCachedWhenOtherSubjectCleared() {
+        authorizer.setCacheManager(new DefaultCacheManager());
+        authorizer.setMergedAuthorizationEnabled(true);
+        realm2.onLoad = new Runnable() {
+            public void run() {
+                realm2.onLoad = null;
+                realm1.clear(new SimplePrincipalCollection("other", realm1.getName()));
+            }
+        };
+
+        assertTrue(authorizer.hasRole(principals, "role1"));
+        assertTrue(authorizer.hasRole(principals, "role2"));
+        assertEquals(1, realm1.lookups);
+        assertEquals(1, realm2.lookups);
+    }
+
+    @Test
+    public void testMergedAuthorizationRequiresCache() {
+        authorizer.setMergedAuthorizationEnabled(true);
+        //each realm is consulted individually, so the first one to grant the role ends the check:
+        assertTrue(authorizer.hasRole(principals, "role1"));
+        assertEquals(1, realm1.lookups);
+        assertEquals(0, realm2.lookups);
+    }
+
+    @Test
+    public void testMergedAuthorizationExpiresWithRealmInfo() throws InterruptedException {
+        realm1.setCacheManager(new DefaultCacheManager());
+        realm1.setAuthorizationCacheSoftTimeToLive(50);
+        authorizer.setCacheManager(new DefaultCacheManager());
+        authorizer.setMergedAuthorizationEnabled(true);
+
+        assertTrue(authorizer.hasRole(principals, "role1"));
+        assertEquals(1, realm1.lookups);
+        Thread.sleep(100);
+        //the merged info must not outlive realm1's info, so realm1 is consulted again and refreshes its data:
+        assertTrue(authorizer.hasRole(principals, "role1"));
+        for (int i = 0; i < 100 && realm1.lookups < 2; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(2, realm1.lookups);
+        assertEquals(2, realm2.lookups);
+    }
+
+    private static class CountingRealm extends AuthorizingRealm {
+
+        private final String role;
+        private final String permission;
+        private volatile int lookups = 0;
+        private volatile Runnable onLoad;
+
+        private CountingRealm(String role, String permission) {
+            this.role = role;
+            this.permission = permission;
+        }
+
+        protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
+            lookups++;
+            Runnable onLoad = this.onLoad;
+            if (onLoad != null) {
+                onLoad.run();
+            }
+            SimpleAuthorizationInfo info = new SimpleAuthorizationInfo();
+            info.addRole(role);
+            info.addStringPermission(permission);
+            return info;
+        }
+
+        protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) throws AuthenticationException {
+            return null;
+        }
+
+        private void clear(PrincipalCollection principals) {
+            clearCachedAuthorizationInfo(principals);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authz;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import org.apache.ki.cache.DefaultCacheManager;
+import org.apache.ki.realm.SimpleAccountRealm;
+import org.apache.ki.subject.SimplePrincipalCollection;
+
+/**
+ * @since 1.0
+ */
+public class RoleRegistryTest {
+
+    @Test
+    public void testRegister() {
+        RoleRegistry registry = new RoleRegistry();
+        assertEquals(-1, registry.getId("admin"));
+        int admin = registry.register("admin");
+        int user = registry.register("user");
+        assertEquals(admin, registry.register("admin"));
+        assertEquals(admin, registry.getId("admin"));
+        assertEquals("user", registry.getRole(user));
+        assertEquals(2, registry.size());
+        assertNull(registry.getIds(Arrays.asList("admin", "unknown")));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testCompiledRoles() {
+        RoleRegistry registry = new RoleRegistry();
+        Set<String> roles = new LinkedHashSet<String>(Arrays.asList("admin", "user", "auditor"));
+        CompiledAuthorizationInfo info =
+                new CompiledAuthorizationInfo(new SimpleAuthorizationInfo(roles), null, registry);
+
+        assertEquals(roles, info.getRoles());
+        assertTrue(info.hasRole("user"));
+        assertFalse(info.hasRole("guest"));
+        assertTrue(info.hasAllRoles(Arrays.asList("auditor", "admin")));
+        assertFalse(info.hasAllRoles(Arrays.asList("auditor", "guest")));
+        registry.register("guest");
+        assertFalse(info.hasAllRoles(Arrays.asList("auditor", "guest")));
+
+        BitSet required = registry.getIds(Arrays.asList("admin", "user"));
+        assertTrue(info.hasAllRoles(required));
+        assertTrue(Arrays.equals(new boolean[]{true, false, true},
+                info.hasRoles(Arrays.asList("admin", "guest", "auditor"))));
+    }
+
+    @Test
+    public void testSerializedCompiledRoles() throws Exception {
+        Set<String> roles = new LinkedHashSet<String>(Arrays.asList("admin", "user"));
+        CompiledAuthorizationInfo info =
+                new CompiledAuthorizationInfo(new SimpleAuthorizationInfo(roles), null, new RoleRegistry());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(info);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        CompiledAuthorizationInfo copy = (CompiledAuthorizationInfo) in.readObject();
+
+        assertTrue(copy.getRoleRegistry() != info.getRoleRegistry());
+        assertEquals(roles, copy.getRoles());
+        assertTrue(copy.hasAllRoles(roles));
+        assertEquals(info.getCreationTime(), copy.getCreationTime());
+    }
+
+    @Test
+    public void testRegistryScopedToRealm() {
+        SimpleAccountRealm realm1 = new SimpleAccountRealm("realm1");
+        realm1.setCacheManager(new DefaultCacheManager());
+        realm1.addAccount("jsmith", "secret", "admin");
+        SimpleAccountRealm realm2 = new SimpleAccountRealm("realm2");
+        realm2.setCacheManager(new DefaultCacheManager());
+        realm2.addAccount("jsmith", "secret", "user");
+
+        assertTrue(realm1.hasRole(new SimplePrincipalCollection("jsmith", "realm1"), "admin"));
+        assertTrue(realm2.hasRole(new SimplePrincipalCollection("jsmith", "realm2"), "user"));
+        assertTrue(realm1.getRoleRegistry().getId("admin") >= 0);
+        assertEquals(-1, realm1.getRoleRegistry().getId("user"));
+        assertEquals(-1, realm2.getRoleRegistry().getId("admin"));
+    }
+}
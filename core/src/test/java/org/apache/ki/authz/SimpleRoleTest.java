@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authz;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import org.apache.ki.authz.permission.WildcardPermission;
+
+/**
+ * @since 1.0
+ */
+public class SimpleRoleTest {
+
+    @Test
+    public void testPermissionsChangedInPlace() {
+        Set<Permission> perms = new LinkedHashSet<Permission>();
+        perms.add(new WildcardPermission("document:delete"));
+        SimpleRole role = new SimpleRole("admin", perms);
+        assertSame(perms, role.getPermissions());
+        assertTrue(role.isPermitted(new WildcardPermission("document:delete")));
+
+        //same size, different contents - must not be answered by the index built above:
+        perms.clear();
+        perms.add(new WildcardPermission("document:read"));
+        assertFalse(role.isPermitted(new WildcardPermission("document:delete")));
+        assertTrue(role.isPermitted(new WildcardPermission("document:read")));
+
+        role.getPermissions().remove(new WildcardPermission("document:read"));
+        assertFalse(role.isPermitted(new WildcardPermission("document:read")));
+
+        role.add(new WildcardPermission("document:write"));
+        assertTrue(role.isPermitted(new WildcardPermission("document:write")));
+    }
+
+    @Test
+    public void testPermissionsFieldReplaced() {
+        ReplacingRole role = new ReplacingRole();
+        role.add(new WildcardPermission("document:delete"));
+        assertTrue(role.isPermitted(new WildcardPermission("document:delete")));
+
+        role.replacePermissions(new WildcardPermission("document:read"));
+        assertFalse(role.isPermitted(new WildcardPermission("document:delete")));
+        assertTrue(role.isPermitted(new WildcardPermission("document:read")));
+    }
+
+    private static class ReplacingRole extends SimpleRole {
+        private void replacePermissions(Permission permission) {
+            permissions = new LinkedHashSet<Permission>();
+            permissions.add(permission);
+        }
+    }
+}
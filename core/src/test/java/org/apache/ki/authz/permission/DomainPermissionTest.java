@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authz.permission;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import org.apache.ki.authz.Permission;
+
+/**
+ * @since 1.0
+ */
+public class DomainPermissionTest {
+
+    public static class DocumentPermission extends DomainPermission {
+        public DocumentPermission() {
+        }
+
+        public DocumentPermission(String actions) {
+            super(actions);
+        }
+
+        public DocumentPermission(String actions, String targets) {
+            super(actions, targets);
+        }
+    }
+
+    public static class ReportPermission extends DomainPermission {
+        public ReportPermission(String actions) {
+            super(actions);
+        }
+    }
+
+    public static class CustomDocumentPermission extends DocumentPermission {
+        public boolean implies(Permission p) {
+            return true;
+        }
+    }
+
+    private static String toWildcardString(String actions, String targets) {
+        StringBuilder sb = new StringBuilder("document");
+        if (actions != null) {
+            sb.append(":").append(actions);
+        } else if (targets != null) {
+            sb.append(":*");
+        }
+        if (targets != null) {
+            sb.append(":").append(targets);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testProperties() {
+        DocumentPermission p = new DocumentPermission("read,write", "12");
+        assertEquals("document", p.getDomain());
+        assertEquals("read,write", p.getActions());
+        assertEquals("12", p.getTargets());
+    }
+
+    @Test
+    public void testSameResultsAsWildcardPermission() {
+        String[][] defs = {{null, null}, {"read", null}, {"read,write", null}, {"*", null}, {"read", "12"},
+                {"read", "12,13"}, {"read,write", "12"}, {"write", "*"}, {"*", "12"}, {null, "12"}, {"READ", "12"},
+                {"read,*", "13"}, {"delete", "12,13,14"}};
+        List<DocumentPermission> typed = new ArrayList<DocumentPermission>();
+        List<WildcardPermission> wildcard = new ArrayList<WildcardPermission>();
+        for (String[] def : defs) {
+            typed.add(def[0] == null && def[1] == null ? new DocumentPermission() :
+                    new DocumentPermission(def[0], def[1]));
+            wildcard.add(new WildcardPermission(toWildcardString(def[0], def[1])));
+        }
+        for (int i = 0; i < defs.length; i++) {
+            for (int j = 0; j < defs.length; j++) {
+                boolean expected = wildcard.get(i).implies(wildcard.get(j));
+                String msg = wildcard.get(i) + " implies " + wildcard.get(j);
+                assertEquals(msg, expected, typed.get(i).implies(typed.get(j)));
+                //mixed with generic wildcard permissions:
+                assertEquals(msg, expected, typed.get(i).implies(wildcard.get(j)));
+                assertEquals(msg, expected, wildcard.get(i).implies(typed.get(j)));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexable() {
+        assertTrue(PermissionIndex.isIndexable(new DocumentPermission("read")));
+        assertFalse(PermissionIndex.isIndexable(new CustomDocumentPermission()));
+    }
+
+    @Test
+    public void testCheckedActionsAreNotRegistered() throws Exception {
+        ReportPermission granted = new ReportPermission("view,export");
+        for (int i = 0; i < 100; i++) {
+            assertFalse(granted.implies(new ReportPermission("action" + i)));
+            assertFalse(granted.implies(new ReportPermission("view,action" + i)));
+        }
+        assertTrue(granted.implies(new ReportPermission("export")));
+        assertTrue(new ReportPermission("*").implies(new ReportPermission("view,action1")));
+
+        Field field = DomainPermission.class.getDeclaredField("ACTION_BITS");
+        field.setAccessible(true);
+        Map actionBits = (Map) field.get(null);
+        assertEquals(2, ((Map) actionBits.get("report")).size());
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authz.permission;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import org.apache.ki.authz.Permission;
+
+/**
+ * @since 1.0
+ */
+public class InstancePermissionMatcherTest {
+
+    private static List<Permission> perms(String... wildcardStrings) {
+        List<Permission> perms = new ArrayList<Permission>(wildcardStrings.length);
+        for (String s : wildcardStrings) {
+            perms.add(new WildcardPermission(s));
+        }
+        return perms;
+    }
+
+    private static boolean linearImplies(List<Permission> grants, String permission) {
+        Permission p = new WildcardPermission(permission);
+        for (Permission grant : grants) {
+            if (grant.implies(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testSameResultsAsWildcardPermissions() {
+        List<Permission> grants = perms("document:read:1,2,Three", "document:read,write:4", "document:*:5",
+                "document:read:6:*", "document:read:7:view", "printer:read", "*:read:8", "document:delete");
+        List<Object> ids = Arrays.<Object>asList(1, 2L, "three", 4, 5, 6, 7, 8, 9, "1,2", "1:x", " 1", "*");
+
+        for (String action : new String[]{"read", "write", "delete", "read,write", "print"}) {
+            InstancePermissionMatcher matcher = new InstancePermissionMatcher(grants, "document", action);
+            BitSet mask = matcher.getPermittedMask(ids);
+            for (int i = 0; i < ids.size(); i++) {
+                String permission = "document:" + action + ":" + ids.get(i);
+                assertEquals(permission, linearImplies(grants, permission), mask.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testAllPermitted() {
+        InstancePermissionMatcher matcher = new InstancePermissionMatcher(perms("document:read"), "document", "read");
+        assertTrue(matcher.isAllPermitted());
+        assertEquals(Arrays.asList(1, 2, 3), matcher.filterPermitted(Arrays.asList(1, 2, 3)));
+
+        matcher = new InstancePermissionMatcher(perms("document:read:2"), "document", "read");
+        assertFalse(matcher.isAllPermitted());
+        assertEquals(Arrays.asList(2), matcher.filterPermitted(Arrays.asList(1, 2, 3)));
+    }
+
+    @Test
+    public void testFilterPermittedReturnsModifiableList() {
+        InstancePermissionMatcher matcher = new InstancePermissionMatcher(perms("document:read:2"), "document", "read");
+        List<Integer> none = matcher.filterPermitted(new ArrayList<Integer>());
+        none.add(1);
+        List<Integer> some = matcher.filterPermitted(Arrays.asList(1, 2, 3));
+        some.add(4);
+        assertEquals(Arrays.asList(2, 4), some);
+    }
+
+    @Test
+    public void testPermittedInstances() {
+        List<Permission> grants = perms("document:read:1,2", "document:read,write:3", "document:*:4:*",
+                "document:read:5:view", "printer:read");
+        PermittedInstances permitted = new InstancePermissionMatcher(grants, "document", "read").getPermittedInstances();
+        assertFalse(permitted.isAll());
+        assertFalse(permitted.isNone());
+        assertEquals(new HashSet<String>(Arrays.asList("1", "2", "3", "4")), permitted.getInstances());
+
+        assertTrue(new InstancePermissionMatcher(grants, "printer", "read").getPermittedInstances().isAll());
+        assertTrue(new InstancePermissionMatcher(grants, "invoice", "read").getPermittedInstances().isNone());
+
+        grants.add(new WildcardPermission("document:read:6") {
+            public boolean implies(Permission p) {
+                return false;
+            }
+        });
+        assertNull(new InstancePermissionMatcher(grants, "document", "read").getPermittedInstances());
+    }
+
+    @Test
+    public void testCustomGrants() {
+        List<Permission> grants = perms("document:read:1");
+        grants.add(new WildcardPermission("document:read:2") {
+            public boolean implies(Permission p) {
+                return p.toString().contains("3");
+            }
+        });
+        InstancePermissionMatcher matcher = new InstancePermissionMatcher(grants, "document", "read");
+        assertEquals(Arrays.asList(1, 3), matcher.filterPermitted(Arrays.asList(1, 2, 3)));
+    }
+}
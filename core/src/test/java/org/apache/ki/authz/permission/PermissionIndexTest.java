@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authz.permission;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import org.apache.ki.authz.Permission;
+
+/**
+ * @since 1.0
+ */
+public class PermissionIndexTest {
+
+    private static List<Permission> perms(String... wildcardStrings) {
+        List<Permission> perms = new ArrayList<Permission>(wildcardStrings.length);
+        for (String s : wildcardStrings) {
+            perms.add(new WildcardPermission(s));
+        }
+        return perms;
+    }
+
+    private static boolean linearImplies(List<Permission> grants, Permission p) {
+        for (Permission grant : grants) {
+            if (grant.implies(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testEmpty() {
+        PermissionIndex index = new PermissionIndex(Collections.<Permission>emptyList());
+        assertFalse(index.implies(new WildcardPermission("newsletter:view")));
+    }
+
+    @Test
+    public void testAllPermission() {
+        List<Permission> grants = perms("newsletter:view");
+        grants.add(new AllPermission());
+        PermissionIndex index = new PermissionIndex(grants);
+        assertTrue(index.implies(new WildcardPermission("anything:at:all")));
+        assertTrue(index.implies(new AllPermission()));
+    }
+
+    @Test
+    public void testTopLevelWildcard() {
+        PermissionIndex index = new PermissionIndex(perms("*"));
+        assertTrue(index.implies(new WildcardPermission("newsletter")));
+        assertTrue(index.implies(new WildcardPermission("newsletter:edit:12")));
+        assertFalse(index.implies(new AllPermission()));
+    }
+
+    @Test
+    public void testSubparts() {
+        PermissionIndex index = new PermissionIndex(perms("newsletter:view,edit:12,13", "document:read"));
+        assertTrue(index.implies(new WildcardPermission("newsletter:view:12")));
+        assertTrue(index.implies(new WildcardPermission("newsletter:view,edit:13")));
+        assertTrue(index.implies(new WildcardPermission("document:read:42")));
+        assertFalse(index.implies(new WildcardPermission("newsletter:view,delete:12")));
+        assertFalse(index.implies(new WildcardPermission("newsletter:view")));
+        assertFalse(index.implies(new WildcardPermission("newsletter:edit:14")));
+        assertFalse(index.implies(new WildcardPermission("document")));
+    }
+
+    @Test
+    public void testNotIndexable() {
+        List<Permission> grants = perms("newsletter:view");
+        assertTrue(PermissionIndex.isIndexable(grants));
+        grants.add(new WildcardPermission("document:read") {
+            public boolean implies(Permission p) {
+                return false;
+            }
+        });
+        assertFalse(PermissionIndex.isIndexable(grants));
+    }
+
+    @Test
+    public void testSameResultsAsLinearImplies() {
+        List<Permission> grants = perms("newsletter:view,edit:12,13", "newsletter:*:14", "*:view",
+                "document:read,write", "document:delete:*:*", "printer:print:lp7200", "printer:*:*:color");
+        PermissionIndex index = new PermissionIndex(grants);
+
+        String[] checks = {"newsletter", "newsletter:view", "newsletter:edit:12", "newsletter:delete:12",
+                "newsletter:delete:14", "newsletter:edit:12,14", "document", "document:read", "document:read:1",
+                "document:read,write", "document:read,delete", "document:delete", "document:delete:5",
+                "document:delete:5:6:7", "printer:print", "printer:print:lp7200", "printer:print:lp7200:color",
+                "printer:query:lp7200:color", "anything:view", "anything:view:1", "*", "*:view", "document:*"};
+        for (String check : checks) {
+            Permission p = new WildcardPermission(check);
+            assertEquals(check, linearImplies(grants, p), index.implies(p));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.authz.permission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import org.apache.ki.authz.Permission;
+
+/**
+ * @since 1.0
+ */
+public class WildcardPermissionResolverTest {
+
+    @Test
+    public void testNoCacheByDefault() {
+        WildcardPermissionResolver resolver = new WildcardPermissionResolver();
+        Permission p1 = resolver.resolvePermission("newsletter:edit:12");
+        Permission p2 = resolver.resolvePermission("newsletter:edit:12");
+        assertNotSame(p1, p2);
+        assertEquals(p1, p2);
+        assertEquals(0, resolver.getCacheHitCount());
+        assertEquals(0, resolver.getCacheMissCount());
+    }
+
+    @Test
+    public void testCache() {
+        WildcardPermissionResolver resolver = new WildcardPermissionResolver(100);
+        Permission p1 = resolver.resolvePermission("newsletter:edit:12");
+        Permission p2 = resolver.resolvePermission("newsletter:edit:12");
+        assertSame(p1, p2);
+        assertEquals(1, resolver.getCacheHitCount());
+        assertEquals(1, resolver.getCacheMissCount());
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        WildcardPermissionResolver resolver = new WildcardPermissionResolver(10);
+        for (int i = 0; i < 100; i++) {
+            Permission p = resolver.resolvePermission("newsletter:edit:" + i);
+            assertTrue(p.implies(new WildcardPermission("newsletter:edit:" + i)));
+        }
+        assertEquals(100, resolver.getCacheMissCount());
+        Permission p = resolver.resolvePermission("newsletter:edit:99");
+        assertSame(p, resolver.resolvePermission("newsletter:edit:99"));
+        assertTrue(resolver.getCacheHitCount() >= 1);
+    }
+
+    @Test
+    public void testFrequentlyUsedPermissionsStayCached() {
+        WildcardPermissionResolver resolver = new WildcardPermissionResolver(10);
+        String[] hot = {"printer:print", "printer:query", "document:read", "document:write", "user:view"};
+        Permission[] resolved = new Permission[hot.length];
+        for (int i = 0; i < hot.length; i++) {
+            resolved[i] = resolver.resolvePermission(hot[i]);
+        }
+        for (int i = 0; i < 100; i++) {
+            resolver.resolvePermission("newsletter:edit:" + i);
+            for (int j = 0; j < hot.length; j++) {
+                assertSame(resolved[j], resolver.resolvePermission(hot[j]));
+            }
+        }
+        assertEquals(100 + hot.length, resolver.getCacheMissCount());
+    }
+}
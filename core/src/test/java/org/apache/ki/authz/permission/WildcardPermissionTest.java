@@ -18,7 +18,14 @@
  */
 package org.apache.ki.authz.permission;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
@@ -197,4 +204,55 @@ public class WildcardPermissionTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testEqualsAndHashCode() {
+        WildcardPermission p1 = new WildcardPermission("newsletter:view,edit:12");
+        WildcardPermission p2 = new WildcardPermission("NEWSLETTER:edit,view,edit:12");
+        WildcardPermission p3 = new WildcardPermission("newsletter:view:12");
+        assertTrue(p1.equals(p2));
+        assertTrue(p2.equals(p1));
+        assertEquals(p1.hashCode(), p2.hashCode());
+        assertEquals(p1.getParts().hashCode(), p1.hashCode());
+        assertFalse(p1.equals(p3));
+        assertEquals("[newsletter]:[view, edit]:[12]", p1.toString());
+    }
+
+    @Test
+    public void testManySubparts() {
+        StringBuilder sb = new StringBuilder("newsletter:edit:");
+        for (int i = 0; i < 100; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(i);
+        }
+        WildcardPermission p1 = new WildcardPermission(sb.toString());
+        assertTrue(p1.implies(new WildcardPermission("newsletter:edit:42")));
+        assertTrue(p1.implies(new WildcardPermission("newsletter:edit:0,99")));
+        assertFalse(p1.implies(new WildcardPermission("newsletter:edit:100")));
+        assertFalse(p1.implies(new WildcardPermission("newsletter:edit:99,100")));
+    }
+
+    @Test
+    public void testPartsViewIsReused() {
+        WildcardPermission p1 = new WildcardPermission("newsletter:view,edit:12");
+        assertSame(p1.getParts(), p1.getParts());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        WildcardPermission p1 = new WildcardPermission("newsletter:view,edit,a,b,c,d,e,f,g,h:*");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(p1);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        WildcardPermission p2 = (WildcardPermission) in.readObject();
+        assertEquals(p1, p2);
+        assertEquals(p1.hashCode(), p2.hashCode());
+        assertEquals(p1.getParts(), p2.getParts());
+        assertTrue(p2.implies(new WildcardPermission("newsletter:h,view:42")));
+        assertFalse(p2.implies(new WildcardPermission("newsletter:delete:42")));
+    }
+
+}
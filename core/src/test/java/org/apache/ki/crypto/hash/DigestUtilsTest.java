@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.crypto.hash;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import org.apache.ki.codec.CodecSupport;
+
+/**
+ * @since 1.0
+ */
+public class DigestUtilsTest {
+
+    private static byte[] expected(byte[] source, byte[] salt, int iterations) throws Exception {
+        MessageDigest md = MessageDigest.getInstance(Sha256Hash.ALGORITHM_NAME);
+        md.update(salt);
+        byte[] hashed = md.digest(source);
+        for (int i = 1; i < iterations; i++) {
+            hashed = md.digest(hashed);
+        }
+        return hashed;
+    }
+
+    @Test
+    public void testHashIntoBuffer() throws Exception {
+        byte[] source = CodecSupport.toBytes("secret");
+        byte[] salt = CodecSupport.toBytes("jsmith");
+        byte[] expected = expected(source, salt, 3);
+
+        byte[] buffer = new byte[expected.length + 4];
+        int length = DigestUtils.hash(Sha256Hash.ALGORITHM_NAME, source, salt, 3, buffer, 2);
+        assertEquals(expected.length, length);
+        assertTrue(Arrays.equals(expected, Arrays.copyOfRange(buffer, 2, 2 + length)));
+        assertEquals(0, buffer[0]);
+        assertEquals(0, buffer[buffer.length - 1]);
+
+        assertTrue(Arrays.equals(expected, new Sha256Hash("secret", "jsmith", 3).getBytes()));
+    }
+
+    @Test
+    public void testDigestReusedPerThread() {
+        MessageDigest md = DigestUtils.getDigest(Sha256Hash.ALGORITHM_NAME);
+        md.update((byte) 1);
+        assertSame(md, DigestUtils.getDigest(Sha256Hash.ALGORITHM_NAME));
+        //handed out reset:
+        assertTrue(Arrays.equals(new Sha256Hash(new byte[0]).getBytes(), md.digest()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBufferTooSmall() {
+        DigestUtils.hash(Sha256Hash.ALGORITHM_NAME, new byte[1], null, 1, new byte[16], 0);
+    }
+}
@@ -22,10 +22,14 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import static org.junit.Assert.*;
@@ -35,6 +39,7 @@ import org.junit.Test;
 import org.apache.ki.authc.AuthenticationException;
 import org.apache.ki.authc.AuthenticationInfo;
 import org.apache.ki.authc.AuthenticationToken;
+import org.apache.ki.authc.IncorrectCredentialsException;
 import org.apache.ki.authc.SimpleAccount;
 import org.apache.ki.authc.SimpleAuthenticationInfo;
 import org.apache.ki.authc.UsernamePasswordToken;
@@ -44,7 +49,10 @@ import org.apache.ki.authz.AuthorizationInfo;
 import org.apache.ki.authz.Permission;
 import org.apache.ki.authz.SimpleAuthorizationInfo;
 import org.apache.ki.authz.UnauthorizedException;
+import org.apache.ki.authz.permission.PermissionResolver;
 import org.apache.ki.authz.permission.WildcardPermission;
+import org.apache.ki.cache.Cache;
+import org.apache.ki.cache.DefaultCacheManager;
 import org.apache.ki.mgt.DefaultSecurityManager;
 import org.apache.ki.subject.PrincipalCollection;
 import org.apache.ki.subject.SimplePrincipalCollection;
@@ -225,6 +233,262 @@ public class AuthorizingRealmTest {
         assertFalse(realm.isPermittedAll(pCollection, permList));
     }
 
+    @Test
+    public void testStringPermissionsResolvedOncePerCachedInfo() {
+        final int[] resolveCount = new int[1];
+        AuthorizingRealm realm = new AllowAllRealm() {
+            protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
+                SimpleAuthorizationInfo info = new SimpleAuthorizationInfo();
+                info.addStringPermission("newsletter:view,edit");
+                info.addStringPermission("document:read");
+                return info;
+            }
+        };
+        realm.setPermissionResolver(new PermissionResolver() {
+            public Permission resolvePermission(String permissionString) {
+                resolveCount[0]++;
+                return new WildcardPermission(permissionString);
+            }
+        });
+        realm.setCacheManager(new DefaultCacheManager());
+
+        PrincipalCollection pCollection = new SimplePrincipalCollection(new UsernamePrincipal("blah"), realm.getName());
+        List<Permission> permList = new ArrayList<Permission>();
+        permList.add(new WildcardPermission("newsletter:edit"));
+        permList.add(new WildcardPermission("document:write"));
+
+        assertTrue(realm.isPermitted(pCollection, new WildcardPermission("newsletter:view")));
+        assertArrayEquals(new boolean[]{true, false}, realm.isPermitted(pCollection, permList));
+        assertFalse(realm.isPermittedAll(pCollection, permList));
+        realm.checkPermission(pCollection, new WildcardPermission("document:read"));
+        assertEquals(2, resolveCount[0]);
+        assertTrue(realm.getAuthorizationInfo(pCollection) instanceof SimpleAuthorizationInfo);
+
+        realm.clearCachedAuthorizationInfo(pCollection);
+        assertTrue(realm.isPermitted(pCollection, new WildcardPermission("document:read")));
+        assertEquals(4, resolveCount[0]);
+    }
+
+    @Test
+    public void testFilterPermitted() {
+        AuthorizingRealm realm = new AllowAllRealm() {
+            protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
+                SimpleAuthorizationInfo info = new SimpleAuthorizationInfo();
+                info.addStringPermission("document:read:1,3");
+                info.addStringPermission("document:write");
+                return info;
+            }
+        };
+        PrincipalCollection pCollection = new SimplePrincipalCollection(new UsernamePrincipal("blah"), realm.getName());
+        List<Integer> ids = Arrays.asList(1, 2, 3);
+
+        assertEquals(Arrays.asList(1, 3), realm.filterPermitted(pCollection, "document", "read", ids));
+        assertEquals(ids, realm.filterPermitted(pCollection, "document", "write", ids));
+        BitSet mask = realm.getPermittedMask(pCollection, "document", "read", ids);
+        assertTrue(mask.get(0) && !mask.get(1) && mask.get(2));
+
+        assertEquals(new HashSet<String>(Arrays.asList("1", "3")),
+                realm.getPermittedInstances(pCollection, "document", "read").getInstances());
+        assertTrue(realm.getPermittedInstances(pCollection, "document", "write").isAll());
+        assertTrue(realm.getPermittedInstances(pCollection, "document", "delete").isNone());
+    }
+
+    @Test
+    public void testConcurrentCacheMissesShareOneLoad() throws Exception {
+        final AtomicInteger loadCount = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AuthorizingRealm realm = new AllowAllRealm() {
+            protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
+                loadCount.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                SimpleAuthorizationInfo info = new SimpleAuthorizationInfo();
+                info.addStringPermission("document:read");
+                return info;
+            }
+        };
+        realm.setCacheManager(new DefaultCacheManager());
+        final PrincipalCollection pCollection =
+                new SimplePrincipalCollection(new UsernamePrincipal("blah"), realm.getName());
+
+        int threadCount = 8;
+        final AtomicInteger permitted = new AtomicInteger();
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    if (realm.isPermitted(pCollection, "document:read")) {
+                        permitted.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        //wait until all but the loading thread are waiting for the load:
+        long deadline = System.currentTimeMillis() + 10000;
+        while (realm.getAuthorizationLoadStatistics().getSharedLoadCount() < threadCount - 1 &&
+                System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, loadCount.get());
+        assertEquals(threadCount, permitted.get());
+        assertEquals(1, realm.getAuthorizationLoadStatistics().getLoadCount());
+        assertEquals(threadCount - 1, realm.getAuthorizationLoadStatistics().getSharedLoadCount());
+        AuthorizationLoadStatistics keyStatistics = realm.getAuthorizationLoadStatistics(pCollection);
+        assertNotNull(keyStatistics);
+        assertEquals(1, keyStatistics.getLoadCount());
+        assertTrue(keyStatistics.getMaxLoadTimeNanos() > 0);
+
+        //served from the cache from now on:
+        assertTrue(realm.isPermitted(pCollection, "document:read"));
+        assertEquals(1, loadCount.get());
+    }
+
+    @Test
+    public void testStaleAuthorizationInfoRefreshedInBackground() throws Exception {
+        final AtomicInteger loadCount = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        AuthorizingRealm realm = new AllowAllRealm() {
+            protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
+                int load = loadCount.incrementAndGet();
+                if (load == 2) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                SimpleAuthorizationInfo info = new SimpleAuthorizationInfo();
+                info.addStringPermission("document:version" + load);
+                return info;
+            }
+        };
+        realm.setCacheManager(new DefaultCacheManager());
+        realm.setAuthorizationCacheSoftTimeToLive(1);
+        PrincipalCollection pCollection = new SimplePrincipalCollection(new UsernamePrincipal("blah"), realm.getName());
+
+        try {
+            assertTrue(realm.isPermitted(pCollection, "document:version1"));
+            Thread.sleep(10);
+            //stale - answered from the cache while the refresh blocks in the background:
+            assertTrue(realm.isPermitted(pCollection, "document:version1"));
+            assertTrue(realm.isPermitted(pCollection, "document:version1"));
+            realm.setAuthorizationCacheSoftTimeToLive(60000);
+            release.countDown();
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!realm.isPermitted(pCollection, "document:version2") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(realm.isPermitted(pCollection, "document:version2"));
+
+            assertEquals(2, loadCount.get());
+
+            //expired entries are reloaded synchronously:
+            realm.setAuthorizationCacheHardTimeToLive(1);
+            Thread.sleep(10);
+            assertTrue(realm.isPermitted(pCollection, "document:version3"));
+        } finally {
+            realm.destroy();
+        }
+    }
+
+    @Test
+    public void testAuthenticationInfoCached() {
+        final AtomicInteger loads = new AtomicInteger();
+        final String[] storedPassword = {PASSWORD};
+        AuthorizingRealm cachingRealm = new AuthorizingRealm() {
+            protected AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) {
+                loads.incrementAndGet();
+                return new SimpleAuthenticationInfo(token.getPrincipal(), storedPassword[0], getName());
+            }
+
+            protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
+                return null;
+            }
+        };
+        cachingRealm.setCacheManager(new DefaultCacheManager());
+        cachingRealm.setAuthenticationCachingEnabled(true);
+
+        AuthenticationInfo info = cachingRealm.getAuthenticationInfo(new UsernamePasswordToken(USERNAME, PASSWORD));
+        cachingRealm.getAuthenticationInfo(new UsernamePasswordToken(USERNAME, PASSWORD));
+        assertEquals(1, loads.get());
+
+        //credentials are still verified against the cached info:
+        try {
+            cachingRealm.getAuthenticationInfo(new UsernamePasswordToken(USERNAME, "wrong"));
+            fail("incorrect credentials should have been rejected");
+        } catch (IncorrectCredentialsException expected) {
+        }
+
+        cachingRealm.onLogout(info.getPrincipals());
+        int before = loads.get();
+        cachingRealm.getAuthenticationInfo(new UsernamePasswordToken(USERNAME, PASSWORD));
+        assertEquals(before + 1, loads.get());
+
+        //changed credentials are picked up instead of being rejected by the outdated cache entry:
+        storedPassword[0] = "changed";
+        cachingRealm.getAuthenticationInfo(new UsernamePasswordToken(USERNAME, "changed"));
+        cachingRealm.getAuthenticationInfo(new UsernamePasswordToken(USERNAME, "changed"));
+        assertEquals(before + 2, loads.get());
+    }
+
+    @Test
+    public void testExplicitAuthenticationCacheRetained() {
+        AuthorizingRealm cachingRealm = new AllowAllRealm();
+        cachingRealm.setAuthenticationCachingEnabled(true);
+        cachingRealm.setCacheManager(new DefaultCacheManager());
+        cachingRealm.getAuthenticationInfo(new UsernamePasswordToken(USERNAME, PASSWORD));
+        Cache built = cachingRealm.getAuthenticationCache();
+        assertNotNull(built);
+        //a cache built from the previous cacheManager is discarded:
+        cachingRealm.setCacheManager(new DefaultCacheManager());
+        assertNull(cachingRealm.getAuthenticationCache());
+
+        Cache explicit = new DefaultCacheManager().getCache("explicit");
+        cachingRealm.setAuthenticationCache(explicit);
+        cachingRealm.setCacheManager(new DefaultCacheManager());
+        assertSame(explicit, cachingRealm.getAuthenticationCache());
+    }
+
+    @Test
+    public void testOverriddenAuthorizationInfoUsedByChecks() {
+        AuthorizingRealm overridingRealm = new AllowAllRealm() {
+            public AuthorizationInfo getAuthorizationInfo(PrincipalCollection principals) {
+                SimpleAuthorizationInfo info = new SimpleAuthorizationInfo();
+                info.addRole("auditor");
+                info.addStringPermission("report:read");
+                return info;
+            }
+        };
+        overridingRealm.setCacheManager(new DefaultCacheManager());
+        PrincipalCollection principals = new SimplePrincipalCollection(USERNAME, overridingRealm.getName());
+        assertTrue(overridingRealm.hasRole(principals, "auditor"));
+        assertFalse(overridingRealm.hasRole(principals, ROLE));
+        assertTrue(overridingRealm.isPermitted(principals, "report:read"));
+        assertFalse(overridingRealm.isPermitted(principals, "report:write"));
+
+        //an unchanged override reuses the cached compiled info:
+        AuthorizingRealm delegatingRealm = new AllowAllRealm() {
+            public AuthorizationInfo getAuthorizationInfo(PrincipalCollection principals) {
+                return super.getAuthorizationInfo(principals);
+            }
+        };
+        delegatingRealm.setCacheManager(new DefaultCacheManager());
+        principals = new SimplePrincipalCollection(USERNAME, delegatingRealm.getName());
+        assertTrue(delegatingRealm.hasRole(principals, ROLE));
+        assertSame(delegatingRealm.getCompiledAuthorizationInfo(principals),
+                delegatingRealm.getCompiledAuthorizationInfo(principals));
+    }
+
     private void assertArrayEquals(boolean[] expected, boolean[] actual) {
         if (expected.length != actual.length) {
             fail("Expected array of length [" + expected.length + "] but received array of length [" + actual.length + "]");
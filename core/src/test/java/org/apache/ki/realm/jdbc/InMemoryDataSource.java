@@ -0,0 +1,325 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.realm.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.sql.DataSource;
+
+/**
+ * An in-process stand-in for the database of a {@link JdbcRealm}, following the schema implied by its default
+ * queries.  It answers the default queries as well as the {@link #CHANGED_USERS_QUERY}, {@link #CHANGED_ROLES_QUERY}
+ * and {@link #CURRENT_TIMESTAMP_QUERY}, and records every statement prepared and executed.
+ *
+ * @since 1.0
+ */
+public class InMemoryDataSource {
+
+    public static final String CHANGED_USERS_QUERY = "select username from users where roles_modified >= ?";
+
+    public static final String CHANGED_ROLES_QUERY = "select role_name from roles where permissions_modified >= ?";
+
+    public static final String CURRENT_TIMESTAMP_QUERY = "select current_timestamp";
+
+    private final Map<String, Set<String>> userRoles = new LinkedHashMap<String, Set<String>>();
+    private final Map<String, Set<String>> rolePermissions = new LinkedHashMap<String, Set<String>>();
+    private final Set<String> changedUsers = new LinkedHashSet<String>();
+    private final Set<String> changedRoles = new LinkedHashSet<String>();
+    private Timestamp currentTimestamp = new Timestamp(0);
+
+    private final List<String> prepared = new ArrayList<String>();
+    private final List<String> executed = new ArrayList<String>();
+    private final List<Object> parameters = new ArrayList<Object>();
+    private int openConnections = 0;
+    private int lastFetchSize = 0;
+
+    public synchronized void setUserRoles(String username, String... roleNames) {
+        userRoles.put(username, new LinkedHashSet<String>(Arrays.asList(roleNames)));
+    }
+
+    public synchronized void setRolePermissions(String roleName, String... permissions) {
+        rolePermissions.put(roleName, new LinkedHashSet<String>(Arrays.asList(permissions)));
+    }
+
+    /**
+     * Changes a user's roles and reports the user from the {@link #CHANGED_USERS_QUERY} from now on.
+     */
+    public synchronized void changeUserRoles(String username, String... roleNames) {
+        setUserRoles(username, roleNames);
+        changedUsers.add(username);
+    }
+
+    /**
+     * Changes a role's permissions and reports the role from the {@link #CHANGED_ROLES_QUERY} from now on.
+     */
+    public synchronized void changeRolePermissions(String roleName, String... permissions) {
+        setRolePermissions(roleName, permissions);
+        changedRoles.add(roleName);
+    }
+
+    public synchronized void setCurrentTimestamp(Timestamp currentTimestamp) {
+        this.currentTimestamp = currentTimestamp;
+    }
+
+    /**
+     * Returns the number of times the specified query was prepared.
+     */
+    public synchronized int getPreparedCount(String query) {
+        return Collections.frequency(prepared, query);
+    }
+
+    /**
+     * Returns the number of times the specified query was executed.
+     */
+    public synchronized int getExecutedCount(String query) {
+        return Collections.frequency(executed, query);
+    }
+
+    /**
+     * Returns the number of times the specified query was executed with the specified parameter.
+     */
+    public synchronized int getExecutedCount(String query, Object parameter) {
+        int count = 0;
+        for (int i = 0; i < executed.size(); i++) {
+            if (executed.get(i).equals(query) && parameter.equals(parameters.get(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the parameter of the last execution of the specified query, or <tt>null</tt> if it wasn't executed.
+     */
+    public synchronized Object getLastParameter(String query) {
+        int i = executed.lastIndexOf(query);
+        return i >= 0 ? parameters.get(i) : null;
+    }
+
+    public synchronized int getOpenConnections() {
+        return openConnections;
+    }
+
+    public synchronized int getLastFetchSize() {
+        return lastFetchSize;
+    }
+
+    public synchronized void resetCounts() {
+        prepared.clear();
+        executed.clear();
+        parameters.clear();
+    }
+
+    public DataSource getDataSource() {
+        return proxy(DataSource.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getConnection")) {
+                    synchronized (InMemoryDataSource.this) {
+                        openConnections++;
+                    }
+                    return newConnection();
+                }
+                return unsupported(proxy, method, args);
+            }
+        });
+    }
+
+    private Connection newConnection() {
+        return proxy(Connection.class, new InvocationHandler() {
+            private boolean closed = false;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("close")) {
+                    synchronized (InMemoryDataSource.this) {
+                        if (!closed) {
+                            closed = true;
+                            openConnections--;
+                        }
+                    }
+                    return null;
+                }
+                if (closed) {
+                    throw new SQLException("Connection has been closed.");
+                }
+                if (name.equals("prepareStatement") && args.length == 1) {
+                    synchronized (InMemoryDataSource.this) {
+                        prepared.add((String) args[0]);
+                    }
+                    return newStatement((String) args[0]);
+                }
+                return unsupported(proxy, method, args);
+            }
+        });
+    }
+
+    private PreparedStatement newStatement(final String query) {
+        return proxy(PreparedStatement.class, new InvocationHandler() {
+            private Object parameter;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("setString") || name.equals("setTimestamp")) {
+                    parameter = args[1];
+                    return null;
+                }
+                if (name.equals("setFetchSize")) {
+                    synchronized (InMemoryDataSource.this) {
+                        lastFetchSize = (Integer) args[0];
+                    }
+                    return null;
+                }
+                if (name.equals("executeQuery") && args == null) {
+                    synchronized (InMemoryDataSource.this) {
+                        executed.add(query);
+                        parameters.add(parameter);
+                        return newResultSet(query(query, parameter));
+                    }
+                }
+                if (name.equals("close")) {
+                    return null;
+                }
+                return unsupported(proxy, method, args);
+            }
+        });
+    }
+
+    private List<Object[]> query(String query, Object parameter) throws SQLException {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        if (query.equals(JdbcRealm.DEFAULT_USER_ROLES_QUERY)) {
+            for (String roleName : getValues(userRoles, parameter)) {
+                rows.add(new Object[]{roleName});
+            }
+        } else if (query.equals(JdbcRealm.DEFAULT_PERMISSIONS_QUERY)) {
+            for (String permission : getValues(rolePermissions, parameter)) {
+                rows.add(new Object[]{permission});
+            }
+        } else if (query.equals(JdbcRealm.DEFAULT_USER_ROLES_PERMISSIONS_QUERY)) {
+            for (String roleName : getValues(userRoles, parameter)) {
+                Set<String> permissions = getValues(rolePermissions, roleName);
+                if (permissions.isEmpty()) {
+                    rows.add(new Object[]{roleName, null});
+                }
+                for (String permission : permissions) {
+                    rows.add(new Object[]{roleName, permission});
+                }
+            }
+        } else if (query.equals(JdbcRealm.DEFAULT_ALL_USER_ROLES_QUERY)) {
+            addAll(rows, userRoles);
+        } else if (query.equals(JdbcRealm.DEFAULT_ALL_ROLES_PERMISSIONS_QUERY)) {
+            addAll(rows, rolePermissions);
+        } else if (query.equals(CHANGED_USERS_QUERY)) {
+            addKeys(rows, changedUsers);
+        } else if (query.equals(CHANGED_ROLES_QUERY)) {
+            addKeys(rows, changedRoles);
+        } else if (query.equals(CURRENT_TIMESTAMP_QUERY)) {
+            rows.add(new Object[]{currentTimestamp});
+        } else {
+            throw new SQLException("Unknown query [" + query + "]");
+        }
+        return rows;
+    }
+
+    private static Set<String> getValues(Map<String, Set<String>> table, Object key) {
+        Set<String> values = table.get(key);
+        return values != null ? values : Collections.<String>emptySet();
+    }
+
+    private static void addAll(List<Object[]> rows, Map<String, Set<String>> table) {
+        for (Map.Entry<String, Set<String>> entry : table.entrySet()) {
+            for (String value : entry.getValue()) {
+                rows.add(new Object[]{entry.getKey(), value});
+            }
+        }
+    }
+
+    private static void addKeys(List<Object[]> rows, Set<String> keys) {
+        for (String key : keys) {
+            rows.add(new Object[]{key});
+        }
+    }
+
+    private ResultSet newResultSet(final List<Object[]> rows) {
+        final int columns = rows.isEmpty() ? 2 : rows.get(0).length;
+        final ResultSetMetaData metaData = proxy(ResultSetMetaData.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getColumnCount")) {
+                    return columns;
+                }
+                return unsupported(proxy, method, args);
+            }
+        });
+        return proxy(ResultSet.class, new InvocationHandler() {
+            private final Iterator<Object[]> iterator = rows.iterator();
+            private Object[] row;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("next")) {
+                    row = iterator.hasNext() ? iterator.next() : null;
+                    return row != null;
+                }
+                if ((name.equals("getString") || name.equals("getTimestamp")) && args[0] instanceof Integer) {
+                    return row[(Integer) args[0] - 1];
+                }
+                if (name.equals("getMetaData")) {
+                    return metaData;
+                }
+                if (name.equals("close")) {
+                    return null;
+                }
+                return unsupported(proxy, method, args);
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, handler));
+    }
+
+    private static Object unsupported(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if (name.equals("equals")) {
+            return proxy == args[0];
+        }
+        if (name.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        }
+        if (name.equals("toString")) {
+            return "InMemory" + proxy.getClass().getInterfaces()[0].getSimpleName();
+        }
+        throw new UnsupportedOperationException(name);
+    }
+}
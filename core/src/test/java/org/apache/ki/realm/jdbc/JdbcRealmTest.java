@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.realm.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.ki.authz.AuthorizationInfo;
+import org.apache.ki.authz.permission.WildcardPermission;
+import org.apache.ki.cache.DefaultCacheManager;
+import org.apache.ki.subject.PrincipalCollection;
+import org.apache.ki.subject.SimplePrincipalCollection;
+
+/**
+ * @since 1.0
+ */
+public class JdbcRealmTest {
+
+    private InMemoryDataSource db;
+    private JdbcRealm realm;
+
+    @Before
+    public void setup() {
+        db = new InMemoryDataSource();
+        db.setUserRoles("jsmith", "user", "admin");
+        db.setUserRoles("jdoe", "user", "guest");
+        db.setRolePermissions("user", "document:read");
+        db.setRolePermissions("admin", "document:*", "user:*");
+
+        realm = new JdbcRealm();
+        realm.setDataSource(db.getDataSource());
+        realm.setPermissionsLookupEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        realm.destroy();
+        assertEquals(0, db.getOpenConnections());
+    }
+
+    private PrincipalCollection principals(String username) {
+        return new SimplePrincipalCollection(username, realm.getName());
+    }
+
+    private static Set<Object> set(Object... values) {
+        return new HashSet<Object>(Arrays.asList(values));
+    }
+
+    private void enableRoleCaching() {
+        realm.setRoleCachingEnabled(true);
+        realm.setCacheManager(new DefaultCacheManager());
+    }
+
+    /**
+     * Replaces the realm with one that runs the specified action once, right after the first lookup of a role's
+     * permissions or a user's roles, as if it happened concurrently.
+     */
+    private void replaceRealm(final Runnable duringPermissionsLoad, final Runnable duringRolesLoad) {
+        realm.destroy();
+        realm = new JdbcRealm() {
+            private boolean permissionsLoaded = false;
+            private boolean rolesLoaded = false;
+
+            protected Map<String, Set<String>> getPermissionsByRole(Connection conn, Collection<String> roleNames)
+                    throws SQLException {
+                Map<String, Set<String>> permissions = super.getPermissionsByRole(conn, roleNames);
+                if (!permissionsLoaded && duringPermissionsLoad != null) {
+                    permissionsLoaded = true;
+                    duringPermissionsLoad.run();
+                }
+                return permissions;
+            }
+
+            protected Set<String> getRoleNamesForUser(Connection conn, String username) throws SQLException {
+                Set<String> roleNames = super.getRoleNamesForUser(conn, username);
+                if (!rolesLoaded && duringRolesLoad != null) {
+                    rolesLoaded = true;
+                    duringRolesLoad.run();
+                }
+                return roleNames;
+            }
+        };
+        realm.setDataSource(db.getDataSource());
+        realm.setPermissionsLookupEnabled(true);
+    }
+
+    @Test
+    public void testJoinedQuery() {
+        realm.setUserRolesPermissionsQuery(JdbcRealm.DEFAULT_USER_ROLES_PERMISSIONS_QUERY);
+        AuthorizationInfo info = realm.doGetAuthorizationInfo(principals("jdoe"));
+        assertEquals(set("user", "guest"), new HashSet<Object>(info.getRoles()));
+        assertEquals(set("document:read"), new HashSet<Object>(info.getStringPermissions()));
+
+        assertEquals(1, db.getExecutedCount(JdbcRealm.DEFAULT_USER_ROLES_PERMISSIONS_QUERY));
+        assertEquals(0, db.getExecutedCount(JdbcRealm.DEFAULT_USER_ROLES_QUERY));
+        assertEquals(0, db.getExecutedCount(JdbcRealm.DEFAULT_PERMISSIONS_QUERY));
+    }
+
+    @Test
+    public void testPermissionsStatementReused() {
+        AuthorizationInfo info = realm.doGetAuthorizationInfo(principals("jsmith"));
+        assertEquals(set("user", "admin"), new HashSet<Object>(info.getRoles()));
+        assertEquals(set("document:read", "document:*", "user:*"), new HashSet<Object>(info.getStringPermissions()));
+
+        assertEquals(1, db.getPreparedCount(JdbcRealm.DEFAULT_PERMISSIONS_QUERY));
+        assertEquals(2, db.getExecutedCount(JdbcRealm.DEFAULT_PERMISSIONS_QUERY));
+    }
+
+    @Test
+    public void testRoleCaching() {
+        enableRoleCaching();
+        realm.doGetAuthorizationInfo(principals("jsmith"));
+        realm.doGetAuthorizationInfo(principals("jdoe"));
+        AuthorizationInfo info = realm.doGetAuthorizationInfo(principals("jdoe"));
+        assertEquals(set("user", "guest"), new HashSet<Object>(info.getRoles()));
+        assertEquals(set(new WildcardPermission("document:read")),
+                new HashSet<Object>(info.getObjectPermissions()));
+
+        //each user's roles and each role's permissions are only read once:
+        assertEquals(1, db.getExecutedCount(JdbcRealm.DEFAULT_USER_ROLES_QUERY, "jsmith"));
+        assertEquals(1, db.getExecutedCount(JdbcRealm.DEFAULT_USER_ROLES_QUERY, "jdoe"));
+        assertEquals(1, db.getExecutedCount(JdbcRealm.DEFAULT_PERMISSIONS_QUERY, "user"));
+        assertEquals(1, db.getExecutedCount(JdbcRealm.DEFAULT_PERMISSIONS_QUERY, "admin"));
+        //roles without permissions are cached as well:
+        assertEquals(1, db.getExecutedCount(JdbcRealm.DEFAULT_PERMISSIONS_QUERY, "guest"));
+    }
+
+    @Test
+    public void testClearCachedRolePermissions() {
+        enableRoleCaching();
+        assertTrue(realm.isPermitted(principals("jdoe"), "document:read"));
+        db.setRolePermissions("user", "report:read");
+        assertFalse(realm.isPermitted(principals("jdoe"), "report:read"));
+
+        realm.clearCachedRolePermissions("user");
+        assertTrue(realm.isPermitted(principals("jdoe"), "report:read"));
+        assertFalse(realm.isPermitted(principals("jdoe"), "document:read"));
+
+        //the user's roles didn't change and are still cached:
+        assertEquals(1, db.getExecutedCount(JdbcRealm.DEFAULT_USER_ROLES_QUERY, "jdoe"));
+        assertEquals(2, db.getExecutedCount(JdbcRealm.DEFAULT_PERMISSIONS_QUERY, "user"));
+        assertEquals(1, db.getExecutedCount(JdbcRealm.DEFAULT_PERMISSIONS_QUERY, "guest"));
+    }
+
+    @Test
+    public void testClearCachedUserRoles() {
+        enableRoleCaching();
+        assertFalse(realm.isPermitted(principals("jdoe"), "user:edit"));
+        db.setUserRoles("jdoe", "admin");
+        assertFalse(realm.isPermitted(principals("jdoe"), "user:edit"));
+
+        realm.clearCachedUserRoles("jdoe");
+        assertTrue(realm.isPermitted(principals("jdoe"), "user:edit"));
+        assertEquals(2, db.getExecutedCount(JdbcRealm.DEFAULT_USER_ROLES_QUERY, "jdoe"));
+        //the role's permissions are still cached:
+        assertEquals(1, db.getExecutedCount(JdbcRealm.DEFAULT_PERMISSIONS_QUERY, "admin"));
+
+        //logging out discards the cached roles as well:
+        realm.onLogout(principals("jdoe"));
+        assertTrue(realm.isPermitted(principals("jdoe"), "user:edit"));
+        assertEquals(3, db.getExecutedCount(JdbcRealm.DEFAULT_USER_ROLES_QUERY, "jdoe"));
+    }
+
+    @Test
+    public void testRolePermissionsClearedDuringLoad() {
+        replaceRealm(new Runnable() {
+            public void run() {
+                db.setRolePermissions("user", "report:read");
+                realm.clearCachedRolePermissions("user");
+            }
+        }, null);
+        enableRoleCaching();
+        assertTrue(realm.isPermitted(principals("jdoe"), "document:read"));
+        //the permissions read before the clear were not cached:
+        assertTrue(realm.isPermitted(principals("jdoe"), "report:read"));
+        assertEquals(2, db.getExecutedCount(JdbcRealm.DEFAULT_PERMISSIONS_QUERY, "user"));
+    }
+
+    @Test
+    public void testUserRolesClearedDuringLoad() {
+        replaceRealm(null, new Runnable() {
+            public void run() {
+                db.setUserRoles("jdoe", "admin");
+                realm.clearCachedUserRoles("jdoe");
+            }
+        });
+        enableRoleCaching();
+        assertFalse(realm.isPermitted(principals("jdoe"), "user:edit"));
+        //the roles read before the clear were not cached:
+        assertTrue(realm.isPermitted(principals("jdoe"), "user:edit"));
+        assertEquals(2, db.getExecutedCount(JdbcRealm.DEFAULT_USER_ROLES_QUERY, "jdoe"));
+    }
+
+    @Test
+    public void testWarmUp() {
+        realm.setWarmUpEnabled(true);
+        realm.setWarmUpFetchSize(10);
+        enableRoleCaching();
+        assertEquals(1, db.getExecutedCount(JdbcRealm.DEFAULT_ALL_USER_ROLES_QUERY));
+        assertEquals(1, db.getExecutedCount(JdbcRealm.DEFAULT_ALL_ROLES_PERMISSIONS_QUERY));
+        assertEquals(10, db.getLastFetchSize());
+
+        db.resetCounts();
+        assertTrue(realm.isPermitted(principals("jsmith"), "user:edit"));
+        assertTrue(realm.isPermitted(principals("jdoe"), "document:read"));
+        assertFalse(realm.isPermitted(principals("jdoe"), "user:edit"));
+        assertEquals(0, db.getExecutedCount(JdbcRealm.DEFAULT_USER_ROLES_QUERY));
+        //including the permissions of roles without any:
+        assertEquals(0, db.getExecutedCount(JdbcRealm.DEFAULT_PERMISSIONS_QUERY));
+    }
+
+    @Test
+    public void testRefresh() {
+        realm.setWarmUpEnabled(true);
+        realm.setChangedUsersQuery(InMemoryDataSource.CHANGED_USERS_QUERY);
+        realm.setChangedRolesQuery(InMemoryDataSource.CHANGED_ROLES_QUERY);
+        realm.setCurrentTimestampQuery(InMemoryDataSource.CURRENT_TIMESTAMP_QUERY);
+        realm.setRefreshOverlap(1000);
+        db.setCurrentTimestamp(new Timestamp(100000));
+        enableRoleCaching();
+
+        assertFalse(realm.isPermitted(principals("jdoe"), "user:edit"));
+        assertFalse(realm.isPermitted(principals("jsmith"), "report:read"));
+        db.changeUserRoles("jdoe", "admin");
+        db.changeRolePermissions("user", "report:read");
+        db.setCurrentTimestamp(new Timestamp(200000));
+
+        realm.refresh();
+        //changes since the start of the warm-up, according to the database's clock, less the overlap:
+        assertEquals(new Timestamp(99000), db.getLastParameter(InMemoryDataSource.CHANGED_USERS_QUERY));
+        assertEquals(new Timestamp(99000), db.getLastParameter(InMemoryDataSource.CHANGED_ROLES_QUERY));
+
+        db.resetCounts();
+        assertTrue(realm.isPermitted(principals("jdoe"), "user:edit"));
+        assertTrue(realm.isPermitted(principals("jsmith"), "report:read"));
+        assertEquals(0, db.getExecutedCount(JdbcRealm.DEFAULT_USER_ROLES_QUERY));
+        assertEquals(0, db.getExecutedCount(JdbcRealm.DEFAULT_PERMISSIONS_QUERY));
+
+        realm.refresh();
+        assertEquals(new Timestamp(199000), db.getLastParameter(InMemoryDataSource.CHANGED_USERS_QUERY));
+    }
+
+    @Test
+    public void testWarmUpOnInit() {
+        //configured after the cacheManager, as a configuration file might do:
+        realm.setCacheManager(new DefaultCacheManager());
+        realm.setRoleCachingEnabled(true);
+        realm.setWarmUpEnabled(true);
+        assertEquals(0, db.getExecutedCount(JdbcRealm.DEFAULT_ALL_USER_ROLES_QUERY));
+
+        realm.init();
+        assertEquals(1, db.getExecutedCount(JdbcRealm.DEFAULT_ALL_USER_ROLES_QUERY));
+        realm.init();
+        assertEquals(1, db.getExecutedCount(JdbcRealm.DEFAULT_ALL_USER_ROLES_QUERY));
+    }
+}
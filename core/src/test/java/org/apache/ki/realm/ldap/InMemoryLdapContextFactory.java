@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.realm.ldap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.LdapContext;
+import javax.naming.spi.InitialContextFactory;
+
+/**
+ * An in-process stand-in for an LDAP server, configured as the JNDI <tt>contextFactoryClassName</tt>.  It only
+ * supports simple binds (on creation and via <tt>reconnect</tt>), environment changes and root DSE reads, and keeps
+ * track of the connections it has opened.
+ *
+ * @since 1.0
+ */
+public class InMemoryLdapContextFactory implements InitialContextFactory {
+
+    private static final Map<String, String> users = new HashMap<String, String>();
+
+    private static final List<Connection> connections = new ArrayList<Connection>();
+
+    public static synchronized void reset() {
+        users.clear();
+        connections.clear();
+    }
+
+    public static synchronized void addUser(String principal, String password) {
+        users.put(principal, password);
+    }
+
+    /**
+     * Returns the number of connections opened and not yet closed.
+     */
+    public static synchronized int getOpenCount() {
+        int count = 0;
+        for (Connection connection : connections) {
+            if (!connection.closed) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Simulates the server dropping all currently open connections.
+     */
+    public static synchronized void disconnectAll() {
+        for (Connection connection : connections) {
+            connection.disconnected = true;
+        }
+    }
+
+    private static synchronized void authenticate(Hashtable env) throws NamingException {
+        Object principal = env.get(Context.SECURITY_PRINCIPAL);
+        if ("none".equals(env.get(Context.SECURITY_AUTHENTICATION)) || principal == null) {
+            return;
+        }
+        String password = users.get(principal);
+        if (password == null || !password.equals(env.get(Context.SECURITY_CREDENTIALS))) {
+            throw new AuthenticationException("[LDAP: error code 49 - Invalid Credentials]");
+        }
+    }
+
+    public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException {
+        Hashtable<Object, Object> env = new Hashtable<Object, Object>(environment);
+        authenticate(env);
+        Connection connection = new Connection(env);
+        synchronized (InMemoryLdapContextFactory.class) {
+            connections.add(connection);
+        }
+        return (Context) Proxy.newProxyInstance(LdapContext.class.getClassLoader(),
+                new Class[]{LdapContext.class}, connection);
+    }
+
+    private static class Connection implements InvocationHandler {
+
+        private final Hashtable<Object, Object> env;
+        private volatile boolean closed = false;
+        private volatile boolean disconnected = false;
+
+        private Connection(Hashtable<Object, Object> env) {
+            this.env = env;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString")) {
+                return "InMemoryLdapContext" + env.get(Context.SECURITY_PRINCIPAL);
+            }
+            if (name.equals("close")) {
+                closed = true;
+                return null;
+            }
+            if (closed) {
+                throw new NamingException("Connection has been closed.");
+            }
+            if (disconnected) {
+                throw new CommunicationException("Connection reset.");
+            }
+            if (name.equals("getEnvironment")) {
+                return env.clone();
+            }
+            if (name.equals("addToEnvironment")) {
+                return env.put(args[0], args[1]);
+            }
+            if (name.equals("removeFromEnvironment")) {
+                return env.remove(args[0]);
+            }
+            if (name.equals("reconnect")) {
+                authenticate(env);
+                return null;
+            }
+            if (name.equals("getAttributes")) {
+                return new BasicAttributes("objectClass", "top");
+            }
+            throw new OperationNotSupportedException(name);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.realm.ldap;
+
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.LdapContext;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @since 1.0
+ */
+public class PooledLdapContextFactoryTest {
+
+    private PooledLdapContextFactory factory;
+
+    @Before
+    public void setUp() {
+        InMemoryLdapContextFactory.reset();
+        InMemoryLdapContextFactory.addUser("system@example.com", "manager");
+        InMemoryLdapContextFactory.addUser("jsmith@example.com", "secret");
+
+        factory = new PooledLdapContextFactory();
+        factory.setContextFactoryClassName(InMemoryLdapContextFactory.class.getName());
+        factory.setUrl("ldap://localhost:389");
+        factory.setSearchBase("dc=example,dc=com");
+        factory.setPrincipalSuffix("@example.com");
+        factory.setSystemUsername("system");
+        factory.setSystemPassword("manager");
+        factory.setEvictionIntervalMillis(0);
+    }
+
+    @After
+    public void tearDown() {
+        factory.destroy();
+    }
+
+    private static Object getPrincipal(LdapContext ctx) throws NamingException {
+        return ctx.getEnvironment().get(Context.SECURITY_PRINCIPAL);
+    }
+
+    @Test
+    public void testSystemContextReused() throws NamingException {
+        for (int i = 0; i < 3; i++) {
+            LdapContext ctx = factory.getSystemLdapContext();
+            assertEquals("system@example.com", getPrincipal(ctx));
+            assertEquals(1, factory.getActiveCount());
+            LdapUtils.closeContext(ctx);
+        }
+        assertEquals(1, factory.getStatistics().getCreatedCount());
+        assertEquals(3, factory.getStatistics().getBorrowCount());
+        assertEquals(0, factory.getActiveCount());
+        assertEquals(1, factory.getIdleCount());
+    }
+
+    @Test
+    public void testUserBindRestoresSystemCredentials() throws NamingException {
+        LdapContext ctx = factory.getLdapContext("jsmith", "secret");
+        assertEquals("jsmith@example.com", getPrincipal(ctx));
+        LdapUtils.closeContext(ctx);
+
+        ctx = factory.getSystemLdapContext();
+        assertEquals("system@example.com", getPrincipal(ctx));
+        LdapUtils.closeContext(ctx);
+        assertEquals(1, factory.getStatistics().getCreatedCount());
+        assertEquals(1, InMemoryLdapContextFactory.getOpenCount());
+    }
+
+    @Test
+    public void testFailedUserBind() throws NamingException {
+        try {
+            factory.getLdapContext("jsmith", "wrong");
+            fail("Invalid credentials should have been rejected.");
+        } catch (AuthenticationException expected) {
+        }
+        try {
+            factory.getLdapContext("jsmith", "");
+            fail("An empty password should have been rejected.");
+        } catch (AuthenticationException expected) {
+        }
+        assertEquals(1, factory.getStatistics().getBindFailureCount());
+        assertEquals(0, factory.getActiveCount());
+        assertEquals(1, factory.getIdleCount());
+
+        LdapContext ctx = factory.getSystemLdapContext();
+        assertEquals("system@example.com", getPrincipal(ctx));
+        LdapUtils.closeContext(ctx);
+        assertEquals(1, factory.getStatistics().getCreatedCount());
+    }
+
+    @Test
+    public void testOnlySystemCredentialsReturnSystemContext() throws NamingException {
+        try {
+            factory.getLdapContext(null, "manager");
+            fail("A null username should have been rejected.");
+        } catch (AuthenticationException expected) {
+        }
+        try {
+            factory.getLdapContext("system", "wrong");
+            fail("Invalid system credentials should have been rejected.");
+        } catch (AuthenticationException expected) {
+        }
+
+        LdapContext ctx = factory.getLdapContext("system", "manager");
+        assertEquals("system@example.com", getPrincipal(ctx));
+        LdapUtils.closeContext(ctx);
+        assertEquals(1, factory.getStatistics().getCreatedCount());
+    }
+
+    @Test
+    public void testClosedContextCannotBeUsed() throws NamingException {
+        LdapContext ctx = factory.getSystemLdapContext();
+        ctx.close();
+        ctx.close();
+        try {
+            ctx.getEnvironment();
+            fail("A closed context should not be usable.");
+        } catch (NamingException expected) {
+        }
+        assertEquals(1, factory.getIdleCount());
+    }
+
+    @Test
+    public void testPoolExhausted() throws NamingException {
+        factory.setMaxSize(1);
+        factory.setMaxWaitMillis(0);
+        LdapContext ctx = factory.getSystemLdapContext();
+        try {
+            factory.getLdapContext("jsmith", "secret");
+            fail("The pool should have been exhausted.");
+        } catch (ServiceUnavailableException expected) {
+        }
+        assertEquals(1, factory.getStatistics().getExhaustedCount());
+        LdapUtils.closeContext(ctx);
+
+        ctx = factory.getLdapContext("jsmith", "secret");
+        LdapUtils.closeContext(ctx);
+    }
+
+    @Test
+    public void testDroppedConnectionReplaced() throws NamingException {
+        LdapUtils.closeContext(factory.getSystemLdapContext());
+        InMemoryLdapContextFactory.disconnectAll();
+
+        LdapContext ctx = factory.getSystemLdapContext();
+        assertEquals("system@example.com", getPrincipal(ctx));
+        LdapUtils.closeContext(ctx);
+        assertEquals(1, factory.getStatistics().getValidationFailureCount());
+        assertEquals(2, factory.getStatistics().getCreatedCount());
+        assertEquals(1, InMemoryLdapContextFactory.getOpenCount());
+    }
+
+    @Test
+    public void testIdleContextsEvicted() throws Exception {
+        factory.setMinSize(1);
+        factory.setMaxIdleTimeMillis(1);
+        LdapContext ctx1 = factory.getSystemLdapContext();
+        LdapContext ctx2 = factory.getSystemLdapContext();
+        LdapUtils.closeContext(ctx1);
+        LdapUtils.closeContext(ctx2);
+        assertEquals(2, factory.getIdleCount());
+
+        Thread.sleep(10);
+        factory.evictIdleContexts();
+        assertEquals(1, factory.getIdleCount());
+        assertEquals(1, factory.getStatistics().getDestroyedCount());
+        assertEquals(1, InMemoryLdapContextFactory.getOpenCount());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.realm.text;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.ki.authz.CompiledAuthorizationInfo;
+import org.apache.ki.cache.DefaultCacheManager;
+import org.apache.ki.subject.PrincipalCollection;
+import org.apache.ki.subject.SimplePrincipalCollection;
+
+/**
+ * @since 1.0
+ */
+public class TextConfigurationRealmTest {
+
+    private TextConfigurationRealm realm;
+
+    @Before
+    public void setup() {
+        realm = new TextConfigurationRealm();
+        realm.setName("text");
+        realm.setRoleDefinitions("admin = *\n" +
+                "author = document:read, document:write\n" +
+                "reader = document:read");
+        realm.setUserDefinitions("jsmith = secret, author, reader\n" +
+                "bjones = secret, reader, author\n" +
+                "root = secret, admin");
+        realm.setCacheManager(new DefaultCacheManager());
+    }
+
+    private PrincipalCollection principals(String username) {
+        return new SimplePrincipalCollection(username, realm.getName());
+    }
+
+    @Test
+    public void testRolePermissions() {
+        assertTrue(realm.hasRole(principals("jsmith"), "author"));
+        assertFalse(realm.hasRole(principals("jsmith"), "admin"));
+        assertTrue(realm.isPermitted(principals("jsmith"), "document:write"));
+        assertFalse(realm.isPermitted(principals("jsmith"), "document:delete"));
+        assertTrue(realm.isPermitted(principals("root"), "document:delete"));
+    }
+
+    @Test
+    public void testAccountsWithSameRolesShareView() {
+        CompiledAuthorizationInfo jsmith = (CompiledAuthorizationInfo) realm.getCompiledAuthorizationInfo(principals("jsmith"));
+        CompiledAuthorizationInfo bjones = (CompiledAuthorizationInfo) realm.getCompiledAuthorizationInfo(principals("bjones"));
+        CompiledAuthorizationInfo root = (CompiledAuthorizationInfo) realm.getCompiledAuthorizationInfo(principals("root"));
+        assertNotSame(jsmith, bjones);
+        assertSame(jsmith.getPermissions(), bjones.getPermissions());
+        assertNotSame(jsmith.getPermissions(), root.getPermissions());
+        //compiled once, not per check:
+        assertSame(jsmith, realm.getCompiledAuthorizationInfo(principals("jsmith")));
+        assertSame(realm.getAuthorizationInfo(principals("jsmith")), jsmith.getSource());
+    }
+
+    @Test
+    public void testReprocessDefinitions() {
+        CompiledAuthorizationInfo before = (CompiledAuthorizationInfo) realm.getCompiledAuthorizationInfo(principals("jsmith"));
+        assertFalse(realm.isPermitted(principals("jsmith"), "document:delete"));
+
+        realm.setRoleDefinitions("admin = *\n" +
+                "author = document:read, document:write, document:delete\n" +
+                "reader = document:read");
+        realm.processDefinitions();
+
+        assertNotSame(before, realm.getCompiledAuthorizationInfo(principals("jsmith")));
+        assertTrue(realm.isPermitted(principals("jsmith"), "document:delete"));
+        assertTrue(realm.isPermitted(principals("bjones"), "document:delete"));
+    }
+
+    @Test
+    public void testAddAccount() {
+        realm.addAccount("guest", "guest", "reader");
+        assertTrue(realm.hasRole(principals("guest"), "reader"));
+        assertTrue(realm.isPermitted(principals("guest"), "document:read"));
+        assertFalse(realm.isPermitted(principals("guest"), "document:write"));
+    }
+
+    @Test
+    public void testRoleInheritance() {
+        realm.setRoleDefinitions("admin = *:delete, inherits:manager\n" +
+                "manager = user:*, inherits:employee\n" +
+                "employee = wiki:read");
+        realm.setUserDefinitions("boss = secret, admin\n" +
+                "staff = secret, employee");
+        realm.processDefinitions();
+
+        assertTrue(realm.hasRole(principals("boss"), "admin"));
+        assertTrue(realm.hasRole(principals("boss"), "manager"));
+        assertTrue(realm.hasRole(principals("boss"), "employee"));
+        assertTrue(realm.isPermitted(principals("boss"), "document:delete"));
+        assertTrue(realm.isPermitted(principals("boss"), "user:create"));
+        assertTrue(realm.isPermitted(principals("boss"), "wiki:read"));
+        assertFalse(realm.isPermitted(principals("boss"), "wiki:write"));
+
+        assertFalse(realm.hasRole(principals("staff"), "manager"));
+        assertTrue(realm.isPermitted(principals("staff"), "wiki:read"));
+        assertFalse(realm.isPermitted(principals("staff"), "user:create"));
+    }
+
+    @Test
+    public void testRoleInheritanceCycle() {
+        realm.setRoleDefinitions("a = x:1, inherits:b\n" +
+                "b = x:2, inherits:c\n" +
+                "c = x:3, inherits:a");
+        try {
+            realm.processDefinitions();
+            fail("cycle should have been detected");
+        } catch (IllegalStateException expected) {
+        }
+        //the previously compiled definitions remain in effect:
+        assertTrue(realm.isPermitted(principals("jsmith"), "document:write"));
+    }
+}
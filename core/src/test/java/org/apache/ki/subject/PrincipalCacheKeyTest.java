@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ki.subject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * @since 1.0
+ */
+public class PrincipalCacheKeyTest {
+
+    @Test
+    public void testEquality() {
+        SimplePrincipalCollection a = new SimplePrincipalCollection("jsmith", "realmA");
+        a.add(Integer.valueOf(42), "realmA");
+        a.add("jsmith@example.com", "realmB");
+
+        SimplePrincipalCollection b = new SimplePrincipalCollection("jsmith@example.com", "realmB");
+        b.add(Integer.valueOf(42), "realmA");
+        b.add("jsmith", "realmA");
+
+        PrincipalCacheKey keyA = PrincipalCacheKey.forPrincipals(a);
+        PrincipalCacheKey keyB = PrincipalCacheKey.forPrincipals(b);
+        assertEquals(keyA, keyB);
+        assertEquals(keyA.hashCode(), keyB.hashCode());
+        assertEquals(a.hashCode(), keyA.hashCode());
+
+        b.add("other", "realmB");
+        assertFalse(keyA.equals(PrincipalCacheKey.forPrincipals(b)));
+    }
+
+    @Test
+    public void testKeyReusedUntilModified() {
+        SimplePrincipalCollection principals = new SimplePrincipalCollection("jsmith", "realmA");
+        PrincipalCacheKey key = PrincipalCacheKey.forPrincipals(principals);
+        assertSame(key, PrincipalCacheKey.forPrincipals(principals));
+
+        List<Object> added = new ArrayList<Object>();
+        added.add("jsmith@example.com");
+        principals.addAll(added, "realmA");
+        PrincipalCacheKey modified = PrincipalCacheKey.forPrincipals(principals);
+        assertNotSame(key, modified);
+        assertFalse(key.equals(modified));
+        //the original key is a snapshot and unaffected by the modification:
+        assertEquals(new PrincipalCacheKey(new SimplePrincipalCollection("jsmith", "realmA")), key);
+    }
+}